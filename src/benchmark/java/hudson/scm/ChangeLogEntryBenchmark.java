@@ -0,0 +1,48 @@
+package hudson.scm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds {@link SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry} objects, which resolves the author to a
+ * Jenkins user and records their e-mail address.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeLogEntryBenchmark {
+  private SurroundSCMChangeLogSet set;
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setUp(JenkinsState jenkins) {
+    set = new SurroundSCMChangeLogSet(null, null);
+  }
+
+  @Benchmark
+  public SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry build() {
+    int i = index++ % 20;
+    return new SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry("Mainline/Project/src/File.java",
+            "Fixed defect", "12", "Check in", "20161103144114", set, "Last" + i + ", First" + i,
+            "user" + i + "@example.com");
+  }
+
+  @Benchmark
+  public String message() {
+    return build().getMsg();
+  }
+}
@@ -0,0 +1,61 @@
+package hudson.scm;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes synthetic 'sscm cc' output for the changelog benchmarks.
+ */
+final class ChangeLogGenerator {
+  /**
+   * Number of distinct authors, real changelogs only have a handful of them.
+   */
+  private static final int AUTHORS = 20;
+
+  private ChangeLogGenerator() {
+  }
+
+  /**
+   * @param index        Line number, used to vary paths, versions and authors
+   * @param pathological True to put angle brackets and a long tail in the comment, the worst case for the
+   *                     greedy line pattern.
+   * @return Returns one line in the 'sscm cc' format.
+   */
+  static String line(int index, boolean pathological) {
+    String comment;
+    if(pathological) {
+      StringBuilder sb = new StringBuilder("Merged <b>fix</b> for <Defect ").append(index).append("> ");
+      for(int i = 0; i < 50; i++) {
+        sb.append("<><> List<Map<String, Object>> ");
+      }
+      comment = sb.toString();
+    } else {
+      comment = "Fixed defect " + index;
+    }
+    int author = index % AUTHORS;
+    return String.format("<Mainline/Project/Module%d/src><File%d.java><%d><Check in><2016110314%04d><%s><Last%d, First%d><user%d@example.com>",
+            index % 100, index, index % 50 + 1, index % 10000, comment, author, author, author);
+  }
+
+  /**
+   * Writes a changelog of the given number of lines to a temporary file.
+   */
+  static File write(int lines, boolean pathological) throws IOException {
+    File file = File.createTempFile("sscm-changelog", ".txt");
+    file.deleteOnExit();
+    Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      for(int i = 0; i < lines; i++) {
+        w.write(line(i, pathological));
+        w.write('\n');
+      }
+    } finally {
+      w.close();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,55 @@
+package hudson.scm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses whole synthetic changelogs with {@link SurroundSCMChangeLogParser}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeLogParserBenchmark {
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int lines;
+
+  @Param({"false", "true"})
+  public boolean pathological;
+
+  private File changelog;
+  private SurroundSCMChangeLogParser parser;
+
+  @Setup(Level.Trial)
+  public void setUp(JenkinsState jenkins) throws Exception {
+    changelog = ChangeLogGenerator.write(lines, pathological);
+    parser = new SurroundSCMChangeLogParser();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if(!changelog.delete())
+      changelog.deleteOnExit();
+  }
+
+  @Benchmark
+  public ChangeLogSet<?> parse() {
+    return parser.parse(null, null, changelog);
+  }
+}
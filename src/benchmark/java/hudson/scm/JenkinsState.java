@@ -0,0 +1,40 @@
+package hudson.scm;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Runs a Jenkins instance for the duration of a benchmark, needed by anything touching {@link hudson.model.User} or
+ * a {@link hudson.model.Descriptor}.
+ *
+ * Benchmark states that need Jenkins take this state as a parameter of their setup method, so JMH starts Jenkins
+ * first.
+ */
+@State(Scope.Benchmark)
+public class JenkinsState {
+  private JenkinsRule rule;
+
+  @Setup(Level.Trial)
+  public void start() throws Throwable {
+    rule = new JenkinsRule();
+    // before() reads the test description, which JenkinsRule only gets from apply(). The statement apply() returns
+    // would run the whole lifecycle at once, so it is not evaluated: before() and after() run it around the trial.
+    rule.apply(new Statement() {
+      @Override
+      public void evaluate() {
+      }
+    }, Description.createTestDescription(JenkinsState.class, "benchmark"));
+    rule.before();
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() throws Exception {
+    rule.after();
+  }
+}
@@ -0,0 +1,47 @@
+package hudson.scm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses sscm:// URLs, done for every credential lookup and every location of a job.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SscmUrlBenchmark {
+  public String url = "sscm://surround.example.com:4900//release//2.0//Mainline/Project/Module";
+  public String invalid = "http://surround.example.com:4900/Mainline";
+
+  @Benchmark
+  public SscmLocation parse() {
+    return SscmLocation.parse(url);
+  }
+
+  @Benchmark
+  public boolean validate() {
+    return SSCMUtils.validateSSCMURL(url);
+  }
+
+  @Benchmark
+  public boolean validateInvalid() {
+    return SSCMUtils.validateSSCMURL(invalid);
+  }
+
+  @Benchmark
+  public String server() {
+    return SSCMUtils.getServerFromURL(url);
+  }
+}
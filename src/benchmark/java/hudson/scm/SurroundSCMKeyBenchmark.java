@@ -0,0 +1,63 @@
+package hudson.scm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes {@link SurroundSCM#getKey()}, which polling and workspace tracking ask for all the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SurroundSCMKeyBenchmark {
+  private SurroundSCM cached;
+  private List<SurroundLocation> locations;
+
+  @Setup(Level.Trial)
+  public void setUp(JenkinsState jenkins) {
+    cached = create(null);
+    cached.getKey();
+    locations = new ArrayList<SurroundLocation>();
+    for(int i = 0; i < 10; i++) {
+      locations.add(new SurroundLocation("sscm://surround.example.com:4900//Mainline//Mainline/Module" + i, "module" + i));
+    }
+  }
+
+  private static SurroundSCM create(List<SurroundLocation> locations) {
+    SurroundSCM scm = new SurroundSCM("surround.example.com", "4900", "Mainline", "Mainline/Project", null);
+    if(locations != null)
+      scm.setLocations(locations);
+    return scm;
+  }
+
+  @Benchmark
+  public String cachedKey() {
+    return cached.getKey();
+  }
+
+  @Benchmark
+  public String singleLocationKey() {
+    return create(null).getKey();
+  }
+
+  @Benchmark
+  public String multiLocationKey() {
+    return create(locations).getKey();
+  }
+}
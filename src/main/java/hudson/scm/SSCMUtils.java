@@ -23,15 +23,11 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Class for common, shared methods used to make the Surround SCM integration function.
  */
 public class SSCMUtils {
-  private final static String URI_FORMAT = "sscm://(.*):(.*)//(.*)//(.*)";
-  private final static Pattern URI_PATTERN = Pattern.compile(URI_FORMAT);
 
   /**
    * Parses the Surround SCM Server host name from the passed in sscm:// url.
@@ -43,19 +39,8 @@ public class SSCMUtils {
    */
   public static String getServerFromURL(String URL)
   {
-    String result = "";
-
-    if(URL != null)
-    {
-      Matcher changeMatcher = URI_PATTERN.matcher(URL);
-
-      if(changeMatcher.find() && changeMatcher.groupCount() == 4)
-      {
-        result = changeMatcher.group(1);
-      }
-    }
-
-    return result;
+    SscmLocation location = SscmLocation.parse(URL);
+    return location != null ? location.getServer() : "";
   }
 
   /**
@@ -68,92 +53,47 @@ public class SSCMUtils {
    */
   public static String getPortFromURL(String URL)
   {
-    String result = "";
-
-    if(URL != null)
-    {
-      Matcher changeMatcher = URI_PATTERN.matcher(URL);
-
-      if(changeMatcher.find() && changeMatcher.groupCount() == 4)
-      {
-        result = changeMatcher.group(2);
-      }
-    }
-
-    return result;
+    SscmLocation location = SscmLocation.parse(URL);
+    return location != null ? location.getPort() : "";
   }
 
   /**
-   * Parses the Surround SCM Server port from the pased in sscm:// url.
+   * Parses the Surround SCM branch from the pased in sscm:// url.
    *
    * ex. sscm://server:4900//branch//Mainline/Path/To/Repository
    *
    * @param URL ex. sscm://server:4900//branch//Mainline/Path/To/Repository
-   * @return returns the port (ex. 4900)
+   * @return returns the branch (ex. branch)
    */
   public static String getBranchFromURL(String URL)
   {
-    String result = "";
-
-    if(URL != null)
-    {
-      Matcher changeMatcher = URI_PATTERN.matcher(URL);
-
-      if(changeMatcher.find() && changeMatcher.groupCount() == 4)
-      {
-        result = changeMatcher.group(3);
-      }
-    }
-
-    return result;
+    SscmLocation location = SscmLocation.parse(URL);
+    return location != null ? location.getBranch() : "";
   }
 
   /**
-   * Parses the Surround SCM Server port from the pased in sscm:// url.
+   * Parses the Surround SCM repository from the pased in sscm:// url.
    *
    * ex. sscm://server:4900//branch//Mainline/Path/To/Repository
    *
    * @param URL ex. sscm://server:4900//branch//Mainline/Path/To/Repository
-   * @return returns the port (ex. 4900)
+   * @return returns the repository (ex. Mainline/Path/To/Repository)
    */
   public static String getRepositoryFromURL(String URL)
   {
-    String result = "";
-
-    if(URL != null)
-    {
-      Matcher changeMatcher = URI_PATTERN.matcher(URL);
-
-      if(changeMatcher.find() && changeMatcher.groupCount() == 4)
-      {
-        result = changeMatcher.group(4);
-      }
-    }
-
-    return result;
+    SscmLocation location = SscmLocation.parse(URL);
+    return location != null ? location.getRepository() : "";
   }
 
   /**
-   * Performs basic sscm:// url validation by attempting to match it to the URI_PATTERN variable.
+   * Performs basic sscm:// url validation by attempting to parse it into a {@link SscmLocation}.
    *
    * @param URL URL to test to see if it is valid.
    * @return  Returns true if the URL is valid, false if not.
    */
   public static boolean validateSSCMURL(String URL)
   {
-    if(URL == null)
-      return false;
-
-    Matcher changeMatcher = URI_PATTERN.matcher(URL);
-
-    boolean result = false;
-
-    if(changeMatcher.find() && changeMatcher.groupCount() == 4)
-    {
-      result = true;
-    }
-
-    return result;
+    return SscmLocation.parse(URL) != null;
   }
 
   /**
@@ -268,8 +208,29 @@ public class SSCMUtils {
   @CheckForNull
   public static StandardUsernameCredentials getCredentials(Job<?,?> owner, EnvVars env,
                                                            String server, String port, String credentialsId) {
+    return getCredentials(owner, env, String.format("sscm://%s:%s", server, port), credentialsId);
+  }
+
+  /**
+   * Looks up a specific credential based on the credential ID.
+   * @param owner   Used during credential lookup from the CredentialProvider
+   * @param env     Used to expand the 'Source' string
+   * @param location  Used to generate the source string
+   * @param credentialsId ID string of the credential to lookup.
+   * @return  Returns the {@link StandardUsernameCredentials} matching the specified credentialsID, or null
+   */
+  @CheckForNull
+  public static StandardUsernameCredentials getCredentials(Item owner, EnvVars env,
+                                                           SscmLocation location, String credentialsId) {
+    return getCredentials(owner, env, location.getServerUrl(), credentialsId);
+  }
+
+  @CheckForNull
+  private static StandardUsernameCredentials getCredentials(Item owner, EnvVars env,
+                                                            String serverUrl, String credentialsId) {
     if(credentialsId != null) {
-      List<? extends StandardUsernameCredentials> credentials = availableCredentials(owner, env.expand(String.format("sscm://%s:%s", server, port)));
+      List<? extends StandardUsernameCredentials> credentials = CredentialsProvider.lookupCredentials(
+              StandardUsernameCredentials.class, owner, null, URIRequirementBuilder.fromUri(env.expand(serverUrl)).build());
 
       for (StandardUsernameCredentials c : credentials) {
         if(c.getId().equals(credentialsId)) {
@@ -292,9 +253,29 @@ public class SSCMUtils {
   @CheckForNull
   public static FileCredentials getFileCredentials(Job<?,?> owner, EnvVars env,
                                             String server, String port, RSAKey rsaKey) {
+    return getFileCredentials(owner, env, String.format("sscm://%s:%s", server, port), rsaKey);
+  }
 
+  /**
+   * Looks up a specific file credential based on its ID.
+   * @param owner   Used during credential lookup from the CredentialProvider
+   * @param env     Used to expand the 'Source' string
+   * @param location  Used to generate the source string
+   * @param rsaKey  This will only work if this is an rsaKey with a {@link RSAKey.Type} of "ID"
+   * @return  Returns the fileCredential specified in the {@link RSAKey} 'value', or null
+   */
+  @CheckForNull
+  public static FileCredentials getFileCredentials(Item owner, EnvVars env,
+                                                   SscmLocation location, RSAKey rsaKey) {
+    return getFileCredentials(owner, env, location.getServerUrl(), rsaKey);
+  }
+
+  @CheckForNull
+  private static FileCredentials getFileCredentials(Item owner, EnvVars env,
+                                                    String serverUrl, RSAKey rsaKey) {
     if(rsaKey != null && rsaKey.getRsaKeyType() == RSAKey.Type.ID) {
-      List<? extends FileCredentials> credentials = availableFileCredentials(owner, env.expand(String.format("sscm://%s:%s", server, port)));
+      List<? extends FileCredentials> credentials = CredentialsProvider.lookupCredentials(
+              FileCredentials.class, owner, null, URIRequirementBuilder.fromUri(env.expand(serverUrl)).build());
 
       for(FileCredentials fc : credentials) {
         if(fc.getId().equals(rsaKey.getRsaKeyValue())) {
@@ -0,0 +1,159 @@
+package hudson.scm;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Stops polling a Surround SCM server that keeps failing, so an outage does not tie up every polling thread with
+ * 'sscm cc' commands waiting for a connection timeout.
+ *
+ * After {@link SurroundSCM.SurroundSCMDescriptor#getBreakerFailures()} consecutive failures the breaker opens and
+ * polls of that server report no changes without starting a process. Once the backoff has passed a single poll is
+ * let through as a probe: success closes the breaker, failure opens it again for twice as long, up to
+ * {@link SurroundSCM.SurroundSCMDescriptor#getBreakerMaxBackoffMinutes()}.
+ *
+ * Only polls that could not reach the server count as failures: timeouts, stalls, commands that failed to start and
+ * connection errors reported by the CLI. Errors about a single job's branch, repository or credentials show the
+ * server answered and count as successes.
+ */
+final class SscmCircuitBreaker {
+  private static final Logger LOGGER = Logger.getLogger(SscmCircuitBreaker.class.getName());
+
+  /**
+   * Backoff after the breaker first opens.
+   */
+  private static final long INITIAL_BACKOFF_MS = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * Messages of the CLI when it could not talk to the server.
+   */
+  private static final Pattern CONNECTION_FAILURE = Pattern.compile("not responding|unable to connect|" +
+          "could not connect|cannot connect|connection (refused|reset|timed out|closed|lost)|no route to host|" +
+          "unknown host|host not found", Pattern.CASE_INSENSITIVE);
+
+  private static final ConcurrentMap<String, SscmCircuitBreaker> BREAKERS = new ConcurrentHashMap<String, SscmCircuitBreaker>();
+
+  enum State {
+    /** Polls run normally. */
+    CLOSED,
+    /** Polls are skipped until the backoff has passed. */
+    OPEN,
+    /** One probe poll is running. */
+    HALF_OPEN
+  }
+
+  private final String server;
+  private State state = State.CLOSED;
+  private int failures;
+  private long backoffMs;
+  private long retryAt;
+
+  private SscmCircuitBreaker(String server) {
+    this.server = server;
+  }
+
+  /**
+   * @return Returns the breaker of the server the location is on.
+   */
+  static SscmCircuitBreaker of(SscmLocation loc) {
+    String server = loc.getServerUrl();
+    SscmCircuitBreaker breaker = BREAKERS.get(server);
+    if(breaker == null) {
+      SscmCircuitBreaker created = new SscmCircuitBreaker(server);
+      breaker = BREAKERS.putIfAbsent(server, created);
+      if(breaker == null)
+        breaker = created;
+    }
+    return breaker;
+  }
+
+  /**
+   * @return Returns the breaker of every server polled since startup.
+   */
+  static Collection<SscmCircuitBreaker> all() {
+    return BREAKERS.values();
+  }
+
+  /**
+   * @param output Output of a command that exited with an error
+   * @return Returns true if the output says the server could not be reached, as opposed to an error the server
+   *         reported about the command.
+   */
+  static boolean isConnectionFailure(String output) {
+    return CONNECTION_FAILURE.matcher(output).find();
+  }
+
+  String getServer() {
+    return server;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  synchronized int getFailures() {
+    return failures;
+  }
+
+  /**
+   * @return Returns true if a poll may run now. When this lets a probe through the caller must report its outcome.
+   */
+  synchronized boolean allowRequest() {
+    if(SurroundSCM.DESCRIPTOR.getBreakerFailures() <= 0)
+      return true;
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if(System.currentTimeMillis() < retryAt) {
+          SscmMetrics.countBreaker(server, "skipped");
+          return false;
+        }
+        state = State.HALF_OPEN;
+        LOGGER.log(Level.INFO, "Probing Surround SCM server {0} after {1} failed polls", new Object[]{server, failures});
+        return true;
+      default:
+        // A probe is already running.
+        SscmMetrics.countBreaker(server, "skipped");
+        return false;
+    }
+  }
+
+  /**
+   * @return Returns when the next probe is allowed.
+   */
+  synchronized long getRetryAt() {
+    return retryAt;
+  }
+
+  synchronized void recordSuccess() {
+    if(state != State.CLOSED) {
+      LOGGER.log(Level.INFO, "Surround SCM server {0} is reachable again, polling resumes", server);
+      SscmMetrics.countBreaker(server, "closed");
+    }
+    state = State.CLOSED;
+    failures = 0;
+    backoffMs = 0;
+  }
+
+  synchronized void recordFailure() {
+    failures++;
+    int threshold = SurroundSCM.DESCRIPTOR.getBreakerFailures();
+    if(threshold <= 0)
+      return;
+    if(state == State.HALF_OPEN || (state == State.CLOSED && failures >= threshold)) {
+      long max = TimeUnit.MINUTES.toMillis(Math.max(1, SurroundSCM.DESCRIPTOR.getBreakerMaxBackoffMinutes()));
+      backoffMs = backoffMs == 0 ? INITIAL_BACKOFF_MS : Math.min(max, backoffMs * 2);
+      retryAt = System.currentTimeMillis() + backoffMs;
+      state = State.OPEN;
+      LOGGER.log(Level.WARNING, "Surround SCM server {0} failed {1} polls in a row, not polling it for {2} seconds",
+              new Object[]{server, failures, TimeUnit.MILLISECONDS.toSeconds(backoffMs)});
+      SscmMetrics.countBreaker(server, "opened");
+    }
+  }
+}
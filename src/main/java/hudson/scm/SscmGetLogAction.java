@@ -0,0 +1,119 @@
+package hudson.scm;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves the full 'sscm get' output of a build. The build log only holds progress summaries and errors, the per
+ * file output is kept compressed in the build directory, one file per retrieval of a location.
+ */
+public class SscmGetLogAction implements RunAction2 {
+  private static final String PREFIX = "sscm-get-";
+  private static final String SUFFIX = ".log.gz";
+
+  private transient Run<?, ?> run;
+
+  /**
+   * Creates the file the full 'sscm get' output of a retrieval is kept in, named after the server, branch and
+   * repository of the location and numbered. Every retrieval gets a file of its own, so retrievals running at the same
+   * time, of the same location or of locations whose names only differ in characters left out of file names, never
+   * write to the same file.
+   *
+   * @return Returns the new, empty file.
+   */
+  static File newLogFile(Run<?, ?> run, SscmLocation location) throws IOException {
+    String name = location.getServer() + '-' + location.getBranch() + '-' + location.getRepository();
+    String base = PREFIX + name.replaceAll("[^A-Za-z0-9._-]+", "_") + '-';
+    for(int i = 1; ; i++) {
+      File file = new File(run.getRootDir(), base + i + SUFFIX);
+      if(file.createNewFile())
+        return file;
+    }
+  }
+
+  public Run<?, ?> getRun() {
+    return run;
+  }
+
+  @Override
+  public void onAttached(Run<?, ?> r) {
+    this.run = r;
+  }
+
+  @Override
+  public void onLoad(Run<?, ?> r) {
+    this.run = r;
+  }
+
+  @Override
+  public String getIconFileName() {
+    return "notepad.png";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Surround SCM Output";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "sscm-output";
+  }
+
+  /**
+   * @return Returns the names of the stored output files, used by index.jelly.
+   */
+  public List<String> getLogNames() {
+    List<String> result = new ArrayList<String>();
+    String[] names = run != null ? run.getRootDir().list() : null;
+    if(names != null) {
+      Arrays.sort(names);
+      for(String name : names) {
+        if(name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+          result.add(name);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Serves one stored output file, uncompressed, as plain text.
+   */
+  public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+    String name = req.getRestOfPath();
+    if(name.startsWith("/"))
+      name = name.substring(1);
+    if(!getLogNames().contains(name)) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    // The output is kept as the command wrote it, in the charset of the node, like the build log.
+    rsp.setContentType("text/plain;charset=" + run.getCharset().name());
+    InputStream in = new GZIPInputStream(new FileInputStream(new File(run.getRootDir(), name)));
+    try {
+      OutputStream out = rsp.getOutputStream();
+      byte[] buf = new byte[8192];
+      int len;
+      while((len = in.read(buf)) > 0) {
+        out.write(buf, 0, len);
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
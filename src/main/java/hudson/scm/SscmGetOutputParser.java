@@ -0,0 +1,159 @@
+package hudson.scm;
+
+import hudson.console.LineTransformationOutputStream;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads 'sscm get' output line by line as it is produced, counting the files retrieved, the errors reported and
+ * the volume of output.
+ *
+ * When a detail stream is given, per file lines only go to that stream and the build log gets errors plus a
+ * progress summary every {@link #SUMMARY_INTERVAL_MS}. Without one every line goes to the build log.
+ *
+ * Lines are decoded with the charset of the node the command runs on, the same one the build log and
+ * {@link SscmGetLogAction} use for the raw output.
+ */
+class SscmGetOutputParser extends LineTransformationOutputStream {
+  /**
+   * How often a progress summary is written to the build log.
+   */
+  private static final long SUMMARY_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private final PrintStream log;
+  private final OutputStream detail;
+  private final String label;
+  private final Charset charset;
+  private long files;
+  private long errors;
+  private long bytes;
+  private String lastFile;
+  private long lastSummary = System.currentTimeMillis();
+
+  /**
+   * @param log     Build log. It is not closed when the parser is closed.
+   * @param detail  Receives every line of output, or null to send every line to the build log. It is not closed
+   *                when the parser is closed.
+   * @param label   Names the retrieval in progress summaries
+   * @param charset Charset of the command output
+   */
+  SscmGetOutputParser(PrintStream log, @CheckForNull OutputStream detail, String label, Charset charset) {
+    this.log = log;
+    this.detail = detail;
+    this.label = label;
+    this.charset = charset;
+  }
+
+  @Override
+  protected void eol(byte[] b, int len) throws IOException {
+    bytes += len;
+    String line = new String(b, 0, len, charset).trim();
+    boolean important = false;
+    if(!line.isEmpty()) {
+      if(isError(line)) {
+        errors++;
+        important = true;
+      } else if(isSummary(line)) {
+        important = true;
+      } else if(isFile(line)) {
+        files++;
+        lastFile = line;
+      }
+    }
+
+    if(detail == null) {
+      log.write(b, 0, len);
+      return;
+    }
+
+    detail.write(b, 0, len);
+    if(important)
+      log.write(b, 0, len);
+
+    long now = System.currentTimeMillis();
+    if(now - lastSummary >= SUMMARY_INTERVAL_MS) {
+      lastSummary = now;
+      printSummary();
+    }
+  }
+
+  /**
+   * Error lines start with "Error" (ex. "Error: Unable to connect to the server.")
+   */
+  static boolean isError(String line) {
+    return line.regionMatches(true, 0, "error", 0, 5);
+  }
+
+  /**
+   * Summary lines (ex. "Total: 3 files") are not files.
+   */
+  static boolean isSummary(String line) {
+    return line.regionMatches(true, 0, "total", 0, 5);
+  }
+
+  /**
+   * File lines end with "retrieved." (ex. "/work/src/Main.java version 3 retrieved."), anything else is a warning
+   * or notice and is not counted.
+   */
+  static boolean isFile(String line) {
+    String lower = line.toLowerCase(Locale.ENGLISH);
+    return lower.endsWith(" retrieved.") || lower.endsWith(" retrieved");
+  }
+
+  /**
+   * Writes the counts so far to the build log.
+   */
+  void printSummary() {
+    log.println(String.format("%s: %d files retrieved, %d errors, %d bytes of output", label, files, errors, bytes));
+  }
+
+  /**
+   * @return Returns the number of files reported so far.
+   */
+  long getFiles() {
+    return files;
+  }
+
+  /**
+   * @return Returns the number of errors reported so far.
+   */
+  long getErrors() {
+    return errors;
+  }
+
+  /**
+   * @return Returns the number of bytes of output read so far.
+   */
+  long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return Returns the line reporting the most recently retrieved file, or null if there was none yet.
+   */
+  String getLastFile() {
+    return lastFile;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    log.flush();
+    if(detail != null)
+      detail.flush();
+  }
+
+  /**
+   * Handles a trailing line without an end of line. The wrapped streams belong to the caller and stay open.
+   */
+  @Override
+  public void close() throws IOException {
+    forceEol();
+    flush();
+  }
+}
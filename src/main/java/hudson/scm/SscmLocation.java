@@ -0,0 +1,129 @@
+package hudson.scm;
+
+import hudson.Util;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+
+/**
+ * Immutable, parsed form of a Surround SCM location (server, port, branch and repository).
+ *
+ * ex. sscm://server:4900//branch//Mainline/Path/To/Repository
+ *
+ * The location is parsed once and the job key used by {@link SurroundSCM#getKey()} is computed when the object is
+ * created, so callers can hold on to an instance and query it as often as they like.
+ */
+public final class SscmLocation implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final static String SCHEME = "sscm://";
+  private final static String SEPARATOR = "//";
+
+  private final String server;
+  private final String port;
+  private final String branch;
+  private final String repository;
+  private final String url;
+  private final String key;
+
+  public SscmLocation(String server, String port, String branch, String repository) {
+    this.server = server;
+    this.port = port;
+    this.branch = branch;
+    this.repository = repository;
+    this.url = String.format("sscm://%s:%s//%s//%s", server, port, branch, repository);
+    this.key = Util.getDigestOf(url);
+  }
+
+  /**
+   * Parses a sscm:// url without using regular expressions.
+   *
+   * The server is everything up to the first ':', the port is everything up to the following '//' and the
+   * repository is everything after the last '//'. Whatever is left in between is the branch, which means branch
+   * names are allowed to contain '//'.
+   *
+   * @param url ex. sscm://server:4900//branch//Mainline/Path/To/Repository
+   * @return Returns the parsed location, or null if the url is not a valid sscm:// url.
+   */
+  @CheckForNull
+  public static SscmLocation parse(String url) {
+    if(url == null || !url.startsWith(SCHEME))
+      return null;
+
+    int serverStart = SCHEME.length();
+    int portStart = url.indexOf(':', serverStart);
+    if(portStart < 0)
+      return null;
+    portStart++;
+
+    int portEnd = url.indexOf(SEPARATOR, portStart);
+    if(portEnd < 0)
+      return null;
+
+    int branchStart = portEnd + SEPARATOR.length();
+    int branchEnd = url.lastIndexOf(SEPARATOR);
+    if(branchEnd < branchStart)
+      return null;
+
+    return new SscmLocation(url.substring(serverStart, portStart - 1),
+            url.substring(portStart, portEnd),
+            url.substring(branchStart, branchEnd),
+            url.substring(branchEnd + SEPARATOR.length()));
+  }
+
+  public String getServer() {
+    return server;
+  }
+
+  public String getPort() {
+    return port;
+  }
+
+  public String getBranch() {
+    return branch;
+  }
+
+  public String getRepository() {
+    return repository;
+  }
+
+  /**
+   * @return Returns the server portion of the location (ex. sscm://server:4900), used for credential lookups.
+   */
+  public String getServerUrl() {
+    return String.format("sscm://%s:%s", server, port);
+  }
+
+  /**
+   * @return Returns the full location (ex. sscm://server:4900//branch//Mainline/Path/To/Repository)
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return Returns the digest of {@link #getUrl()}, which is what {@link SurroundSCM#getKey()} reports.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(this == o)
+      return true;
+    if(!(o instanceof SscmLocation))
+      return false;
+    return url.equals(((SscmLocation) o).url);
+  }
+
+  @Override
+  public int hashCode() {
+    return url.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return url;
+  }
+}
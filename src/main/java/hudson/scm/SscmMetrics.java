@@ -0,0 +1,187 @@
+package hudson.scm;
+
+import com.codahale.metrics.MetricRegistry;
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.Run;
+import jenkins.metrics.api.Metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records how long every Surround SCM operation takes and how much it processed.
+ *
+ * Metrics are published through the Jenkins metrics plugin as "surround-scm.&lt;operation&gt;.&lt;server&gt;.&lt;node&gt;"
+ * timers and counters. Operations run for a build are also added to that build's {@link SscmMetricsAction}, and
+ * every operation feeds the rolling windows behind the {@link SurroundSCMDashboard}.
+ */
+final class SscmMetrics {
+  private static final Logger LOGGER = Logger.getLogger(SscmMetrics.class.getName());
+
+  private static final String PREFIX = "surround-scm";
+
+  /**
+   * Tag value used when an operation is not tied to a server or a node.
+   */
+  static final String NONE = "none";
+
+  /**
+   * Resolving the sscm executable for a node.
+   */
+  static final String TOOL = "tool";
+
+  /**
+   * Looking up the username // password and RSA key credentials.
+   */
+  static final String CREDENTIALS = "credentials";
+
+  /**
+   * Parsing the changelog of a build.
+   */
+  static final String CHANGELOG_PARSE = "changelog-parse";
+
+  private SscmMetrics() {
+  }
+
+  /**
+   * Where an operation runs and who it runs for. Every sample taken through a context carries its tags.
+   */
+  static final class Context {
+    private final String server;
+    private final String node;
+    private final Run<?, ?> build;
+    private final String job;
+
+    /**
+     * @param server Surround SCM server, or null if the operation is not tied to one
+     * @param node   Node the operation runs on, or null for the controller
+     * @param build  Build the operation runs for, or null when there is none (polling, branch discovery...)
+     */
+    Context(@CheckForNull String server, @CheckForNull Node node, @CheckForNull Run<?, ?> build) {
+      this(server, node, build, build != null ? build.getParent() : null);
+    }
+
+    /**
+     * @param owner Job or other item the operation runs for, or null if there is none
+     */
+    Context(@CheckForNull String server, @CheckForNull Node node, @CheckForNull Run<?, ?> build,
+            @CheckForNull Item owner) {
+      this.server = tag(server);
+      this.node = node == null || node.getNodeName().isEmpty() ? "master" : tag(node.getNodeName());
+      this.build = build;
+      this.job = owner != null ? owner.getFullName() : null;
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @param operation Name of the operation, a {@link SscmOperation#getDisplayName()} or one of the constants above
+     */
+    Sample start(String operation) {
+      return new Sample(this, operation);
+    }
+
+    String getServer() {
+      return server;
+    }
+
+    String getNode() {
+      return node;
+    }
+
+    @CheckForNull
+    String getJob() {
+      return job;
+    }
+  }
+
+  /**
+   * One timed operation. Call {@link #stop(long, long, boolean)} exactly once when it is over.
+   */
+  static final class Sample {
+    private final Context context;
+    private final String operation;
+    private final long started = System.nanoTime();
+
+    private Sample(Context context, String operation) {
+      this.context = context;
+      this.operation = operation;
+    }
+
+    /**
+     * @param bytes Bytes of output or input processed
+     * @param lines Lines of output or input processed
+     * @param error True if the operation failed
+     */
+    void stop(long bytes, long lines, boolean error) {
+      long nanos = System.nanoTime() - started;
+      SurroundSCMDashboard.record(context, operation, TimeUnit.NANOSECONDS.toMillis(nanos));
+      MetricRegistry registry = registry();
+      if(registry != null) {
+        String base = MetricRegistry.name(PREFIX, operation, context.server, context.node);
+        registry.timer(MetricRegistry.name(base, "duration")).update(nanos, TimeUnit.NANOSECONDS);
+        if(bytes > 0)
+          registry.counter(MetricRegistry.name(base, "bytes")).inc(bytes);
+        if(lines > 0)
+          registry.counter(MetricRegistry.name(base, "lines")).inc(lines);
+        if(error)
+          registry.counter(MetricRegistry.name(base, "errors")).inc();
+      }
+
+      if(context.build != null) {
+        SscmMetricsAction.of(context.build).add(operation, context.server, context.node,
+                TimeUnit.NANOSECONDS.toMillis(nanos), bytes, lines, error);
+      }
+    }
+
+    /**
+     * Stops a sample of an operation that only has a duration.
+     */
+    void stop() {
+      stop(0, 0, false);
+    }
+  }
+
+  /**
+   * Counts a command killed for running too long ("timeouts") or for not producing output ("stalls").
+   */
+  static void countKilled(Context context, SscmOperation op, boolean stalled) {
+    MetricRegistry registry = registry();
+    if(registry != null) {
+      registry.counter(MetricRegistry.name(PREFIX, op.getDisplayName(), context.server, context.node,
+              stalled ? "stalls" : "timeouts")).inc();
+    }
+    if(context.build != null)
+      SscmMetricsAction.of(context.build).addKilled(op.getDisplayName(), context.server, context.node);
+  }
+
+  /**
+   * Counts a polling circuit breaker event of a server: "opened", "closed" or "skipped" for a poll that did not run.
+   */
+  static void countBreaker(String serverUrl, String event) {
+    MetricRegistry registry = registry();
+    if(registry != null)
+      registry.counter(MetricRegistry.name(PREFIX, "breaker", tag(serverUrl), event)).inc();
+  }
+
+  @CheckForNull
+  private static MetricRegistry registry() {
+    try {
+      return Metrics.metricRegistry();
+    } catch (RuntimeException e) {
+      // The metrics plugin is not initialized yet (or any more), the sample is only kept for the build.
+      LOGGER.log(Level.FINEST, "Metric registry not available", e);
+      return null;
+    }
+  }
+
+  /**
+   * Metric names are dot separated, so dots in host and node names are replaced.
+   */
+  private static String tag(@CheckForNull String value) {
+    return value == null || value.isEmpty() ? NONE : value.replace('.', '_');
+  }
+}
@@ -0,0 +1,181 @@
+package hudson.scm;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breakdown of the time a build spent in Surround SCM operations, per operation, server and node.
+ */
+public class SscmMetricsAction implements RunAction2 {
+
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+  private transient Run<?, ?> run;
+
+  /**
+   * @return Returns the action of the build, adding one if there is none yet.
+   */
+  static SscmMetricsAction of(Run<?, ?> build) {
+    synchronized (build) {
+      SscmMetricsAction action = build.getAction(SscmMetricsAction.class);
+      if(action == null) {
+        action = new SscmMetricsAction();
+        build.addAction(action);
+      }
+      return action;
+    }
+  }
+
+  synchronized void add(String operation, String server, String node, long millis, long bytes, long lines,
+                        boolean error) {
+    Entry e = entry(operation, server, node);
+    e.count++;
+    e.millis += millis;
+    e.maxMillis = Math.max(e.maxMillis, millis);
+    e.bytes += bytes;
+    e.lines += lines;
+    if(error)
+      e.errors++;
+  }
+
+  synchronized void addKilled(String operation, String server, String node) {
+    entry(operation, server, node).killed++;
+  }
+
+  private Entry entry(String operation, String server, String node) {
+    String key = operation + '|' + server + '|' + node;
+    Entry e = entries.get(key);
+    if(e == null) {
+      e = new Entry(operation, server, node);
+      entries.put(key, e);
+    }
+    return e;
+  }
+
+  /**
+   * @return Returns a copy of the recorded entries, in the order the operations first ran.
+   */
+  public synchronized List<Entry> getEntries() {
+    List<Entry> result = new ArrayList<Entry>();
+    for(Entry e : entries.values()) {
+      result.add(e.copy());
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  public Run<?, ?> getRun() {
+    return run;
+  }
+
+  @Override
+  public void onAttached(Run<?, ?> r) {
+    this.run = r;
+  }
+
+  @Override
+  public void onLoad(Run<?, ?> r) {
+    this.run = r;
+  }
+
+  @Override
+  public String getIconFileName() {
+    return "clock.png";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Surround SCM Timings";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "sscm-metrics";
+  }
+
+  /**
+   * Totals of one operation run against one server on one node.
+   */
+  public static final class Entry {
+    private final String operation;
+    private final String server;
+    private final String node;
+    private long count;
+    private long millis;
+    private long maxMillis;
+    private long bytes;
+    private long lines;
+    private long errors;
+    private long killed;
+
+    Entry(String operation, String server, String node) {
+      this.operation = operation;
+      this.server = server;
+      this.node = node;
+    }
+
+    Entry copy() {
+      Entry e = new Entry(operation, server, node);
+      e.count = count;
+      e.millis = millis;
+      e.maxMillis = maxMillis;
+      e.bytes = bytes;
+      e.lines = lines;
+      e.errors = errors;
+      e.killed = killed;
+      return e;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getServer() {
+      return server;
+    }
+
+    public String getNode() {
+      return node;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMillis() {
+      return millis;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    public long getAverageMillis() {
+      return count > 0 ? millis / count : 0;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getLines() {
+      return lines;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return Returns the number of commands killed for timing out or stalling.
+     */
+    public long getKilled() {
+      return killed;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package hudson.scm;
+
+/**
+ * The kinds of Surround SCM CLI commands the plugin runs. Each kind has its own timeout settings in the global
+ * configuration, see {@link SurroundSCM.SurroundSCMDescriptor}.
+ */
+public enum SscmOperation {
+  /**
+   * 'sscm get' into a workspace. Its output only goes to the build log, so it can always be retried. A full checkout
+   * of a large repository can legitimately run for hours, so it has no wall clock timeout unless one is configured.
+   * One that goes half an hour without output has hung though.
+   */
+  CHECKOUT("checkout", 0, 30, true),
+
+  /**
+   * 'sscm cc' while recording the changelog of a build.
+   */
+  CHANGELOG("changelog", 30, 10, false),
+
+  /**
+   * 'sscm cc' while polling for changes.
+   */
+  POLLING("polling", 10, 5, false),
+
+  /**
+   * Commands run on the controller to read single files or list branches.
+   */
+  BROWSE("browse", 10, 5, false);
+
+  private final String displayName;
+  private final int defaultTimeoutMinutes;
+  private final int defaultStallMinutes;
+  private final boolean outputDiscardable;
+
+  SscmOperation(String displayName, int defaultTimeoutMinutes, int defaultStallMinutes, boolean outputDiscardable) {
+    this.displayName = displayName;
+    this.defaultTimeoutMinutes = defaultTimeoutMinutes;
+    this.defaultStallMinutes = defaultStallMinutes;
+    this.outputDiscardable = outputDiscardable;
+  }
+
+  public String getDisplayName() {
+    return displayName;
+  }
+
+  public int getDefaultTimeoutMinutes() {
+    return defaultTimeoutMinutes;
+  }
+
+  public int getDefaultStallMinutes() {
+    return defaultStallMinutes;
+  }
+
+  /**
+   * @return Returns true if a partially written output can be thrown away, which makes the command safe to retry
+   *         even after it produced output. Other commands are only retried when they have not written anything yet.
+   */
+  public boolean isOutputDiscardable() {
+    return outputDiscardable;
+  }
+}
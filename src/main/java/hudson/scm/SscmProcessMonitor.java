@@ -0,0 +1,297 @@
+package hudson.scm;
+
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs Surround SCM CLI commands with a wall clock timeout and an idle output (stall) timeout.
+ *
+ * The calling thread blocks in {@link Proc#join()}, a shared watchdog thread checks the running commands. When either
+ * timeout fires the watchdog kills the process, along with any children it started, and the command is retried with
+ * exponential backoff when that is safe for the {@link SscmOperation}. Every timeout and stall is counted so it can be
+ * reported.
+ */
+final class SscmProcessMonitor {
+  private static final Logger LOGGER = Logger.getLogger(SscmProcessMonitor.class.getName());
+
+  /**
+   * How often a running command is checked for timeouts.
+   */
+  private static final long CHECK_INTERVAL_MS = 1000;
+
+  /**
+   * Checks every running command, so no thread per command has to poll.
+   */
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+          new NamingThreadFactory(new DaemonThreadFactory(), "SscmProcessMonitor.watchdog"));
+
+  /**
+   * Delay before the first retry, doubled for every following one.
+   */
+  private static final long BACKOFF_BASE_MS = TimeUnit.SECONDS.toMillis(5);
+
+  private static final Map<SscmOperation, AtomicLong> TIMEOUTS = newCounters();
+  private static final Map<SscmOperation, AtomicLong> STALLS = newCounters();
+
+  private SscmProcessMonitor() {
+  }
+
+  private static Map<SscmOperation, AtomicLong> newCounters() {
+    Map<SscmOperation, AtomicLong> result = new EnumMap<SscmOperation, AtomicLong>(SscmOperation.class);
+    for(SscmOperation op : SscmOperation.values()) {
+      result.put(op, new AtomicLong());
+    }
+    return result;
+  }
+
+  /**
+   * @return Returns the number of commands of this kind killed for running longer than their timeout.
+   */
+  static long getTimeouts(SscmOperation op) {
+    return TIMEOUTS.get(op).get();
+  }
+
+  /**
+   * @return Returns the number of commands of this kind killed for not producing output for too long.
+   */
+  static long getStalls(SscmOperation op) {
+    return STALLS.get(op).get();
+  }
+
+  /**
+   * Starts the command and waits for it to finish.
+   *
+   * @param op       What kind of command this is, selects the timeouts to use
+   * @param metrics  Tags the time, output and failures of every attempt are recorded with
+   * @param starter  Fully configured command, its stdout is replaced by 'out'
+   * @param out      Receives the command output
+   * @param listener Listener used for logging
+   * @return Returns the exit code of the command
+   * @throws SscmTimeoutException Thrown if the command timed out or stalled on every attempt
+   * @throws IOException          Thrown if the command could not be started
+   * @throws InterruptedException Thrown if interrupted while waiting, the command is killed first
+   */
+  static int run(SscmOperation op, SscmMetrics.Context metrics, Launcher.ProcStarter starter, OutputStream out,
+                 TaskListener listener) throws IOException, InterruptedException {
+    SurroundSCM.SurroundSCMDescriptor descriptor = SurroundSCM.DESCRIPTOR;
+    return run(op, metrics, starter, out, listener, TimeUnit.MINUTES.toMillis(descriptor.getTimeoutMinutes(op)),
+            TimeUnit.MINUTES.toMillis(descriptor.getStallMinutes(op)), descriptor.getCommandRetries(), BACKOFF_BASE_MS);
+  }
+
+  /**
+   * Starts the command and waits for it to finish, with the given limits rather than the global configuration.
+   *
+   * @param timeout      Wall clock timeout in milliseconds, 0 for none
+   * @param stallTimeout Idle output timeout in milliseconds, 0 for none
+   * @param retries      Number of retries after a timeout or stall
+   * @param backoff      Delay before the first retry in milliseconds, doubled for every following one
+   */
+  static int run(SscmOperation op, SscmMetrics.Context metrics, Launcher.ProcStarter starter, OutputStream out,
+                 TaskListener listener, long timeout, long stallTimeout, int retries, long backoff)
+          throws IOException, InterruptedException {
+    long interval = CHECK_INTERVAL_MS;
+    if(timeout > 0)
+      interval = Math.min(interval, timeout);
+    if(stallTimeout > 0)
+      interval = Math.min(interval, stallTimeout);
+
+    for(int attempt = 0; ; attempt++) {
+      ActivityOutputStream activity = new ActivityOutputStream(out);
+      SscmMetrics.Sample sample = metrics.start(op.getDisplayName());
+      Proc proc;
+      try {
+        proc = starter.stdout(activity).start();
+      } catch (IOException e) {
+        sample.stop(0, 0, true);
+        throw e;
+      }
+      SurroundSCMDashboard.running(metrics, 1);
+
+      Watchdog watchdog = new Watchdog(op, metrics, proc, activity, timeout, stallTimeout);
+      ScheduledFuture<?> check = timeout > 0 || stallTimeout > 0
+              ? WATCHDOG.scheduleWithFixedDelay(watchdog, interval, interval, TimeUnit.MILLISECONDS) : null;
+      int result;
+      try {
+        result = proc.join();
+      } catch (InterruptedException e) {
+        proc.kill();
+        sample.stop(activity.getBytes(), activity.getLines(), true);
+        throw e;
+      } finally {
+        if(check != null)
+          check.cancel(false);
+        SurroundSCMDashboard.running(metrics, -1);
+      }
+
+      String failure = watchdog.getFailure();
+      if(failure == null) {
+        sample.stop(activity.getBytes(), activity.getLines(), result != 0);
+        return result;
+      }
+
+      sample.stop(activity.getBytes(), activity.getLines(), true);
+      String message = String.format("sscm %s command %s, killed it.", op.getDisplayName(), failure);
+      listener.error(message);
+      LOGGER.log(Level.WARNING, message);
+
+      boolean safe = op.isOutputDiscardable() || activity.getBytes() == 0;
+      if(attempt >= retries || !safe)
+        throw new SscmTimeoutException(op, message);
+
+      long delay = backoff << attempt;
+      listener.getLogger().println(String.format("Retrying in %d seconds (attempt %d of %d).",
+              TimeUnit.MILLISECONDS.toSeconds(delay), attempt + 2, retries + 1));
+      Thread.sleep(delay);
+    }
+  }
+
+  /**
+   * Kills a command once it runs past its timeout or goes without output for longer than its stall timeout.
+   */
+  private static final class Watchdog implements Runnable {
+    private final SscmOperation op;
+    private final SscmMetrics.Context metrics;
+    private final Proc proc;
+    private final ActivityOutputStream activity;
+    private final long timeout;
+    private final long stallTimeout;
+    private final long started = System.currentTimeMillis();
+    private volatile String failure;
+
+    Watchdog(SscmOperation op, SscmMetrics.Context metrics, Proc proc, ActivityOutputStream activity, long timeout,
+             long stallTimeout) {
+      this.op = op;
+      this.metrics = metrics;
+      this.proc = proc;
+      this.activity = activity;
+      this.timeout = timeout;
+      this.stallTimeout = stallTimeout;
+    }
+
+    /**
+     * @return Returns why the command was killed, null if it was not.
+     */
+    String getFailure() {
+      return failure;
+    }
+
+    @Override
+    public void run() {
+      if(failure != null)
+        return;
+      long now = System.currentTimeMillis();
+      boolean timedOut = timeout > 0 && now - started > timeout;
+      boolean stalled = !timedOut && stallTimeout > 0 && now - activity.getLastActivity() > stallTimeout;
+      if(!timedOut && !stalled)
+        return;
+      try {
+        if(!proc.isAlive())
+          return;
+        if(timedOut) {
+          TIMEOUTS.get(op).incrementAndGet();
+          failure = String.format("did not finish within %d minutes", TimeUnit.MILLISECONDS.toMinutes(timeout));
+        } else {
+          STALLS.get(op).incrementAndGet();
+          failure = String.format("produced no output for %d minutes", TimeUnit.MILLISECONDS.toMinutes(stallTimeout));
+        }
+        SscmMetrics.countKilled(metrics, op, stalled);
+        // Proc.kill() takes the whole process tree down, not just the sscm process itself. The caller blocked in
+        // Proc.join() returns once it is gone.
+        proc.kill();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to kill an sscm " + op.getDisplayName() + " command", e);
+      } catch (InterruptedException e) {
+        LOGGER.log(Level.WARNING, "Interrupted while killing an sscm " + op.getDisplayName() + " command", e);
+      }
+    }
+  }
+
+  /**
+   * Thrown when a command timed out or stalled and could not be retried.
+   */
+  static final class SscmTimeoutException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final SscmOperation operation;
+
+    SscmTimeoutException(SscmOperation operation, String message) {
+      super(message);
+      this.operation = operation;
+    }
+
+    SscmOperation getOperation() {
+      return operation;
+    }
+  }
+
+  /**
+   * Passes output through while remembering when it was last written to and how much was written.
+   */
+  private static final class ActivityOutputStream extends FilterOutputStream {
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile long bytes;
+    private volatile long lines;
+
+    ActivityOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    long getLastActivity() {
+      return lastActivity;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    long getLines() {
+      return lines;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      bytes++;
+      if(b == '\n')
+        lines++;
+      lastActivity = System.currentTimeMillis();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      bytes += len;
+      int newLines = 0;
+      for(int i = off; i < off + len; i++) {
+        if(b[i] == '\n')
+          newLines++;
+      }
+      lines += newLines;
+      lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * The wrapped stream belongs to the caller, so it is only flushed.
+     */
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
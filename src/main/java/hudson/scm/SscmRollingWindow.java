@@ -0,0 +1,147 @@
+package hudson.scm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram over the last {@link #SLOTS} x {@link #SLOT_MS} milliseconds that can be recorded into from any
+ * number of threads without locking.
+ *
+ * Time is split into slots kept in a ring. Each slot holds a histogram with four buckets per power of two, so a
+ * percentile is accurate to within 25%. The first thread to record into a slot that holds a previous lap claims it
+ * with a compare and set and clears it. A sample recorded into the slot by another thread while it is being cleared
+ * can be lost, which is an acceptable price for keeping {@link #record(long)} down to a handful of atomic increments.
+ */
+final class SscmRollingWindow {
+  /**
+   * Number of slots in the ring.
+   */
+  static final int SLOTS = 60;
+
+  /**
+   * Length of a slot, the whole window covers five minutes.
+   */
+  static final long SLOT_MS = 5000;
+
+  /**
+   * Number of histogram buckets, enough for durations up to 2^32 milliseconds.
+   */
+  static final int BUCKETS = 128;
+
+  private final AtomicLongArray slotIds = new AtomicLongArray(SLOTS);
+  private final AtomicLongArray counts = new AtomicLongArray(SLOTS * BUCKETS);
+
+  SscmRollingWindow() {
+    for(int i = 0; i < SLOTS; i++) {
+      slotIds.set(i, -1);
+    }
+  }
+
+  void record(long millis) {
+    record(millis, System.currentTimeMillis());
+  }
+
+  void record(long millis, long now) {
+    long id = now / SLOT_MS;
+    int slot = (int) (id % SLOTS);
+    long current = slotIds.get(slot);
+    if(current != id && slotIds.compareAndSet(slot, current, id)) {
+      for(int b = 0; b < BUCKETS; b++) {
+        counts.set(slot * BUCKETS + b, 0);
+      }
+    }
+    counts.incrementAndGet(slot * BUCKETS + bucketOf(millis));
+  }
+
+  /**
+   * @return Returns the samples recorded within the window ending now.
+   */
+  Snapshot snapshot() {
+    return snapshot(System.currentTimeMillis());
+  }
+
+  Snapshot snapshot(long now) {
+    long id = now / SLOT_MS;
+    long[] histogram = new long[BUCKETS];
+    for(int slot = 0; slot < SLOTS; slot++) {
+      long slotId = slotIds.get(slot);
+      if(slotId < 0 || slotId <= id - SLOTS || slotId > id)
+        continue;
+      for(int b = 0; b < BUCKETS; b++) {
+        histogram[b] += counts.get(slot * BUCKETS + b);
+      }
+    }
+    return new Snapshot(histogram);
+  }
+
+  /**
+   * Durations below 4ms get a bucket each, longer ones get four buckets per power of two.
+   */
+  static int bucketOf(long millis) {
+    if(millis < 4)
+      return millis < 0 ? 0 : (int) millis;
+    int log = 63 - Long.numberOfLeadingZeros(millis);
+    int sub = (int) ((millis >> (log - 2)) & 3);
+    return Math.min(BUCKETS - 1, (log - 1) * 4 + sub);
+  }
+
+  /**
+   * @return Returns the largest duration that falls into the bucket.
+   */
+  static long upperBoundOf(int bucket) {
+    if(bucket < 4)
+      return bucket;
+    int log = bucket / 4 + 1;
+    int sub = bucket % 4;
+    return ((5L + sub) << (log - 2)) - 1;
+  }
+
+  /**
+   * Histogram of a window at one point in time.
+   */
+  static final class Snapshot {
+    private final long[] histogram;
+    private final long count;
+
+    Snapshot(long[] histogram) {
+      this.histogram = histogram;
+      long c = 0;
+      for(long h : histogram) {
+        c += h;
+      }
+      this.count = c;
+    }
+
+    /**
+     * @return Returns a snapshot holding the samples of both.
+     */
+    Snapshot merge(Snapshot other) {
+      long[] result = new long[BUCKETS];
+      for(int b = 0; b < BUCKETS; b++) {
+        result[b] = histogram[b] + other.histogram[b];
+      }
+      return new Snapshot(result);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    /**
+     * @param quantile Between 0 and 1, ex. 0.95
+     * @return Returns the duration in milliseconds that the given share of samples did not exceed, 0 if there
+     *         are no samples.
+     */
+    long getPercentile(double quantile) {
+      if(count == 0)
+        return 0;
+      long rank = (long) Math.ceil(quantile * count);
+      long seen = 0;
+      for(int b = 0; b < BUCKETS; b++) {
+        seen += histogram[b];
+        if(seen >= rank && histogram[b] > 0)
+          return upperBoundOf(b);
+      }
+      return upperBoundOf(BUCKETS - 1);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package hudson.scm;
+
+import hudson.FilePath;
+import hudson.util.DirScanner;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets concurrent retrievals of the same location as of the same timestamp on one node share a single 'sscm get',
+ * see {@link SurroundSCM.SurroundSCMDescriptor#isSingleFlightGets()}.
+ *
+ * The first retrieval into an empty directory that holds nothing but the location leads: it runs 'sscm get' into its
+ * own destination as usual, so its destination has nothing but the files of the location when it lands. Retrievals
+ * that join while it runs wait for it and copy its destination into theirs on the node, the leader does not return to
+ * its build until they have. Retrievals that come after the leader finished, that gave up waiting for it, or into
+ * directories that could not lead run their own 'sscm get'.
+ */
+final class SscmSingleFlight {
+  /**
+   * Minutes a retrieval waits for the leader before it runs its own 'sscm get'.
+   */
+  private static final int WAIT_MINUTES = Integer.getInteger(SscmSingleFlight.class.getName() + ".waitMinutes", 30);
+
+  /**
+   * Flights in progress, keyed by node, {@link SscmLocation#getKey()} and timestamp.
+   */
+  private static final ConcurrentMap<String, SscmSingleFlight> FLIGHTS = new ConcurrentHashMap<String, SscmSingleFlight>();
+
+  private final String id;
+  private final FilePath source;
+  private boolean done;
+  private boolean succeeded;
+  private int followers;
+
+  private SscmSingleFlight(String id, FilePath source) {
+    this.id = id;
+    this.source = source;
+  }
+
+  /**
+   * Joins the flight retrieving the location as of the timestamp on the node, or starts one led by the caller.
+   *
+   * @param destination Directory the caller retrieves into
+   * @param canLead     Whether the destination is an empty directory only the location is retrieved into
+   * @return Returns the flight, {@link #leads(FilePath)} tells whether the caller has to run 'sscm get'. Returns null
+   *         if there is no flight to join and the caller cannot lead one.
+   */
+  @CheckForNull
+  static SscmSingleFlight of(String node, String key, Date timestamp, FilePath destination, boolean canLead) {
+    String id = node + '\n' + key + '\n' + timestamp.getTime() / 1000;
+    while(true) {
+      SscmSingleFlight flight = FLIGHTS.get(id);
+      if(flight == null) {
+        if(!canLead)
+          return null;
+        SscmSingleFlight created = new SscmSingleFlight(id, destination);
+        if(FLIGHTS.putIfAbsent(id, created) == null)
+          return created;
+        continue;
+      }
+      synchronized (flight) {
+        if(!flight.done) {
+          flight.followers++;
+          return flight;
+        }
+      }
+      FLIGHTS.remove(id, flight);
+    }
+  }
+
+  /**
+   * @return Returns true if the retrieval into the destination leads this flight and must call {@link #land(boolean)}.
+   */
+  boolean leads(FilePath destination) {
+    return source.equals(destination);
+  }
+
+  /**
+   * Reports the outcome of the leader's 'sscm get' and waits until every follower has copied the files.
+   */
+  synchronized void land(boolean success) throws InterruptedException {
+    done = true;
+    succeeded = success;
+    FLIGHTS.remove(id, this);
+    notifyAll();
+    while(followers > 0) {
+      wait();
+    }
+  }
+
+  /**
+   * @return Returns the minutes {@link #copyTo(FilePath)} waits for the leader.
+   */
+  static int getWaitMinutes() {
+    return WAIT_MINUTES;
+  }
+
+  /**
+   * Waits for the leader and copies what it retrieved into the destination.
+   *
+   * @return Returns false if the leader failed or did not finish in {@link #getWaitMinutes()}, the caller has to run
+   *         'sscm get' itself then.
+   */
+  boolean copyTo(FilePath destination) throws IOException, InterruptedException {
+    try {
+      synchronized (this) {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(WAIT_MINUTES);
+        while(!done) {
+          long remaining = deadline - System.currentTimeMillis();
+          if(remaining <= 0)
+            return false;
+          wait(remaining);
+        }
+        if(!succeeded)
+          return false;
+      }
+      destination.mkdirs();
+      // Key files are written next to the workspace, ones an earlier version left behind must not be handed on.
+      source.copyRecursiveTo(new DirScanner.Glob("**",
+              "**/" + SurroundSCM.RSA_KEY_FILE_PREFIX + "*" + SurroundSCM.RSA_KEY_FILE_SUFFIX, false),
+              destination, "sscm get of " + source);
+      return true;
+    } finally {
+      synchronized (this) {
+        followers--;
+        notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package hudson.scm;
+
+import hudson.Util;
+import hudson.util.FormValidation;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides which changes polling ignores, see {@link SurroundSCM#getExcludedUsers()} and
+ * {@link SurroundSCM#getExcludedComments()}. A change is ignored when it was made by one of the excluded users or its
+ * comment contains a match of one of the excluded comment patterns.
+ */
+final class SurroundChangeFilter {
+  private final List<String> users = new ArrayList<String>();
+  private final List<Pattern> comments = new ArrayList<Pattern>();
+
+  /**
+   * @param excludedUsers    User names, one per line, compared ignoring case
+   * @param excludedComments Regular expressions, one per line
+   * @throws PatternSyntaxException Thrown if one of the comment patterns is invalid
+   */
+  SurroundChangeFilter(@CheckForNull String excludedUsers, @CheckForNull String excludedComments) {
+    for(String user : lines(excludedUsers)) {
+      users.add(user);
+    }
+    for(String comment : lines(excludedComments)) {
+      comments.add(Pattern.compile(comment));
+    }
+  }
+
+  private static List<String> lines(@CheckForNull String value) {
+    List<String> result = new ArrayList<String>();
+    if(value != null) {
+      for(String line : value.split("\\r?\\n")) {
+        line = Util.fixEmptyAndTrim(line);
+        if(line != null)
+          result.add(line);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return Returns true if nothing is excluded.
+   */
+  boolean isEmpty() {
+    return users.isEmpty() && comments.isEmpty();
+  }
+
+  /**
+   * @param fields Fields of a change, see {@link SurroundSCMChangeLogParser#parseFields(String)}
+   * @return Returns true if polling ignores the change.
+   */
+  boolean isExcluded(String[] fields) {
+    String author = fields[6].trim();
+    for(String user : users) {
+      if(user.equalsIgnoreCase(author))
+        return true;
+    }
+    for(Pattern comment : comments) {
+      if(comment.matcher(fields[5]).find())
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Validates the excluded comment patterns entered on a configuration page.
+   */
+  static FormValidation checkComments(String value) {
+    for(String comment : lines(value)) {
+      try {
+        Pattern.compile(comment);
+      } catch (PatternSyntaxException e) {
+        return FormValidation.error("Invalid regular expression " + comment + ": " + e.getDescription());
+      }
+    }
+    return FormValidation.ok();
+  }
+}
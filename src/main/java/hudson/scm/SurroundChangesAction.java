@@ -0,0 +1,207 @@
+package hudson.scm;
+
+import hudson.Util;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.annotation.CheckForNull;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streams the Surround SCM changes of a build as newline delimited JSON, one object per change, read straight from
+ * the changelog files the checkouts wrote. Unlike the remote API it never holds more than one change in memory.
+ *
+ * <pre>
+ *   GET .../&lt;build&gt;/sscm-changes/?path=Mainline/Project/src&amp;author=Doe,%20Jane&amp;action=add&amp;limit=1000&amp;cursor=...
+ * </pre>
+ *
+ * Every parameter is optional. 'path' keeps changes whose path starts with it, 'author' changes by that user name,
+ * 'action' changes whose Surround action or edit type (add, edit, delete) matches, all ignoring case. 'limit' stops
+ * after that many changes. Each change carries the cursor after it, passing the cursor of the last change received
+ * continues with the changes that follow it. A response with fewer changes than the limit is the last one.
+ */
+public class SurroundChangesAction implements RunAction2 {
+  /**
+   * Names of the changelog files in the build directory the checkouts of the build wrote.
+   */
+  private final List<String> changelogs = new ArrayList<String>();
+
+  private transient Run<?, ?> run;
+
+  /**
+   * Records a changelog file a checkout wrote, adding the action to the build if it does not have it yet.
+   */
+  static void record(Run<?, ?> run, File changelogFile) {
+    if(!run.getRootDir().equals(changelogFile.getParentFile()))
+      return;
+    synchronized (SurroundChangesAction.class) {
+      SurroundChangesAction action = run.getAction(SurroundChangesAction.class);
+      if(action == null) {
+        action = new SurroundChangesAction();
+        run.addAction(action);
+      }
+      synchronized (action.changelogs) {
+        if(!action.changelogs.contains(changelogFile.getName()))
+          action.changelogs.add(changelogFile.getName());
+      }
+    }
+  }
+
+  public Run<?, ?> getRun() {
+    return run;
+  }
+
+  /**
+   * @return Returns the names of the changelog files, in the order the checkouts wrote them.
+   */
+  public List<String> getChangelogs() {
+    synchronized (changelogs) {
+      return Collections.unmodifiableList(new ArrayList<String>(changelogs));
+    }
+  }
+
+  @Override
+  public void onAttached(Run<?, ?> r) {
+    this.run = r;
+  }
+
+  @Override
+  public void onLoad(Run<?, ?> r) {
+    this.run = r;
+  }
+
+  /**
+   * @return Returns null, the endpoint is meant for tools rather than the side panel.
+   */
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Surround SCM Changes";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "sscm-changes";
+  }
+
+  public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+    List<String> files = getChangelogs();
+    String path = Util.fixEmpty(req.getParameter("path"));
+    String author = Util.fixEmpty(req.getParameter("author"));
+    String action = Util.fixEmpty(req.getParameter("action"));
+    int limit;
+    Cursor cursor;
+    try {
+      String value = Util.fixEmpty(req.getParameter("limit"));
+      limit = value != null ? Integer.parseInt(value) : 0;
+      cursor = Cursor.parse(req.getParameter("cursor"));
+    } catch (NumberFormatException e) {
+      rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit or cursor");
+      return;
+    }
+    if(cursor == null || cursor.file > files.size()) {
+      rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+      return;
+    }
+
+    rsp.setContentType("application/x-ndjson;charset=UTF-8");
+    Writer out = new OutputStreamWriter(rsp.getOutputStream(), "UTF-8");
+    int written = 0;
+    for(int file = cursor.file; file < files.size(); file++) {
+      File changelog = new File(run.getRootDir(), files.get(file));
+      if(!changelog.isFile())
+        continue;
+
+      FileInputStream fis = new FileInputStream(changelog);
+      try {
+        long offset = file == cursor.file ? cursor.offset : 0;
+        fis.getChannel().position(offset);
+        SurroundSCMChangeLogParser.LineReader in = new SurroundSCMChangeLogParser.LineReader(fis, offset);
+        String line;
+        while((line = in.readLine()) != null) {
+          String[] fields = SurroundSCMChangeLogParser.parseFields(line);
+          if(fields == null || !matches(fields, path, author, action))
+            continue;
+
+          JSONObject entry = new JSONObject();
+          entry.put("path", fields[0] + "/" + fields[1]);
+          entry.put("version", fields[2]);
+          entry.put("action", fields[3]);
+          entry.put("editType", SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry.getEditType(fields[3]).getName());
+          entry.put("date", fields[4]);
+          entry.put("comment", fields[5]);
+          entry.put("author", fields[6]);
+          entry.put("email", fields[7]);
+          entry.put("cursor", new Cursor(file, in.getOffset()).toString());
+          out.write(entry.toString());
+          out.write('\n');
+          if(limit > 0 && ++written == limit) {
+            out.flush();
+            return;
+          }
+        }
+      } finally {
+        fis.close();
+      }
+    }
+    out.flush();
+  }
+
+  private static boolean matches(String[] fields, @CheckForNull String path, @CheckForNull String author,
+                                 @CheckForNull String action) {
+    if(path != null && !(fields[0] + "/" + fields[1]).toLowerCase().startsWith(path.toLowerCase()))
+      return false;
+    if(author != null && !fields[6].equalsIgnoreCase(author))
+      return false;
+    return action == null || fields[3].equalsIgnoreCase(action)
+            || SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry.getEditType(fields[3]).getName().equalsIgnoreCase(action);
+  }
+
+  /**
+   * Position in the changelogs of a build: the index of a changelog file and a byte offset into it.
+   */
+  private static final class Cursor {
+    private final int file;
+    private final long offset;
+
+    Cursor(int file, long offset) {
+      this.file = file;
+      this.offset = offset;
+    }
+
+    /**
+     * @return Returns the cursor, the start of the first changelog if the value is empty, or null if it is invalid.
+     */
+    @CheckForNull
+    static Cursor parse(@CheckForNull String value) {
+      value = Util.fixEmpty(value);
+      if(value == null)
+        return new Cursor(0, 0);
+      int colon = value.indexOf(':');
+      if(colon < 0)
+        return null;
+      Cursor cursor = new Cursor(Integer.parseInt(value.substring(0, colon)), Long.parseLong(value.substring(colon + 1)));
+      return cursor.file < 0 || cursor.offset < 0 ? null : cursor;
+    }
+
+    @Override
+    public String toString() {
+      return file + ":" + offset;
+    }
+  }
+}
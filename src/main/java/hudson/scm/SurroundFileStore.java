@@ -0,0 +1,276 @@
+package hudson.scm;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Node-local store of retrieved files addressed by their content, so a file version shared by many branches is kept
+ * once, see {@link SurroundSCM.SurroundSCMDescriptor#isFileStore()}.
+ *
+ * After 'sscm get' filled an empty directory, every file goes into the store under its SHA-256 and an index of the
+ * location records which content each path had. Before 'sscm get' fills another empty directory with the location,
+ * the indexed content is put in place first, so 'sscm get' only retrieves the files changed since. Files are copied
+ * out of the store, or hard linked when {@link SurroundSCM.SurroundSCMDescriptor#isFileStoreHardLinks()} is set,
+ * which makes every workspace of every branch share the disk space of identical files. A linked file is the store's
+ * copy: it is stored without write permission, but a build that makes it writable and changes it in place changes
+ * the store. So every file is checked against its hash before it is put into a directory, one that no longer
+ * matches is dropped from the store and left to 'sscm get'.
+ *
+ * The index is kept per branch: 'sscm get' does not delete files, so seeding a directory with the paths of another
+ * branch would leave files behind that the branch does not have.
+ *
+ * <pre>
+ *   &lt;node root&gt;/surround-scm-files/blobs/&lt;first 2 hex digits&gt;/&lt;sha-256&gt;
+ *   &lt;node root&gt;/surround-scm-files/index/&lt;digest of the location key&gt;.properties
+ * </pre>
+ */
+final class SurroundFileStore {
+  private static final String DIR = "surround-scm-files";
+
+  private SurroundFileStore() {
+  }
+
+  private static String getIndexDigest(SscmLocation loc) {
+    return Util.getDigestOf(loc.getKey());
+  }
+
+  /**
+   * Puts the files the store knows for the location into an empty directory.
+   */
+  static void seed(Node node, FilePath destination, SscmLocation loc, TaskListener listener) throws InterruptedException {
+    FilePath root = node.getRootPath();
+    if(root == null)
+      return;
+    try {
+      long started = System.currentTimeMillis();
+      Integer files = destination.act(new Seed(root.child(DIR).getRemote(), getIndexDigest(loc),
+              SurroundSCM.DESCRIPTOR.isFileStoreHardLinks()));
+      SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_FILE_STORE, files > 0);
+      if(files > 0)
+        listener.getLogger().println(String.format("Took %d files of %s from the node's file store in %d ms, " +
+                "retrieving the files that differ.", files, loc, System.currentTimeMillis() - started));
+    } catch (IOException e) {
+      // sscm get retrieves whatever the store did not provide.
+      e.printStackTrace(listener.error("Failed to take files of " + loc + " from the node's file store"));
+    }
+  }
+
+  /**
+   * Adds the files 'sscm get' just put into an empty directory to the store.
+   */
+  static void ingest(Node node, FilePath destination, SscmLocation loc, TaskListener listener) throws InterruptedException {
+    FilePath root = node.getRootPath();
+    if(root == null)
+      return;
+    try {
+      Integer added = destination.act(new Ingest(root.child(DIR).getRemote(), getIndexDigest(loc),
+              SurroundSCM.DESCRIPTOR.isFileStoreHardLinks()));
+      listener.getLogger().println("Added " + added + " new files of " + loc + " to the node's file store.");
+    } catch (IOException e) {
+      e.printStackTrace(listener.error("Failed to add the files of " + loc + " to the node's file store"));
+    }
+  }
+
+  private static File getBlob(File store, String hash) {
+    return new File(new File(new File(store, "blobs"), hash.substring(0, 2)), hash);
+  }
+
+  private static File getIndex(File store, String location) {
+    return new File(new File(store, "index"), location + ".properties");
+  }
+
+  private static String hash(File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    InputStream is = new DigestInputStream(new FileInputStream(file), digest);
+    try {
+      byte[] buffer = new byte[65536];
+      while(is.read(buffer) >= 0) {
+        // Reading updates the digest.
+      }
+    } finally {
+      is.close();
+    }
+    return Util.toHexString(digest.digest());
+  }
+
+  /**
+   * Puts a file of the store at a path of the workspace.
+   */
+  private static void place(File blob, Path target, boolean link) throws IOException {
+    Files.createDirectories(target.getParent());
+    Files.deleteIfExists(target);
+    if(link) {
+      Files.createLink(target, blob.toPath());
+    } else {
+      Files.copy(blob.toPath(), target, StandardCopyOption.COPY_ATTRIBUTES);
+      target.toFile().setWritable(true, true);
+    }
+  }
+
+  /**
+   * Copies or links the indexed files into the directory, returning how many.
+   */
+  private static final class Seed extends MasterToSlaveFileCallable<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private final String store;
+    private final String location;
+    private final boolean link;
+
+    Seed(String store, String location, boolean link) {
+      this.store = store;
+      this.location = location;
+      this.link = link;
+    }
+
+    @Override
+    public Integer invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+      File storeDir = new File(store);
+      Properties index = Ingest.readIndex(getIndex(storeDir, location));
+      Path base = dir.getCanonicalFile().toPath();
+      Map<String, Boolean> verified = new HashMap<String, Boolean>();
+      int files = 0;
+      for(Map.Entry<Object, Object> e : index.entrySet()) {
+        String hash = (String) e.getValue();
+        File blob = getBlob(storeDir, hash);
+        Path target = base.resolve((String) e.getKey()).normalize();
+        if(!blob.isFile() || !target.startsWith(base) || !verify(blob, hash, verified))
+          continue;
+        place(blob, target, link);
+        files++;
+      }
+      return files;
+    }
+
+    /**
+     * Checks that a file of the store still has the content it is stored under, deleting it if not.
+     */
+    private static boolean verify(File blob, String hash, Map<String, Boolean> verified) throws IOException {
+      Boolean ok = verified.get(hash);
+      if(ok == null) {
+        ok = hash.equals(hash(blob));
+        // A file linked into a workspace was changed in place, later workspaces get it from 'sscm get' again.
+        if(!ok)
+          Files.deleteIfExists(blob.toPath());
+        verified.put(hash, ok);
+      }
+      return ok;
+    }
+  }
+
+  /**
+   * Stores the files of the directory and records them in the location's index, returning how many were new.
+   */
+  private static final class Ingest extends MasterToSlaveFileCallable<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private final String store;
+    private final String location;
+    private final boolean link;
+
+    Ingest(String store, String location, boolean link) {
+      this.store = store;
+      this.location = location;
+      this.link = link;
+    }
+
+    @Override
+    public Integer invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+      final File storeDir = new File(store);
+      final Path base = dir.toPath();
+      final Properties paths = new Properties();
+      final int[] added = new int[1];
+      Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          String name = file.getFileName().toString();
+          if(!attrs.isRegularFile() || name.equals(SurroundWorkspaceManifest.FILE_NAME) || SurroundSCM.isRSAKeyFile(name))
+            return FileVisitResult.CONTINUE;
+          String hash = hash(file.toFile());
+          File blob = getBlob(storeDir, hash);
+          if(!blob.isFile()) {
+            add(file, blob);
+            added[0]++;
+          }
+          if(link)
+            place(blob, file, true);
+          paths.setProperty(base.relativize(file).toString().replace(File.separatorChar, '/'), hash);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+
+      // The directory holds the whole location, its paths replace the previous index.
+      File indexFile = getIndex(storeDir, location);
+      Files.createDirectories(indexFile.getParentFile().toPath());
+      File tmp = new File(indexFile.getParentFile(), "." + UUID.randomUUID());
+      OutputStream os = new FileOutputStream(tmp);
+      try {
+        paths.store(os, "Surround SCM file store index");
+      } finally {
+        os.close();
+      }
+      Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return added[0];
+    }
+
+    /**
+     * Copies a file into the store under a temporary name first, so a blob is never seen partially written.
+     */
+    private static void add(Path file, File blob) throws IOException {
+      File parent = blob.getParentFile();
+      Files.createDirectories(parent.toPath());
+      File tmp = new File(parent, "." + UUID.randomUUID());
+      Files.copy(file, tmp.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+      tmp.setWritable(false, false);
+      try {
+        Files.move(tmp.toPath(), blob.toPath());
+      } catch (FileAlreadyExistsException e) {
+        // Another build stored the same content.
+        Files.delete(tmp.toPath());
+      }
+    }
+
+    static Properties readIndex(File indexFile) throws IOException {
+      Properties index = new Properties();
+      if(indexFile.isFile()) {
+        InputStream is = new FileInputStream(indexFile);
+        try {
+          index.load(is);
+        } finally {
+          is.close();
+        }
+      }
+      return index;
+    }
+  }
+}
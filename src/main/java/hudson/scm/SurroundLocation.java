@@ -0,0 +1,100 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * One Surround SCM repository to retrieve as part of a multi-repository checkout, along with the workspace
+ * sub directory it should be retrieved into.
+ */
+public class SurroundLocation extends AbstractDescribableImpl<SurroundLocation> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String url;
+  private final String subdirectory;
+
+  /**
+   * Parsed form of {@link #url}, built on first use.
+   */
+  private transient volatile SscmLocation location;
+
+  @DataBoundConstructor
+  public SurroundLocation(String url, String subdirectory) {
+    url = Util.fixEmptyAndTrim(url);
+    try {
+      if(url != null)
+        url = URLDecoder.decode(url, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      e.printStackTrace();
+    }
+    this.url = url;
+    this.subdirectory = Util.fixEmptyAndTrim(subdirectory);
+  }
+
+  SurroundLocation(@Nonnull SscmLocation location, String subdirectory) {
+    this.url = location.getUrl();
+    this.subdirectory = Util.fixEmptyAndTrim(subdirectory);
+    this.location = location;
+  }
+
+  @Exported
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return Returns the workspace relative directory to retrieve files into, or null for the workspace root.
+   */
+  @Exported
+  @CheckForNull
+  public String getSubdirectory() {
+    return subdirectory;
+  }
+
+  /**
+   * @return Returns the parsed {@link #url}. An invalid url results in a location with empty components.
+   */
+  @Nonnull
+  public SscmLocation getLocation() {
+    SscmLocation result = location;
+    if(result == null) {
+      result = SscmLocation.parse(url);
+      if(result == null)
+        result = new SscmLocation("", "", "", "");
+      location = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return subdirectory == null ? String.valueOf(url) : url + " -> " + subdirectory;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<SurroundLocation> {
+    @Override
+    public String getDisplayName() {
+      return "Surround SCM Location";
+    }
+
+    @SuppressWarnings("unused") // Called from stapler
+    public FormValidation doCheckUrl(@QueryParameter String value) {
+      if(SSCMUtils.validateSSCMURL(Util.fixEmptyAndTrim(value)))
+        return FormValidation.ok();
+      return FormValidation.error("Expected a url like sscm://ServerAddress:4900//BranchName//Mainline/Path/To/Repository");
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What polling needs to know about the last checkout of a {@link SurroundSCM}, kept in a small file next to the
+ * job's configuration.
+ *
+ * Polling reads this instead of the {@link SurroundSCMRevisionState} attached to the last build, so it does not have
+ * to load build records. One file is kept per {@link SurroundSCM#getKey()}, so pipelines checking out several
+ * Surround configurations get one baseline each. The file is rewritten atomically after every successful checkout
+ * and cached in memory once read. It also records where the checkout went, for {@link SurroundPrefetch}.
+ *
+ * Cached baselines of deleted, renamed or moved jobs are forgotten, and a baseline numbered at or above the next
+ * build number of its job is ignored, so a job recreated under the same name or whose numbering was reset starts over.
+ */
+final class SurroundPollingBaseline {
+  private static final Logger LOGGER = Logger.getLogger(SurroundPollingBaseline.class.getName());
+
+  /**
+   * Baselines read or written since startup, keyed by file.
+   */
+  private static final Map<File, SurroundPollingBaseline> CACHE = new ConcurrentHashMap<File, SurroundPollingBaseline>();
+
+  private final String key;
+  private final int buildNumber;
+  private final long buildDate;
+  private final Map<String, Long> locationDates;
+  private final String node;
+  private final String workspace;
+
+  private SurroundPollingBaseline(String key, int buildNumber, long buildDate, Map<String, Long> locationDates,
+                                  String node, String workspace) {
+    this.key = key;
+    this.buildNumber = buildNumber;
+    this.buildDate = buildDate;
+    this.locationDates = locationDates;
+    this.node = node;
+    this.workspace = workspace;
+  }
+
+  private static File getFile(Job<?, ?> job, String key) {
+    return new File(job.getRootDir(), "surround-scm-polling-" + key + ".xml");
+  }
+
+  /**
+   * Records the outcome of a checkout. Checkouts of concurrent builds can finish in any order, an older build never
+   * replaces the baseline of a newer one.
+   *
+   * @param job   Job that was built
+   * @param key   {@link SurroundSCM#getKey()} of the configuration checked out
+   * @param state State the checkout attached to the build
+   * @param keys  {@link SscmLocation#getKey()} of every location checked out
+   * @param node  Name of the node the workspace is on, empty for the controller
+   * @param workspace Path of the workspace on that node
+   */
+  static synchronized void save(Job<?, ?> job, String key, SurroundSCMRevisionState state, Iterable<String> keys,
+                                String node, String workspace) {
+    File file = getFile(job, key);
+    SurroundPollingBaseline current = read(file);
+    if(current != null && isCurrent(job, current) && current.buildNumber > state.getBuildNumber())
+      return;
+
+    Map<String, Long> dates = new HashMap<String, Long>();
+    for(String k : keys) {
+      dates.put(k, state.getDate(k).getTime());
+    }
+    SurroundPollingBaseline baseline = new SurroundPollingBaseline(key, state.getBuildNumber(),
+            state.getDate().getTime(), dates, node, workspace);
+    try {
+      // XmlFile writes through an AtomicFileWriter, readers never see a partial file.
+      new XmlFile(file).write(baseline);
+      CACHE.put(file, baseline);
+    } catch (IOException e) {
+      // Polling falls back to the state attached to the build.
+      CACHE.remove(file);
+      LOGGER.log(Level.WARNING, "Failed to save the Surround SCM polling baseline " + file, e);
+    }
+  }
+
+  /**
+   * @return Returns the baseline of the last checkout, or null if there is none, in which case polling uses the
+   *         state attached to the last build.
+   */
+  @CheckForNull
+  static SurroundSCMRevisionState load(Job<?, ?> job, String key) {
+    SurroundPollingBaseline baseline = read(getFile(job, key));
+    if(baseline == null || !key.equals(baseline.key) || !isCurrent(job, baseline))
+      return null;
+
+    Map<String, Date> dates = new HashMap<String, Date>();
+    if(baseline.locationDates != null) {
+      for(Map.Entry<String, Long> e : baseline.locationDates.entrySet()) {
+        dates.put(e.getKey(), new Date(e.getValue()));
+      }
+    }
+    return new SurroundSCMRevisionState(new Date(baseline.buildDate), baseline.buildNumber, dates);
+  }
+
+  /**
+   * @return Returns the workspace of the last checkout, or null if it is not known or its node is offline.
+   */
+  @CheckForNull
+  static FilePath loadWorkspace(Job<?, ?> job, String key) {
+    SurroundPollingBaseline baseline = read(getFile(job, key));
+    Jenkins jenkins = Jenkins.getInstance();
+    if(jenkins == null || baseline == null || !key.equals(baseline.key) || !isCurrent(job, baseline)
+            || baseline.node == null || baseline.workspace == null)
+      return null;
+    Node node = baseline.node.isEmpty() ? jenkins : jenkins.getNode(baseline.node);
+    return node != null ? node.createPath(baseline.workspace) : null;
+  }
+
+  /**
+   * @return Returns false if the baseline was saved by a build numbered at or above the next build number of the job,
+   *         which happens when the numbering of the job was reset since.
+   */
+  private static boolean isCurrent(Job<?, ?> job, SurroundPollingBaseline baseline) {
+    return baseline.buildNumber < job.getNextBuildNumber();
+  }
+
+  /**
+   * Forgets the cached baselines of the jobs in a directory.
+   */
+  static void forget(File dir) {
+    String prefix = dir.getPath() + File.separator;
+    for(Iterator<File> it = CACHE.keySet().iterator(); it.hasNext(); ) {
+      if(it.next().getPath().startsWith(prefix))
+        it.remove();
+    }
+  }
+
+  /**
+   * Forgets the cached baselines whose file is gone.
+   */
+  static void forgetMissing() {
+    for(Iterator<File> it = CACHE.keySet().iterator(); it.hasNext(); ) {
+      if(!it.next().exists())
+        it.remove();
+    }
+  }
+
+  @CheckForNull
+  private static SurroundPollingBaseline read(File file) {
+    SurroundPollingBaseline baseline = CACHE.get(file);
+    if(baseline == null && file.exists()) {
+      try {
+        baseline = (SurroundPollingBaseline) new XmlFile(file).read();
+        CACHE.put(file, baseline);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to read the Surround SCM polling baseline " + file, e);
+      } catch (ClassCastException e) {
+        LOGGER.log(Level.WARNING, "Unexpected content in the Surround SCM polling baseline " + file, e);
+      }
+    }
+    return baseline;
+  }
+
+  /**
+   * Keeps the cache in step with jobs that are deleted, renamed or moved.
+   */
+  @Extension
+  public static final class Invalidation extends ItemListener {
+    @Override
+    public void onDeleted(Item item) {
+      forget(item.getRootDir());
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+      // The baselines moved with the job, the entries of the old directory point at files that are gone.
+      forgetMissing();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package hudson.scm;
+
+import java.util.Random;
+
+/**
+ * Interval between polls of one job, see {@link SurroundPollingTrigger}.
+ *
+ * The interval starts at the minimum and grows by {@link #BACKOFF} after every poll that finds no changes, up to the
+ * maximum. A poll that finds changes brings it back to the minimum, so busy branches are polled often and dormant
+ * ones rarely. Every delay is moved by up to {@link #JITTER} either way so jobs with the same interval drift apart
+ * instead of polling together.
+ */
+final class SurroundPollingSchedule {
+  /**
+   * Growth of the interval after a poll without changes.
+   */
+  static final double BACKOFF = 1.5;
+
+  /**
+   * Largest fraction of the interval a delay is moved by.
+   */
+  static final double JITTER = 0.2;
+
+  private long minMs;
+  private long maxMs;
+  private long intervalMs;
+
+  SurroundPollingSchedule(long minMs, long maxMs) {
+    setBounds(minMs, maxMs);
+    this.intervalMs = this.minMs;
+  }
+
+  /**
+   * Changes the bounds, ex. after the job was reconfigured, keeping what was learnt about the job when possible.
+   */
+  synchronized void setBounds(long minMs, long maxMs) {
+    this.minMs = Math.max(1, minMs);
+    this.maxMs = Math.max(this.minMs, maxMs);
+    this.intervalMs = Math.min(this.maxMs, Math.max(this.minMs, intervalMs));
+  }
+
+  synchronized long getIntervalMs() {
+    return intervalMs;
+  }
+
+  /**
+   * Adapts the interval to the outcome of a poll.
+   */
+  synchronized void polled(boolean changes) {
+    if(changes)
+      intervalMs = minMs;
+    else
+      intervalMs = Math.min(maxMs, Math.max(intervalMs + 1, (long) (intervalMs * BACKOFF)));
+  }
+
+  /**
+   * @return Returns a random delay shorter than the interval, spreading the first polls of all jobs over it.
+   */
+  synchronized long initialDelay(Random random) {
+    return (long) (random.nextDouble() * intervalMs);
+  }
+
+  /**
+   * @return Returns the delay before the next poll, the interval moved by up to {@link #JITTER} either way.
+   */
+  synchronized long nextDelay(Random random) {
+    return Math.max(1, (long) (intervalMs * (1 + JITTER * (2 * random.nextDouble() - 1))));
+  }
+}
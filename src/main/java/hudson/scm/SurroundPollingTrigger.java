@@ -0,0 +1,197 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.model.CauseAction;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.security.ACL;
+import hudson.triggers.SCMTrigger;
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.triggers.SCMTriggerItem;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls a job's Surround SCM configurations on an interval the plugin adapts to how often the branch changes,
+ * instead of a fixed cron schedule. See {@link SurroundPollingSchedule}.
+ *
+ * Polls go through {@link SCMTriggerItem#poll(hudson.model.TaskListener)}, so they end up in
+ * {@link SurroundSCM#compareRemoteRevisionWith} exactly like polls of the SCM trigger, and found changes start a
+ * build with an {@link SCMTrigger.SCMTriggerCause}.
+ */
+public class SurroundPollingTrigger extends Trigger<Item> {
+  private static final Logger LOGGER = Logger.getLogger(SurroundPollingTrigger.class.getName());
+
+  /**
+   * Number of polls that may run at the same time.
+   */
+  private static final int THREADS = Integer.getInteger(SurroundPollingTrigger.class.getName() + ".threads", 4);
+
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(THREADS,
+          new NamingThreadFactory(new DaemonThreadFactory(), "SurroundPollingTrigger"));
+
+  private static final Random RANDOM = new Random();
+
+  /**
+   * Schedules by job, kept across reconfigurations so a saved job does not go back to polling at the minimum.
+   */
+  private static final ConcurrentMap<String, SurroundPollingSchedule> SCHEDULES = new ConcurrentHashMap<String, SurroundPollingSchedule>();
+
+  private final int minInterval;
+  private final int maxInterval;
+
+  private transient ScheduledFuture<?> next;
+  private transient boolean stopped;
+
+  /**
+   * @param minInterval Shortest interval between polls, in minutes
+   * @param maxInterval Longest interval between polls, in minutes
+   */
+  @DataBoundConstructor
+  public SurroundPollingTrigger(int minInterval, int maxInterval) {
+    super();
+    this.minInterval = Math.max(1, minInterval);
+    this.maxInterval = Math.max(this.minInterval, maxInterval);
+  }
+
+  public int getMinInterval() {
+    return minInterval;
+  }
+
+  public int getMaxInterval() {
+    return maxInterval;
+  }
+
+  @Override
+  public void start(Item project, boolean newInstance) {
+    super.start(project, newInstance);
+    synchronized (this) {
+      stopped = false;
+      scheduleNext(true);
+    }
+  }
+
+  @Override
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+      if(next != null)
+        next.cancel(false);
+    }
+    super.stop();
+  }
+
+  /**
+   * This trigger has no cron schedule, polls are started by {@link #scheduleNext(boolean)}.
+   */
+  @Override
+  public void run() {
+  }
+
+  private SurroundPollingSchedule getSchedule() {
+    long min = TimeUnit.MINUTES.toMillis(minInterval);
+    long max = TimeUnit.MINUTES.toMillis(maxInterval);
+    String name = job.getFullName();
+    SurroundPollingSchedule schedule = SCHEDULES.get(name);
+    if(schedule == null) {
+      SurroundPollingSchedule created = new SurroundPollingSchedule(min, max);
+      schedule = SCHEDULES.putIfAbsent(name, created);
+      if(schedule == null)
+        schedule = created;
+    }
+    schedule.setBounds(min, max);
+    return schedule;
+  }
+
+  private synchronized void scheduleNext(boolean first) {
+    if(stopped || job == null)
+      return;
+    SurroundPollingSchedule schedule = getSchedule();
+    long delay = first ? schedule.initialDelay(RANDOM) : schedule.nextDelay(RANDOM);
+    next = EXECUTOR.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          poll();
+        } catch (Throwable t) {
+          LOGGER.log(Level.WARNING, "Surround SCM polling of " + job.getFullName() + " failed", t);
+        } finally {
+          scheduleNext(false);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void poll() throws IOException, InterruptedException {
+    SCMTriggerItem item = SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(job);
+    if(item == null || !hasSurroundSCM(item))
+      return;
+    if(job instanceof Job && !((Job<?, ?>) job).isBuildable())
+      return;
+
+    SurroundPollingSchedule schedule = getSchedule();
+    File log = getLogFile();
+    boolean changes;
+    StreamTaskListener listener = new StreamTaskListener(log);
+    SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+    try {
+      listener.getLogger().println("Started on " + new Date());
+      changes = item.poll(listener).hasChanges();
+      schedule.polled(changes);
+      listener.getLogger().println(String.format("Done. %s, polling again in about %d seconds.",
+              changes ? "Changes found" : "No changes", TimeUnit.MILLISECONDS.toSeconds(schedule.getIntervalMs())));
+    } finally {
+      SecurityContextHolder.setContext(old);
+      listener.close();
+    }
+    if(changes)
+      item.scheduleBuild2(item.getQuietPeriod(), new CauseAction(new SCMTrigger.SCMTriggerCause(log)));
+  }
+
+  private static boolean hasSurroundSCM(SCMTriggerItem item) {
+    for(SCM scm : item.getSCMs()) {
+      if(scm instanceof SurroundSCM)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return Returns the log of the last poll.
+   */
+  public File getLogFile() {
+    return new File(job.getRootDir(), "surround-scm-polling.log");
+  }
+
+  @Extension @Symbol("surroundPolling")
+  public static class DescriptorImpl extends TriggerDescriptor {
+    @Override
+    public boolean isApplicable(Item item) {
+      return SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(item) != null;
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Poll Surround SCM adaptively";
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.WorkspaceList;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Updates the workspace of the last checkout of a {@link SurroundSCM} with {@link SurroundSCM#isPrefetch()} set as
+ * soon as polling finds changes, and whenever the agent it is on comes online. The build that follows still waits for
+ * its quiet period and an executor, by the time its checkout runs 'sscm get' only has the last few changes to
+ * retrieve.
+ *
+ * A prefetch is skipped when a build is using the workspace. A checkout of a workspace that is being prefetched waits
+ * for the prefetch to finish instead of running 'sscm get' next to it.
+ *
+ * The jobs to prefetch for are kept in a registry filled as projects are loaded or saved and as checkouts run, so
+ * bringing an agent online does not load the builds of every job to find their SCMs. Jobs that do not configure their
+ * SCM up front, like pipelines, are registered by their next checkout after a restart.
+ */
+@Extension
+public class SurroundPrefetch extends ComputerListener {
+  private static final Logger LOGGER = Logger.getLogger(SurroundPrefetch.class.getName());
+
+  /**
+   * Number of prefetches that may run at the same time.
+   */
+  private static final int THREADS = Integer.getInteger(SurroundPrefetch.class.getName() + ".threads", 2);
+
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+          new NamingThreadFactory(new DaemonThreadFactory(), "SurroundPrefetch"));
+
+  /**
+   * Prefetches queued or running, keyed by workspace.
+   */
+  private static final ConcurrentMap<String, Prefetch> PREFETCHES = new ConcurrentHashMap<String, Prefetch>();
+
+  /**
+   * SCMs with prefetch set, keyed by the full name of their job and then by {@link SCM#getKey()}.
+   */
+  private static final ConcurrentMap<String, ConcurrentMap<String, SurroundSCM>> JOBS =
+          new ConcurrentHashMap<String, ConcurrentMap<String, SurroundSCM>>();
+
+  /**
+   * Records whether the job prefetches for the SCM, called whenever a checkout runs.
+   */
+  static void register(Job<?, ?> job, SurroundSCM scm) {
+    ConcurrentMap<String, SurroundSCM> scms = JOBS.get(job.getFullName());
+    if(scm.isPrefetch() && !scm.isPinned()) {
+      if(scms == null) {
+        ConcurrentMap<String, SurroundSCM> created = new ConcurrentHashMap<String, SurroundSCM>();
+        scms = JOBS.putIfAbsent(job.getFullName(), created);
+        if(scms == null)
+          scms = created;
+      }
+      scms.put(scm.getKey(), scm);
+    } else if(scms != null) {
+      scms.remove(scm.getKey());
+    }
+  }
+
+  /**
+   * Replaces what is registered for a project with the SCM it is configured with.
+   */
+  private static void register(AbstractProject<?, ?> project) {
+    SCM scm = project.getScm();
+    JOBS.remove(project.getFullName());
+    if(scm instanceof SurroundSCM)
+      register(project, (SurroundSCM) scm);
+  }
+
+  /**
+   * Queues a prefetch of the workspace of the last checkout of the job, unless one is already queued.
+   */
+  static void start(final SurroundSCM scm, final Job<?, ?> job) {
+    final FilePath workspace = SurroundPollingBaseline.loadWorkspace(job, scm.getKey());
+    if(workspace == null)
+      return;
+    final Node node = SSCMUtils.workspaceToNode(workspace);
+    final String key = getKey(workspace);
+    final Prefetch prefetch = new Prefetch();
+    if(PREFETCHES.putIfAbsent(key, prefetch) != null)
+      return;
+
+    try {
+      EXECUTOR.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            prefetch.started = true;
+            prefetch(scm, job, node, workspace);
+          } finally {
+            PREFETCHES.remove(key, prefetch);
+            prefetch.done.countDown();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      PREFETCHES.remove(key, prefetch);
+    }
+  }
+
+  /**
+   * Waits for a running prefetch of the workspace to finish, called before a checkout.
+   */
+  static void await(FilePath workspace, TaskListener listener) throws InterruptedException {
+    Prefetch prefetch = PREFETCHES.get(getKey(workspace));
+    if(prefetch != null && prefetch.started) {
+      listener.getLogger().println("Waiting for the prefetch of this workspace to finish.");
+      prefetch.done.await();
+    }
+  }
+
+  private static String getKey(FilePath workspace) {
+    return SSCMUtils.workspaceToNode(workspace).getNodeName() + '\n' + workspace.getRemote();
+  }
+
+  private static void prefetch(SurroundSCM scm, Job<?, ?> job, Node node, FilePath workspace) {
+    Computer computer = node.toComputer();
+    if(computer == null || computer.isOffline())
+      return;
+
+    File log = new File(job.getRootDir(), "surround-scm-prefetch.log");
+    StreamTaskListener listener = null;
+    try {
+      // A build that already has the workspace is left alone, one that gets it from now on waits in await().
+      WorkspaceList.Lease lease = computer.getWorkspaceList().allocate(workspace);
+      boolean free = lease.path.equals(workspace);
+      lease.release();
+      if(!free) {
+        LOGGER.log(Level.FINE, "Not prefetching {0}, a build is using {1}", new Object[]{job.getFullName(), workspace});
+        return;
+      }
+
+      listener = new StreamTaskListener(log);
+      listener.getLogger().println("Prefetching into " + workspace + " on " + computer.getDisplayName() + " at " + new Date());
+      if(scm.prefetch(job, node, workspace, listener))
+        listener.getLogger().println("Prefetch completed.");
+      else
+        listener.getLogger().println("Prefetch failed, the next checkout retrieves everything it needs.");
+    } catch (IOException e) {
+      if(listener != null)
+        e.printStackTrace(listener.error("Prefetch failed"));
+      LOGGER.log(Level.WARNING, "Failed to prefetch " + job.getFullName() + " into " + workspace, e);
+    } catch (InterruptedException e) {
+      LOGGER.log(Level.FINE, "Prefetch of " + job.getFullName() + " interrupted", e);
+    } finally {
+      if(listener != null)
+        listener.close();
+    }
+  }
+
+  @Override
+  public void onOnline(Computer c, TaskListener taskListener) throws IOException, InterruptedException {
+    Node node = c.getNode();
+    Jenkins jenkins = Jenkins.getInstance();
+    if(node == null || jenkins == null)
+      return;
+
+    SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+    try {
+      for(Map.Entry<String, ConcurrentMap<String, SurroundSCM>> entry : JOBS.entrySet()) {
+        Job<?, ?> job = jenkins.getItemByFullName(entry.getKey(), Job.class);
+        if(job == null || !job.isBuildable())
+          continue;
+        for(SurroundSCM scm : entry.getValue().values()) {
+          FilePath workspace = SurroundPollingBaseline.loadWorkspace(job, scm.getKey());
+          if(workspace != null && SSCMUtils.workspaceToNode(workspace) == node)
+            start(scm, job);
+        }
+      }
+    } finally {
+      SecurityContextHolder.setContext(old);
+    }
+  }
+
+  /**
+   * Keeps the registry of jobs to prefetch for in step with the projects as they are loaded, saved, renamed and
+   * deleted.
+   */
+  @Extension
+  public static final class Registry extends ItemListener {
+    @Override
+    public void onLoaded() {
+      Jenkins jenkins = Jenkins.getInstance();
+      if(jenkins == null)
+        return;
+      SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+      try {
+        for(AbstractProject<?, ?> project : jenkins.getAllItems(AbstractProject.class))
+          register(project);
+      } finally {
+        SecurityContextHolder.setContext(old);
+      }
+    }
+
+    @Override
+    public void onCreated(Item item) {
+      if(item instanceof AbstractProject)
+        register((AbstractProject<?, ?>) item);
+    }
+
+    @Override
+    public void onUpdated(Item item) {
+      if(item instanceof AbstractProject)
+        register((AbstractProject<?, ?>) item);
+    }
+
+    @Override
+    public void onDeleted(Item item) {
+      JOBS.remove(item.getFullName());
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+      ConcurrentMap<String, SurroundSCM> scms = JOBS.remove(oldFullName);
+      if(scms != null)
+        JOBS.put(newFullName, scms);
+    }
+  }
+
+  /**
+   * A queued or running prefetch.
+   */
+  private static final class Prefetch {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean started;
+  }
+}
@@ -12,8 +12,12 @@ import hudson.model.*;
 import hudson.model.queue.Tasks;
 import hudson.scm.config.RSAKey;
 import hudson.security.ACL;
+import hudson.slaves.WorkspaceList;
 import hudson.util.ArgumentListBuilder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.plaincredentials.FileCredentials;
@@ -24,11 +28,23 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -60,6 +76,29 @@ public final class SurroundSCM extends SCM {
      */
     private static transient final String SURROUND_DATETIME_FORMAT_STR_2 = "yyyyMMddHH:mm:ss";
 
+    /**
+     * Name prefix and suffix of the RSA key files written for key file credentials.
+     */
+    static transient final String RSA_KEY_FILE_PREFIX = "RSAKeyFile";
+    static transient final String RSA_KEY_FILE_SUFFIX = ".xml";
+
+    /**
+     * @return Returns true if the file name is that of an RSA key file, earlier versions wrote them into the workspace.
+     */
+    static boolean isRSAKeyFile(String name) {
+        return name.startsWith(RSA_KEY_FILE_PREFIX) && name.endsWith(RSA_KEY_FILE_SUFFIX);
+    }
+
+    /**
+     * Number of locations retrieved at the same time when none has been configured.
+     */
+    private static transient final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Delay before retrying a failed 'sscm get', doubled for every following retry.
+     */
+    private static transient final long CHECKOUT_RETRY_DELAY_MS = 10000;
+
     // config options
     private String server;
     private String serverPort;
@@ -68,6 +107,59 @@ public final class SurroundSCM extends SCM {
     private String credentialsId;
     private RSAKey rsaKey;
 
+    /**
+     * Parsed form of server, serverPort, branch and repository. Built on first use since XStream bypasses the
+     * constructor when loading jobs.
+     */
+    private transient volatile SscmLocation location;
+
+    /**
+     * Additional repositories retrieved alongside server // branch // repository. May be null.
+     */
+    private List<SurroundLocation> locations;
+
+    /**
+     * Maximum number of locations retrieved at the same time. Zero means {@link #DEFAULT_CONCURRENCY}.
+     */
+    private int concurrency;
+
+    /**
+     * Start updating the last workspace as soon as polling detects changes, see {@link SurroundPrefetch}.
+     */
+    private boolean prefetch;
+
+    /**
+     * Share one retrieval between the checkouts of a build, see {@link SurroundSnapshot}.
+     */
+    private boolean shareCheckout;
+
+    /**
+     * Timestamp to retrieve as of instead of the time of the checkout, as yyyyMMddHHmmss. May reference build
+     * parameters. Null retrieves the latest files.
+     */
+    private String timestamp;
+
+    /**
+     * Label to retrieve instead of the latest files. May reference build parameters, takes precedence over
+     * {@link #timestamp}.
+     */
+    private String label;
+
+    /**
+     * User names whose changes polling ignores, one per line. May be null.
+     */
+    private String excludedUsers;
+
+    /**
+     * Regular expressions, one per line, polling ignores changes whose comment contains a match of. May be null.
+     */
+    private String excludedComments;
+
+    /**
+     * Cached result of {@link #getKey()}.
+     */
+    private transient volatile String key;
+
     // TODO: Review if this is needed.
     private String sscm_tool_name;
 
@@ -237,6 +329,161 @@ public final class SurroundSCM extends SCM {
         return repository;
     }
 
+    /**
+     * @return Returns the server, port, branch and repository of this SCM as a single {@link SscmLocation}.
+     */
+    @Nonnull
+    public SscmLocation getLocation() {
+        SscmLocation result = location;
+        if (result == null) {
+            result = new SscmLocation(server, serverPort, branch, repository);
+            location = result;
+        }
+        return result;
+    }
+
+    @Exported
+    public List<SurroundLocation> getLocations() {
+        return locations == null ? Collections.<SurroundLocation>emptyList() : Collections.unmodifiableList(locations);
+    }
+
+    @DataBoundSetter
+    public void setLocations(List<SurroundLocation> locations) {
+        this.locations = locations == null || locations.isEmpty() ? null : new ArrayList<SurroundLocation>(locations);
+        this.key = null;
+    }
+
+    @Exported
+    public int getConcurrency() {
+        return concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(0, concurrency);
+    }
+
+    @Exported
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    @DataBoundSetter
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    @Exported
+    public boolean isShareCheckout() {
+        return shareCheckout;
+    }
+
+    @DataBoundSetter
+    public void setShareCheckout(boolean shareCheckout) {
+        this.shareCheckout = shareCheckout;
+    }
+
+    @Exported
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    @DataBoundSetter
+    public void setTimestamp(String timestamp) {
+        this.timestamp = Util.fixEmptyAndTrim(timestamp);
+    }
+
+    @Exported
+    public String getLabel() {
+        return label;
+    }
+
+    @DataBoundSetter
+    public void setLabel(String label) {
+        this.label = Util.fixEmptyAndTrim(label);
+    }
+
+    @Exported
+    public String getExcludedUsers() {
+        return excludedUsers;
+    }
+
+    @DataBoundSetter
+    public void setExcludedUsers(String excludedUsers) {
+        this.excludedUsers = Util.fixEmptyAndTrim(excludedUsers);
+    }
+
+    @Exported
+    public String getExcludedComments() {
+        return excludedComments;
+    }
+
+    @DataBoundSetter
+    public void setExcludedComments(String excludedComments) {
+        this.excludedComments = Util.fixEmptyAndTrim(excludedComments);
+    }
+
+    /**
+     * @return Returns true if checkouts retrieve a set timestamp or label rather than the latest files. There is
+     *         nothing to prefetch for them.
+     */
+    boolean isPinned() {
+        return timestamp != null || label != null;
+    }
+
+    /**
+     * @return Returns the key {@link SurroundWorkspaceManifest}s record a retrieval of the location under, which
+     *         includes the label if one is set so a labelled retrieval never matches one as of a timestamp.
+     */
+    private String getManifestKey(SscmLocation loc, EnvVars env) {
+        String pinnedLabel = getLabel(env);
+        return pinnedLabel != null ? loc.getKey() + '@' + pinnedLabel : loc.getKey();
+    }
+
+    /**
+     * @return Returns the {@link #label} with build parameters expanded, or null if no label is set.
+     */
+    @CheckForNull
+    private String getLabel(EnvVars env) {
+        return label != null ? Util.fixEmptyAndTrim(env.expand(label)) : null;
+    }
+
+    /**
+     * @return Returns the {@link #timestamp} with build parameters expanded, or null if no timestamp is set.
+     * @throws AbortException Thrown if the timestamp is not in the yyyyMMddHHmmss format
+     */
+    @CheckForNull
+    private Date getTimestamp(EnvVars env) throws AbortException {
+        String value = timestamp != null ? Util.fixEmptyAndTrim(env.expand(timestamp)) : null;
+        if (value == null)
+            return null;
+        SimpleDateFormat format = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR);
+        format.setLenient(false);
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            throw new AbortException("Surround SCM timestamp '" + value + "' is not in the " + SURROUND_DATETIME_FORMAT_STR + " format.");
+        }
+    }
+
+    /**
+     * Every location retrieved by a checkout. The server // branch // repository configured directly on this SCM is
+     * retrieved into the workspace root and is only left out when it is blank and additional locations are present.
+     *
+     * @return Returns the locations to retrieve, never empty.
+     */
+    @Nonnull
+    public List<SurroundLocation> getCheckoutLocations() {
+        List<SurroundLocation> result = new ArrayList<SurroundLocation>();
+        if (server != null || locations == null || locations.isEmpty()) {
+            result.add(new SurroundLocation(getLocation(), null));
+        }
+        if (locations != null) {
+            result.addAll(locations);
+        }
+        return result;
+    }
+
     @Exported
     public boolean getIncludeOutput() {
         return bIncludeOutput;
@@ -373,18 +620,39 @@ public final class SurroundSCM extends SCM {
             @Nonnull TaskListener listener, @Nonnull SCMRevisionState baseline) throws IOException, InterruptedException {
         SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR);
 
-        Date lastBuild = ((SurroundSCMRevisionState) baseline).getDate();
-        int lastBuildNum = ((SurroundSCMRevisionState) baseline).getBuildNumber();
+        // The baseline saved by the last checkout saves loading builds, the state attached to the build is only a
+        // fallback for jobs not built since it was introduced.
+        SurroundSCMRevisionState state = SurroundPollingBaseline.load(project, getKey());
+        SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_POLLING_BASELINE, state != null);
+        if (baseline instanceof SurroundSCMRevisionState) {
+            SurroundSCMRevisionState attached = (SurroundSCMRevisionState) baseline;
+            if (state == null || attached.getBuildNumber() > state.getBuildNumber())
+                state = attached;
+        }
+        if (state == null) {
+            listener.getLogger().println("No Surround SCM polling baseline found, a build is needed.");
+            return PollingResult.BUILD_NOW;
+        }
+        int lastBuildNum = state.getBuildNumber();
 
         Date now = new Date();
         File temporaryFile = File.createTempFile("changes", "txt");
 
-        listener.getLogger().println("Calculating changes since build #" + lastBuildNum + " which happened at " + scm_datetime_formatter.format(lastBuild) + " pluginVer: " + pluginVersion);
-
         double countChanges = 0;
-        if (launcher != null)
-            countChanges = determineChangeCount(project, launcher, listener, lastBuild, now, temporaryFile, workspace);
-        else
+        if (launcher != null) {
+            // 'sscm cc' covers one branch and repository over one date range, and locations can be on different
+            // servers or branches and have been retrieved as of different times, so each location needs its own
+            // command. They run one after the other and stop at the first location with changes, one is enough to
+            // trigger a build and a poll without changes costs no more than running them in parallel would.
+            for (SurroundLocation target : getCheckoutLocations()) {
+                SscmLocation loc = target.getLocation();
+                Date lastBuild = state.getDate(loc.getKey());
+                listener.getLogger().println("Calculating changes in " + loc + " since build #" + lastBuildNum + " which happened at " + scm_datetime_formatter.format(lastBuild) + " pluginVer: " + pluginVersion);
+                countChanges = determineChangeCount(project, launcher, listener, loc, lastBuild, now, temporaryFile, workspace);
+                if (countChanges != 0)
+                    break;
+            }
+        } else
             listener.getLogger().println("Launcher was null... skipping determining change count.");
 
         if (!temporaryFile.delete()) {
@@ -397,6 +665,8 @@ public final class SurroundSCM extends SCM {
         else if (countChanges < changesThreshold)
             return PollingResult.SIGNIFICANT;
 
+        if (prefetch && !isPinned())
+            SurroundPrefetch.start(this, project);
         return PollingResult.BUILD_NOW;
     }
 
@@ -412,51 +682,137 @@ public final class SurroundSCM extends SCM {
     public void checkout(
             @Nonnull Run<?, ?> build, @Nonnull Launcher launcher, @Nonnull FilePath workspace, @Nonnull TaskListener listener,
             @CheckForNull File changelogFile, @CheckForNull SCMRevisionState baseline) throws IOException, InterruptedException {
-        SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR_2);
-
-        Date currentDate = new Date(); //defaults to current
-
         EnvVars environment = build.getEnvironment(listener);
         if (build instanceof AbstractBuild) {
             EnvVarsUtils.overrideAll(environment, ((AbstractBuild) build).getBuildVariables());
         }
 
-        ArgumentListBuilder cmd = new ArgumentListBuilder();
-        cmd.add(getSscmExe(workspace, listener, environment));//will default to sscm user can put in path
-        cmd.add("get");
-        cmd.add("/");
-        cmd.add("-wreplace");
-        cmd.add("-b".concat(branch));
-        cmd.add("-p".concat(repository));
-        cmd.add("-d".concat(workspace.getRemote()));
-        cmd.add("-r");
-        cmd.add("-s" + scm_datetime_formatter.format(currentDate));
-        if (!bIncludeOutput) {
-            cmd.add("-q");
+        Date currentDate = getTimestamp(environment);
+        String pinnedLabel = getLabel(environment);
+        if (pinnedLabel != null) {
+            listener.getLogger().println("Retrieving label " + pinnedLabel + ".");
+        } else if (currentDate != null) {
+            listener.getLogger().println("Retrieving files as of the pinned timestamp " + currentDate + ".");
+        }
+        if (currentDate == null)
+            currentDate = DESCRIPTOR.coalesce(new Date()); //defaults to current
+
+        List<SurroundLocation> targets = getCheckoutLocations();
+        SurroundPrefetch.await(workspace, listener);
+        SurroundPrefetch.register(build.getParent(), this);
+        if (!DESCRIPTOR.isVerboseCheckoutLog() && build.getAction(SscmGetLogAction.class) == null) {
+            build.addAction(new SscmGetLogAction());
         }
-        cmd.add(getServerConnectionArgument(build.getParent(), environment, workspace));
-        cmd.addMasked(getUserPasswordArgument(build.getParent(), environment));
 
-        int cmdResult = launcher.launch().envs(environment).cmds(cmd).stdout(listener.getLogger()).join();
-        if (cmdResult == 0) {
-            Date lastBuildDate = new Date();
-            lastBuildDate.setTime(0); // default to January 1, 1970
+        SurroundSnapshot snapshot = null;
+        boolean first = false;
+        if (shareCheckout) {
+            snapshot = SurroundSnapshot.of(build, getKey(), currentDate);
+            first = snapshot.claim(workspace);
+            currentDate = snapshot.getTimestamp();
+        }
+        try {
+            checkout(build, launcher, workspace, listener, changelogFile, baseline, environment, targets, currentDate,
+                    snapshot, first);
+        } finally {
+            if (first)
+                snapshot.release();
+        }
+        listener.getLogger().println("Checkout completed.");
+    }
 
-            if (baseline instanceof SurroundSCMRevisionState) {
-                lastBuildDate = ((SurroundSCMRevisionState) baseline).getDate();
-            } else
+    /**
+     * Retrieves the locations, either with 'sscm get' or from the snapshot of another checkout in the build, and
+     * records the revision state and changelog.
+     *
+     * @param snapshot Snapshot shared by the checkouts of the build, null unless {@link #isShareCheckout()}
+     * @param first    True if this checkout retrieves the files of the snapshot
+     */
+    private void checkout(@Nonnull Run<?, ?> build, @Nonnull Launcher launcher, @Nonnull FilePath workspace,
+                          @Nonnull TaskListener listener, @CheckForNull File changelogFile,
+                          @CheckForNull SCMRevisionState baseline, EnvVars environment, List<SurroundLocation> targets,
+                          Date currentDate, @CheckForNull SurroundSnapshot snapshot, boolean first)
+            throws IOException, InterruptedException {
+        SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR_2);
+
+        boolean copied = snapshot != null && !first && snapshot.copyTo(workspace, targets, listener);
+        if (copied || retrieveLocations(build, launcher, workspace, listener, environment, targets, currentDate)) {
+            Map<String, Date> locationDates = new HashMap<String, Date>();
+            Map<String, Date> lastBuildDates = new HashMap<String, Date>();
+            for (SurroundLocation target : targets) {
+                String locationKey = target.getLocation().getKey();
+                locationDates.put(locationKey, currentDate);
+                if (baseline instanceof SurroundSCMRevisionState) {
+                    lastBuildDates.put(locationKey, ((SurroundSCMRevisionState) baseline).getDate(locationKey));
+                } else {
+                    lastBuildDates.put(locationKey, new Date(0)); // default to January 1, 1970
+                }
+            }
+
+            if (!(baseline instanceof SurroundSCMRevisionState))
                 listener.getLogger().print("No previous build information detected.");
 
             // Setup the revision state based on what we KNOW to be correct information.
-            SurroundSCMRevisionState scmRevisionState = new SurroundSCMRevisionState(currentDate, build.number);
-            build.addAction(scmRevisionState);
-            listener.getLogger().println("Checkout calculated ScmRevisionState for build #" + build.number + " to be the datetime " + scm_datetime_formatter.format(currentDate) + " pluginVer: " + pluginVersion);
+            SurroundSCMRevisionState scmRevisionState = new SurroundSCMRevisionState(currentDate, build.number, locationDates);
+            SurroundSCMRevisionState previous = getPreviousState(build.getParent(), baseline);
+            boolean labelled = getLabel(environment) != null;
+            boolean pinned = labelled || getTimestamp(environment) != null;
+            if (labelled || (pinned && !isNotBefore(scmRevisionState, previous, locationDates.keySet()))) {
+                // Retrieving a label, or files older than what polling has seen, must not move polling back in time.
+                // Polling carries on from the previous checkout, changes since then still trigger a build.
+                if (previous != null) {
+                    Map<String, Date> previousDates = new HashMap<String, Date>();
+                    for (String locationKey : locationDates.keySet()) {
+                        previousDates.put(locationKey, previous.getDate(locationKey));
+                    }
+                    build.addAction(new SurroundSCMRevisionState(previous.getDate(), previous.getBuildNumber(), previousDates));
+                    listener.getLogger().println("Checkout is pinned, polling carries on from build #" + previous.getBuildNumber() + ".");
+                } else {
+                    listener.getLogger().println("Checkout is pinned, polling carries on from the time of this build.");
+                }
+            } else {
+                build.addAction(scmRevisionState);
+                SurroundPollingBaseline.save(build.getParent(), getKey(), scmRevisionState, locationDates.keySet(),
+                        SSCMUtils.workspaceToNode(workspace).getNodeName(), workspace.getRemote());
+                listener.getLogger().println("Checkout calculated ScmRevisionState for build #" + build.number + " to be the datetime " + scm_datetime_formatter.format(currentDate) + " pluginVer: " + pluginVersion);
+            }
 
+            if (changelogFile != null && !(copied && snapshot.copyChangeLog(lastBuildDates, changelogFile)))
+                captureChangeLog(build, launcher, workspace, listener, targets, lastBuildDates, currentDate, changelogFile, environment);
             if (changelogFile != null)
-                captureChangeLog(build, launcher, workspace, listener, lastBuildDate, currentDate, changelogFile, environment);
+                SurroundChangesAction.record(build, changelogFile);
+            if (first)
+                snapshot.save(workspace, targets, changelogFile, lastBuildDates, listener);
         }
+    }
 
-        listener.getLogger().println("Checkout completed.");
+    /**
+     * @return Returns the state polling last continued from: the newer of the state attached to the previous build
+     *         and the saved {@link SurroundPollingBaseline}, or null if there is neither.
+     */
+    @CheckForNull
+    private SurroundSCMRevisionState getPreviousState(Job<?, ?> job, @CheckForNull SCMRevisionState baseline) {
+        SurroundSCMRevisionState result = SurroundPollingBaseline.load(job, getKey());
+        if (baseline instanceof SurroundSCMRevisionState) {
+            SurroundSCMRevisionState attached = (SurroundSCMRevisionState) baseline;
+            if (result == null || attached.getBuildNumber() > result.getBuildNumber())
+                result = attached;
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns true if no location of the state is dated before the previous state.
+     */
+    private static boolean isNotBefore(SurroundSCMRevisionState state, @CheckForNull SurroundSCMRevisionState previous,
+                                       Iterable<String> locationKeys) {
+        if (previous == null)
+            return true;
+        for (String locationKey : locationKeys) {
+            if (state.getDate(locationKey).before(previous.getDate(locationKey)))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -466,8 +822,20 @@ public final class SurroundSCM extends SCM {
     @Override
     public String getKey() {
         // Key=sscm://Server:Port//Branch//Repository
-        String unsafeString = String.format("sscm://%s:%s//%s//%s", getServer(), getServerPort(), getBranch(), getRepository());
-        return Util.getDigestOf(unsafeString);
+        String result = key;
+        if (result == null) {
+            if (locations == null || locations.isEmpty()) {
+                result = getLocation().getKey();
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (SurroundLocation target : getCheckoutLocations()) {
+                    sb.append(target.getLocation().getUrl()).append('>').append(target.getSubdirectory()).append('\n');
+                }
+                result = Util.getDigestOf(sb.toString());
+            }
+            key = result;
+        }
+        return result;
     }
 
     /**
@@ -478,67 +846,344 @@ public final class SurroundSCM extends SCM {
         return new SurroundSCMChangeLogParser();
     }
 
+    /**
+     * Retrieves every location into the workspace, running up to {@link #getConcurrency()} 'sscm get' commands at
+     * the same time.
+     *
+     * @param build       The current build
+     * @param launcher    Launcher to use for running commands
+     * @param workspace   Workspace to retrieve files into
+     * @param listener    Listener used for logging
+     * @param env         Environment variables to use
+     * @param targets     Locations to retrieve
+     * @param currentDate Date to retrieve files as of
+     * @return Returns 'True' if every location was retrieved successfully
+     * @throws IOException          Thrown if a location could not be retrieved
+     * @throws InterruptedException Thrown if the build is aborted while waiting on the retrievals
+     */
+    private boolean retrieveLocations(@Nonnull final Run<?, ?> build, final Launcher launcher, final FilePath workspace,
+                                      final TaskListener listener, final EnvVars env, List<SurroundLocation> targets,
+                                      final Date currentDate) throws IOException, InterruptedException {
+        if (targets.size() == 1) {
+            return retrieveLocation(build, launcher, workspace, listener, env, targets.get(0), currentDate) == 0;
+        }
+
+        int threads = Math.min(getConcurrency(), targets.size());
+        listener.getLogger().println("Retrieving " + targets.size() + " locations, " + threads + " at a time.");
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "SurroundSCM.checkout"));
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (final SurroundLocation target : targets) {
+                final String server = target.getLocation().getServer();
+                SurroundSCMDashboard.queued(server, 1);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        SurroundSCMDashboard.queued(server, -1);
+                        return retrieveLocation(build, launcher, workspace, listener, env, target, currentDate);
+                    }
+                }));
+            }
+
+            boolean result = true;
+            for (int i = 0; i < targets.size(); i++) {
+                int cmdResult;
+                try {
+                    cmdResult = results.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof InterruptedException)
+                        throw (InterruptedException) cause;
+                    throw new IOException("Failed to retrieve " + targets.get(i), cause);
+                }
+                if (cmdResult != 0) {
+                    listener.error("Retrieving " + targets.get(i) + " failed with exit code " + cmdResult);
+                    result = false;
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Retrieves a single location. Nothing is retrieved when the destination already holds a finished retrieval of
+     * the location as of the timestamp. When {@link SurroundSCMDescriptor#isSingleFlightGets()} is set and another
+     * build on the same node is retrieving the location as of the same timestamp, its files are copied instead.
+     *
+     * @return Returns the exit code of the last 'sscm get' command, 0 if the files were copied or already there
+     */
+    private int retrieveLocation(@Nonnull Run<?, ?> build, Launcher launcher, FilePath workspace, TaskListener listener,
+                                 EnvVars env, SurroundLocation target, Date currentDate) throws IOException, InterruptedException {
+        SscmLocation loc = target.getLocation();
+        FilePath destination = target.getSubdirectory() != null ? workspace.child(target.getSubdirectory()) : workspace;
+        boolean labelled = getLabel(env) != null;
+
+        // Files can be added to a label after the fact, only a retrieval as of a timestamp is known to be unchanged.
+        SurroundWorkspaceManifest manifest = SurroundWorkspaceManifest.read(destination);
+        if (!labelled && manifest != null && manifest.matches(loc.getKey(), currentDate)) {
+            listener.getLogger().println(String.format("%s already has the files of %s as of %tF %<tT, " +
+                    "skipping sscm get.", destination.getRemote(), loc, currentDate));
+            return 0;
+        }
+
+        if (!DESCRIPTOR.isSingleFlightGets() || labelled)
+            return runGet(build, launcher, workspace, listener, env, target, currentDate);
+
+        // Followers copy the whole destination of the leader, so only a directory that holds nothing but this
+        // location once retrieved may lead.
+        boolean canLead = (target.getSubdirectory() != null || getCheckoutLocations().size() == 1)
+                && (!destination.exists() || destination.list().isEmpty());
+        SscmSingleFlight flight = SscmSingleFlight.of(SSCMUtils.workspaceToNode(workspace).getNodeName(), loc.getKey(),
+                currentDate, destination, canLead);
+        if (flight == null)
+            return runGet(build, launcher, workspace, listener, env, target, currentDate);
+        if (!flight.leads(destination)) {
+            listener.getLogger().println("Another build on this node is retrieving " + loc + " as of the same time, " +
+                    "copying its files.");
+            boolean copied = flight.copyTo(destination);
+            SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_SINGLE_FLIGHT, copied);
+            if (copied)
+                return 0;
+            listener.getLogger().println(String.format("The other retrieval failed or did not finish within %d " +
+                    "minutes, running sscm get.", SscmSingleFlight.getWaitMinutes()));
+            return runGet(build, launcher, workspace, listener, env, target, currentDate);
+        }
+
+        int cmdResult = -1;
+        try {
+            cmdResult = runGet(build, launcher, workspace, listener, env, target, currentDate);
+        } finally {
+            flight.land(cmdResult == 0);
+        }
+        return cmdResult;
+    }
+
+    /**
+     * Runs 'sscm get' for a single location, retrying with exponential backoff when it fails.
+     * <p>
+     * Every attempt uses the same '-s' timestamp. Surround SCM skips files the working directory already has
+     * current copies of, so a retry only transfers what the failed attempt did not get to. The outcome is recorded in
+     * a {@link SurroundWorkspaceManifest} in the destination directory.
+     *
+     * @return Returns the exit code of the last 'sscm get' command
+     */
+    private int runGet(@Nonnull Run<?, ?> build, Launcher launcher, FilePath workspace, TaskListener listener,
+                       EnvVars env, SurroundLocation target, Date currentDate) throws IOException, InterruptedException {
+        SscmLocation loc = target.getLocation();
+        FilePath destination = target.getSubdirectory() != null ? workspace.child(target.getSubdirectory()) : workspace;
+        Node node = SSCMUtils.workspaceToNode(workspace);
+        SscmMetrics.Context metrics = new SscmMetrics.Context(loc.getServer(), node, build);
+        String manifestKey = getManifestKey(loc, env);
+        SurroundWorkspaceManifest previous = SurroundWorkspaceManifest.read(destination);
+        if (previous != null && !previous.isComplete() && previous.getKey().equals(manifestKey)) {
+            listener.getLogger().println("A previous retrieval of " + loc + " stopped after " + previous.getFiles()
+                    + " files, files it already retrieved will be skipped.");
+        }
+
+        // Only directories holding nothing but this location are cached, the workspace root is left out when other
+        // locations are retrieved into it at the same time. The caches are keyed by timestamp, labels bypass them.
+        boolean fresh = (DESCRIPTOR.getSnapshotCachePath() != null || DESCRIPTOR.isFileStore()) && previous == null
+                && manifestKey.equals(loc.getKey())
+                && (target.getSubdirectory() != null || getCheckoutLocations().size() == 1)
+                && (!destination.exists() || destination.list().isEmpty());
+        if (fresh && !SurroundSnapshotCache.restore(destination, loc, currentDate, listener) && DESCRIPTOR.isFileStore())
+            SurroundFileStore.seed(node, destination, loc, listener);
+        new SurroundWorkspaceManifest(manifestKey, currentDate, false, 0).write(destination);
+
+        // Unless asked for the full output, per file lines go to a compressed file in the build directory and the
+        // build log only gets errors and progress summaries.
+        OutputStream detail = null;
+        if (!DESCRIPTOR.isVerboseCheckoutLog()) {
+            File detailFile = SscmGetLogAction.newLogFile(build, loc);
+            listener.getLogger().println("Full sscm get output of " + loc + " is kept in " + detailFile.getName());
+            detail = new GZIPOutputStream(new FileOutputStream(detailFile));
+        }
+
+        ArgumentListBuilder cmd = getCommand(destination, listener, env, loc, currentDate, metrics);
+        FilePath keyFile = null;
+        int retries = DESCRIPTOR.getCheckoutRetries();
+        long files = 0;
+        int cmdResult;
+        try {
+            keyFile = addConnectionArguments(cmd, build.getParent(), env, WorkspaceList.tempDir(workspace), loc, metrics);
+            Launcher.ProcStarter starter = launcher.launch().envs(env).cmds(cmd);
+            for (int attempt = 0; ; attempt++) {
+                SscmGetOutputParser parser = new SscmGetOutputParser(listener.getLogger(), detail, "sscm get " + loc,
+                        build.getCharset());
+                try {
+                    cmdResult = SscmProcessMonitor.run(SscmOperation.CHECKOUT, metrics, starter, parser, listener);
+                } finally {
+                    parser.close();
+                }
+                files += parser.getFiles();
+                if (detail != null)
+                    parser.printSummary();
+                if (cmdResult == 0 || attempt >= retries)
+                    break;
+
+                long delay = CHECKOUT_RETRY_DELAY_MS << attempt;
+                listener.getLogger().println(String.format("sscm get of %s failed with exit code %d after %d files. " +
+                                "Retrying in %d seconds as of the same timestamp (attempt %d of %d).",
+                        loc, cmdResult, files, delay / 1000, attempt + 2, retries + 1));
+                Thread.sleep(delay);
+            }
+        } finally {
+            deleteKeyFile(keyFile);
+            if (detail != null)
+                detail.close();
+        }
+
+        new SurroundWorkspaceManifest(manifestKey, currentDate, cmdResult == 0, files).write(destination);
+        if (fresh && cmdResult == 0) {
+            SurroundSnapshotCache.save(destination, loc, currentDate, listener);
+            if (DESCRIPTOR.isFileStore())
+                SurroundFileStore.ingest(node, destination, loc, listener);
+        }
+        return cmdResult;
+    }
+
+    /**
+     * Builds the 'sscm get' command retrieving a location into a directory as of a timestamp, or the {@link #label}
+     * if one is set. The connection arguments are left to {@link #addConnectionArguments}.
+     */
+    private ArgumentListBuilder getCommand(FilePath destination, TaskListener listener, EnvVars env, SscmLocation loc,
+                                           Date currentDate, SscmMetrics.Context metrics) throws IOException, InterruptedException {
+        // SimpleDateFormat is not thread safe, so each retrieval gets its own.
+        SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR_2);
+
+        ArgumentListBuilder cmd = new ArgumentListBuilder();
+        cmd.add(getSscmExe(destination, listener, env, metrics));//will default to sscm user can put in path
+        cmd.add("get");
+        cmd.add("/");
+        cmd.add("-wreplace");
+        cmd.add("-b".concat(loc.getBranch()));
+        cmd.add("-p".concat(loc.getRepository()));
+        cmd.add("-d".concat(destination.getRemote()));
+        cmd.add("-r");
+        String pinnedLabel = getLabel(env);
+        if (pinnedLabel != null)
+            cmd.add("-l" + pinnedLabel);
+        else
+            cmd.add("-s" + scm_datetime_formatter.format(currentDate));
+        if (!bIncludeOutput) {
+            cmd.add("-q");
+        }
+        return cmd;
+    }
+
+    /**
+     * Brings a workspace a previous build checked out up to date without a build, so the checkout of the next build
+     * only has to retrieve what changed since. Called by {@link SurroundPrefetch}, the caller makes sure no build is
+     * using the workspace.
+     *
+     * @return Returns true if every location was retrieved successfully
+     */
+    boolean prefetch(Job<?, ?> owner, Node node, FilePath workspace, TaskListener listener) throws IOException, InterruptedException {
+        Launcher launcher = node.createLauncher(listener);
+        Computer computer = node.toComputer();
+        Charset charset = computer != null && computer.getDefaultCharset() != null ? computer.getDefaultCharset() : Charset.defaultCharset();
+        EnvVars env = owner.getEnvironment(node, listener);
+        Date currentDate = new Date();
+        boolean result = true;
+        for (SurroundLocation target : getCheckoutLocations()) {
+            SscmLocation loc = target.getLocation();
+            FilePath destination = target.getSubdirectory() != null ? workspace.child(target.getSubdirectory()) : workspace;
+            SscmMetrics.Context metrics = new SscmMetrics.Context(loc.getServer(), node, null, owner);
+            ArgumentListBuilder cmd = getCommand(destination, listener, env, loc, currentDate, metrics);
+
+            new SurroundWorkspaceManifest(loc.getKey(), currentDate, false, 0).write(destination);
+            SscmGetOutputParser parser = new SscmGetOutputParser(listener.getLogger(), null, "sscm get " + loc, charset);
+            FilePath keyFile = null;
+            int cmdResult;
+            try {
+                keyFile = addConnectionArguments(cmd, owner, env, WorkspaceList.tempDir(workspace), loc, metrics);
+                cmdResult = SscmProcessMonitor.run(SscmOperation.CHECKOUT, metrics, launcher.launch().envs(env).cmds(cmd), parser, listener);
+            } finally {
+                deleteKeyFile(keyFile);
+                parser.close();
+            }
+            new SurroundWorkspaceManifest(loc.getKey(), currentDate, cmdResult == 0, parser.getFiles()).write(destination);
+            if (cmdResult != 0) {
+                listener.error("Prefetching " + loc + " failed with exit code " + cmdResult);
+                result = false;
+            }
+        }
+        return result;
+    }
+
     /**
      * Runs the Surround SCM CLI's "CruiseControl" command to determine files that have changed since the
      * last build.
      *
-     * @param build         The current build we are capturing a change log for
-     * @param launcher      Launcher to use for running commands
-     * @param workspace     Workspace to save the changelog too
-     * @param listener      Listener used for logging
-     * @param lastBuildDate The last build's date time
-     * @param currentDate   The current build's date time
-     * @param changelogFile File to save the changelog too
-     * @param env           Environment variables to use
+     * @param build          The current build we are capturing a change log for
+     * @param launcher       Launcher to use for running commands
+     * @param workspace      Workspace to save the changelog too
+     * @param listener       Listener used for logging
+     * @param targets        Locations to capture changes for
+     * @param lastBuildDates The last build's date time for each location, keyed by {@link SscmLocation#getKey()}
+     * @param currentDate    The current build's date time
+     * @param changelogFile  File to save the changelog too
+     * @param env            Environment variables to use
      * @return Returns 'True' if we successfully captured the changelog
      * @throws IOException          Access to the files can cause an IOException
      * @throws InterruptedException Launcher can throw this when running the process
      */
     private boolean captureChangeLog(@Nonnull Run<?, ?> build, Launcher launcher, FilePath workspace,
-                                     TaskListener listener, Date lastBuildDate, Date currentDate, File changelogFile,
-                                     EnvVars env) throws IOException, InterruptedException {
+                                     TaskListener listener, List<SurroundLocation> targets, Map<String, Date> lastBuildDates,
+                                     Date currentDate, File changelogFile, EnvVars env) throws IOException, InterruptedException {
 
         boolean result = true;
 
         SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR);
 
-        String dateRange = scm_datetime_formatter.format(lastBuildDate);
-        dateRange = dateRange.concat(":");
-        dateRange = dateRange.concat(scm_datetime_formatter.format(currentDate));
-
-        ArgumentListBuilder cmd = new ArgumentListBuilder();
-        cmd.add(getSscmExe(workspace, listener, env));//will default to sscm user can put in path
-        cmd.add("cc");
-        cmd.add("/");
-        cmd.add("-d".concat(dateRange));
-        cmd.add("-b".concat(branch));
-        cmd.add("-p".concat(repository));
-        cmd.add("-r");
-
-        cmd.add(getServerConnectionArgument(build.getParent(), env, workspace));
-        cmd.addMasked(getUserPasswordArgument(build.getParent(), env));
-
-        FileOutputStream os = new FileOutputStream(changelogFile);
+        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(changelogFile));
         try {
-            BufferedOutputStream bos = new BufferedOutputStream(os);
-            Writer w = new OutputStreamWriter(new FileOutputStream(changelogFile), "UTF-8");
-            PrintWriter writer = new PrintWriter(w);
-            try {
-
-
-                int cmdResult = launcher.launch().cmds(cmd).envs(env).stdout(bos).join();
+            // Every location appends to the same changelog, the parser does not care which location a line came from.
+            for (SurroundLocation target : targets) {
+                SscmLocation loc = target.getLocation();
+                SscmMetrics.Context metrics = new SscmMetrics.Context(loc.getServer(), SSCMUtils.workspaceToNode(workspace), build);
+
+                Date lastBuildDate = lastBuildDates.get(loc.getKey());
+                if (!lastBuildDate.before(currentDate)) {
+                    // A checkout pinned before the previous build, there is no forward range to list changes in.
+                    listener.getLogger().println("Retrieved " + loc + " as of " + scm_datetime_formatter.format(currentDate)
+                            + ", not after the previous build, recording no changes.");
+                    continue;
+                }
+                String dateRange = scm_datetime_formatter.format(lastBuildDate);
+                dateRange = dateRange.concat(":");
+                dateRange = dateRange.concat(scm_datetime_formatter.format(currentDate));
+
+                ArgumentListBuilder cmd = new ArgumentListBuilder();
+                cmd.add(getSscmExe(workspace, listener, env, metrics));//will default to sscm user can put in path
+                cmd.add("cc");
+                cmd.add("/");
+                cmd.add("-d".concat(dateRange));
+                cmd.add("-b".concat(loc.getBranch()));
+                cmd.add("-p".concat(loc.getRepository()));
+                cmd.add("-r");
+
+                FilePath keyFile = addConnectionArguments(cmd, build.getParent(), env, WorkspaceList.tempDir(workspace),
+                        loc, metrics);
+                int cmdResult;
+                try {
+                    cmdResult = SscmProcessMonitor.run(SscmOperation.CHANGELOG, metrics,
+                            launcher.launch().cmds(cmd).envs(env), bos, listener);
+                } finally {
+                    deleteKeyFile(keyFile);
+                }
                 if (cmdResult != 0) {
-                    listener.fatalError("Changelog failed with exit code " + cmdResult);
+                    listener.fatalError("Changelog for " + loc + " failed with exit code " + cmdResult);
                     result = false;
                 }
-
-
-            } finally {
-                writer.close();
-                bos.close();
             }
         } finally {
-            os.close();
+            bos.close();
         }
 
         listener.getLogger().println("Changelog calculated successfully.");
@@ -553,6 +1198,7 @@ public final class SurroundSCM extends SCM {
      * @param project       Project we are using as part of this action
      * @param launcher      Launcher to run the process
      * @param listener      Listener to log the information
+     * @param loc           Location to count changes in
      * @param lastBuildDate Previous build date to use as the 'start' for the cruisecontrol command
      * @param currentDate   Current date to use as the 'end' for the cruisecontrol command
      * @param changelogFile File to log the changes
@@ -561,50 +1207,76 @@ public final class SurroundSCM extends SCM {
      * @throws IOException          Throws this if it fails to access the changelogFile
      * @throws InterruptedException Throws this if the launcher fails to run successfully.
      */
-    private double determineChangeCount(Job<?, ?> project, Launcher launcher, TaskListener listener, Date lastBuildDate,
-                                        Date currentDate, File changelogFile, FilePath workspace) throws IOException, InterruptedException {
+    private double determineChangeCount(Job<?, ?> project, Launcher launcher, TaskListener listener, SscmLocation loc,
+                                        Date lastBuildDate, Date currentDate, File changelogFile, FilePath workspace) throws IOException, InterruptedException {
         SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR);
 
         double changesCount = 0;
-        if (server != null)
-            listener.getLogger().println("in determine Change Count server: " + server);
+        if (loc.getServer() != null)
+            listener.getLogger().println("in determine Change Count server: " + loc.getServer());
 
         String dateRange = scm_datetime_formatter.format(lastBuildDate);
         dateRange = dateRange.concat(":");
         dateRange = dateRange.concat(scm_datetime_formatter.format(currentDate));
 
-        EnvVars env = project.getEnvironment(SSCMUtils.workspaceToNode(workspace), listener);
+        Node node = SSCMUtils.workspaceToNode(workspace);
+        EnvVars env = project.getEnvironment(node, listener);
+        SscmMetrics.Context metrics = new SscmMetrics.Context(loc.getServer(), node, null, project);
 
         ArgumentListBuilder cmd = new ArgumentListBuilder();
-        cmd.add(getSscmExe(workspace, listener, null));
+        cmd.add(getSscmExe(workspace, listener, null, metrics));
         cmd.add("cc");
         cmd.add("/");
         cmd.add("-d".concat(dateRange));
-        cmd.add("-b".concat(branch));
-        cmd.add("-p".concat(repository));
+        cmd.add("-b".concat(loc.getBranch()));
+        cmd.add("-p".concat(loc.getRepository()));
         cmd.add("-r");
-        cmd.add(getServerConnectionArgument(project, env, workspace));
-        cmd.addMasked(getUserPasswordArgument(project, env));
-
-        listener.getLogger().println("determineChangeCount executing the command: " + cmd.toString() + " with date range: [ " + dateRange + " ]");
+        // Asked before the credentials are written to the node, a skipped poll must not leave a key file behind.
+        SscmCircuitBreaker breaker = SscmCircuitBreaker.of(loc);
+        if (!breaker.allowRequest()) {
+            listener.getLogger().println(String.format("Surround SCM server %s failed the last %d polls, " +
+                    "not polling it until %tT.", loc.getServerUrl(), breaker.getFailures(), new Date(breaker.getRetryAt())));
+            return changesCount;
+        }
 
-        // TODO: This seems like a stupid hack.  Why are we dumping command output to a text file? Can we guarantee
-        //       that the 'changelogFile' (a temp file on some machine) is at an accessible path wherever this is run?
-        //       why don't we just read the command output straight into memory & immediately process it?
-        FileOutputStream os = new FileOutputStream(changelogFile);
+        FilePath keyFile = null;
+        int cmdResult;
         try {
-            BufferedOutputStream bos = new BufferedOutputStream(os);
-
+            // TODO: This seems like a stupid hack.  Why are we dumping command output to a text file? Can we guarantee
+            //       that the 'changelogFile' (a temp file on some machine) is at an accessible path wherever this is run?
+            //       why don't we just read the command output straight into memory & immediately process it?
+            boolean reachable = false;
             try {
-                int cmdResult = launcher.launch().cmds(cmd).stdout(bos).join();
-                if (cmdResult != 0) {
-                    listener.fatalError("Determine changes count failed with exit code " + cmdResult);
+                keyFile = addConnectionArguments(cmd, project, env, WorkspaceList.tempDir(workspace), loc, metrics);
+                listener.getLogger().println("determineChangeCount executing the command: " + cmd.toString() + " with date range: [ " + dateRange + " ]");
+
+                FileOutputStream os = new FileOutputStream(changelogFile);
+                try {
+                    BufferedOutputStream bos = new BufferedOutputStream(os);
+                    try {
+                        cmdResult = SscmProcessMonitor.run(SscmOperation.POLLING, metrics, launcher.launch().cmds(cmd), bos, listener);
+                    } finally {
+                        bos.close();
+                    }
+                } finally {
+                    os.close();
                 }
+                // Errors about this job's branch, repository or credentials still show the server answered.
+                reachable = cmdResult == 0 || !SscmCircuitBreaker.isConnectionFailure(readHead(changelogFile));
             } finally {
-                bos.close();
+                // Timeouts, failures to start, missing credentials and aborted probes count as failures too: a probe
+                // the breaker let through must report its outcome.
+                if (reachable)
+                    breaker.recordSuccess();
+                else
+                    breaker.recordFailure();
             }
         } finally {
-            os.close();
+            deleteKeyFile(keyFile);
+        }
+        if (cmdResult != 0) {
+            listener.fatalError("Determine changes count failed with exit code " + cmdResult);
+            return changesCount;
         }
 
         BufferedReader br = null;
@@ -615,13 +1287,14 @@ public final class SurroundSCM extends SCM {
             line = br.readLine();
             if (line != null) {
                 listener.getLogger().println(line);
-                String num = line.substring(6);
                 try {
-                    changesCount = Double.valueOf(num.trim());
+                    changesCount = parseChangeCount(line);
                 } catch (NumberFormatException nfe) {
                     listener.fatalError("NumberFormatException: " + nfe.getMessage());
                 }
             }
+            if (changesCount > 0 && (excludedUsers != null || excludedComments != null))
+                changesCount = countIncludedChanges(br, changesCount, listener);
 
         } catch (FileNotFoundException e) {
             e.printStackTrace();
@@ -634,6 +1307,76 @@ public final class SurroundSCM extends SCM {
         return changesCount;
     }
 
+    /**
+     * @return Returns the start of a file holding command output, enough to hold any error message.
+     */
+    private static String readHead(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = is.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+            return new String(buffer, 0, length, "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Parses the change count from the first line of 'sscm cc' output.
+     *
+     * @param line First line of the 'sscm cc' output
+     * @return Returns the number of changes reported
+     * @throws NumberFormatException Thrown if the line does not hold a count
+     */
+    static double parseChangeCount(String line) throws NumberFormatException {
+        if (line.length() < 6)
+            throw new NumberFormatException("Unexpected change count line: " + line);
+        return Double.valueOf(line.substring(6).trim());
+    }
+
+    /**
+     * Counts the changes listed by 'sscm cc' that are not excluded by {@link #excludedUsers} or
+     * {@link #excludedComments}.
+     *
+     * Lines that do not parse as a change, ex. part of a multi-line comment, cannot be excluded and are counted, as
+     * is the reported count when no change is listed at all: when in doubt polling reports changes.
+     *
+     * @param br       Reader positioned after the count line of the 'sscm cc' output
+     * @param reported Count from the count line
+     */
+    private double countIncludedChanges(BufferedReader br, double reported, TaskListener listener) throws IOException {
+        SurroundChangeFilter filter;
+        try {
+            filter = new SurroundChangeFilter(excludedUsers, excludedComments);
+        } catch (PatternSyntaxException e) {
+            listener.error("Invalid excluded comment pattern, not excluding any changes: " + e.getMessage());
+            filter = new SurroundChangeFilter(null, null);
+        }
+
+        double included = 0;
+        int excluded = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            String[] fields = SurroundSCMChangeLogParser.parseFields(line);
+            if (fields != null && filter.isExcluded(fields)) {
+                excluded++;
+            } else {
+                included++;
+            }
+        }
+        if (included + excluded == 0)
+            return reported;
+        if (excluded > 0)
+            listener.getLogger().println("Ignoring " + excluded + " changes by excluded users or with excluded comments.");
+        return included;
+    }
+
     /**
      * Attempt to find a pre-configured 'SurroundTool' with a saved 'sscm_tool_name'
      * Currently this will always fall back to the 'default' tool for the current node and requires some further
@@ -661,17 +1404,27 @@ public final class SurroundSCM extends SCM {
         return sscm;
     }
 
-    private String getSscmExe(FilePath workspace, TaskListener listener, EnvVars env) throws IOException, InterruptedException {
+    private String getSscmExe(FilePath workspace, TaskListener listener, EnvVars env,
+                              SscmMetrics.Context metrics) throws IOException, InterruptedException {
         if (workspace != null) {
             workspace.mkdirs(); // ensure it exists.
         }
-        return getSscmExe(SSCMUtils.workspaceToNode(workspace), env, listener);
+        return getSscmExe(SSCMUtils.workspaceToNode(workspace), env, listener, metrics);
     }
 
     /**
      * @return Returns the path to he Surround SCM executable to use.
      */
-    private String getSscmExe(Node builtOn, EnvVars env, TaskListener listener) {
+    String getSscmExe(Node builtOn, EnvVars env, TaskListener listener, SscmMetrics.Context metrics) {
+        SscmMetrics.Sample sample = metrics.start(SscmMetrics.TOOL);
+        try {
+            return resolveSscmExe(builtOn, env, listener);
+        } finally {
+            sample.stop();
+        }
+    }
+
+    private String resolveSscmExe(Node builtOn, EnvVars env, TaskListener listener) {
         SurroundTool tool = resolveSscmTool(listener);
         if (builtOn != null) {
             try {
@@ -689,6 +1442,92 @@ public final class SurroundSCM extends SCM {
         return tool.getSscmExe();
     }
 
+    /**
+     * Runs a Surround SCM CLI command on the controller rather than on a build node. Used where there is no
+     * workspace, such as lightweight file access and branch discovery.
+     *
+     * @param op       What kind of command this is
+     * @param owner    Used to lookup credentials
+     * @param loc      Location to connect to
+     * @param args     Command and arguments, without the sscm executable or connection arguments
+     * @param out      Receives the command output
+     * @param listener Listener used for logging
+     * @return Returns the exit code of the command
+     * @throws IOException          Thrown if no username // password could be found or the command could not be run
+     * @throws InterruptedException Thrown if interrupted while waiting on the command
+     */
+    int launchOnController(SscmOperation op, Item owner, SscmLocation loc, List<String> args, OutputStream out,
+                           TaskListener listener) throws IOException, InterruptedException {
+        Jenkins jenkins = Jenkins.getInstance();
+        EnvVars env = owner instanceof Job ? ((Job<?, ?>) owner).getEnvironment(jenkins, listener) : new EnvVars();
+        SscmMetrics.Context metrics = new SscmMetrics.Context(loc.getServer(), null, null, owner);
+
+        // Any RSA key file pulled from the credentials store only lives as long as the command.
+        FilePath keyDir = new FilePath(Util.createTempDir());
+        try {
+            ArgumentListBuilder cmd = new ArgumentListBuilder();
+            cmd.add(getSscmExe(jenkins, env, listener, metrics));
+            cmd.add(args);
+            addConnectionArguments(cmd, owner, env, keyDir, loc, metrics);
+
+            return SscmProcessMonitor.run(op, metrics, new Launcher.LocalLauncher(listener).launch().cmds(cmd).envs(env),
+                    out, listener);
+        } finally {
+            keyDir.deleteRecursive();
+        }
+    }
+
+    /**
+     * Adds the server connection ("-z...") and masked username // password ("-y...") arguments for a location.
+     *
+     * @param cmd     Command to add the arguments to
+     * @param owner   Used to lookup credentials
+     * @param env     Used to lookup credentials
+     * @param keyDir  Directory to store any key retrieved from fileCredentials in, never inside a checkout
+     *                (ex. {@link WorkspaceList#tempDir(FilePath)} of the workspace)
+     * @param loc     Location to connect to
+     * @param metrics Tags the time spent looking up credentials is recorded with
+     * @return Returns the key file written for the command, to be removed with {@link #deleteKeyFile(FilePath)} once
+     *         the command is done, or null if none was written.
+     * @throws IOException Thrown if no username // password could be found
+     */
+    @CheckForNull
+    FilePath addConnectionArguments(ArgumentListBuilder cmd, Item owner, EnvVars env, FilePath keyDir,
+                                    SscmLocation loc, SscmMetrics.Context metrics) throws IOException {
+        SscmMetrics.Sample sample = metrics.start(SscmMetrics.CREDENTIALS);
+        boolean found = false;
+        FilePath keyFile = null;
+        try {
+            String rsaKeyPath = getRemotePathForRSAKeyFile(owner, env, keyDir, loc);
+            if (rsaKeyPath != null && rsaKey != null && rsaKey.getRsaKeyType() == RSAKey.Type.ID)
+                keyFile = new FilePath(keyDir.getChannel(), rsaKeyPath);
+            cmd.add(getServerConnectionArgument(rsaKeyPath, loc));
+            cmd.addMasked(getUserPasswordArgument(owner, env, loc));
+            found = true;
+            return keyFile;
+        } finally {
+            sample.stop(0, 0, !found);
+            if (!found)
+                deleteKeyFile(keyFile);
+        }
+    }
+
+    /**
+     * Deletes a key file written by {@link #addConnectionArguments}, logging rather than failing if it cannot be.
+     */
+    private static void deleteKeyFile(@CheckForNull FilePath keyFile) {
+        if (keyFile == null)
+            return;
+        try {
+            keyFile.delete();
+        } catch (IOException e) {
+            Logger.getLogger(SurroundSCM.class.toString()).log(Level.WARNING, "Failed to delete the RSA key file " + keyFile, e);
+        } catch (InterruptedException e) {
+            Logger.getLogger(SurroundSCM.class.toString()).log(Level.WARNING, "Interrupted while deleting the RSA key file " + keyFile, e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Creates the Username // Password argument taking into account that this might be an 'upgraded' plugin
      * that has not yet been modified to use hte more  secure UsernamePasswordCredentials.
@@ -698,13 +1537,14 @@ public final class SurroundSCM extends SCM {
      *
      * @param owner Used to lookup user credentials
      * @param env   Used to lookup user credentials
+     * @param loc   Location the credentials are needed for
      * @return Returns the fleshed out username // password "-yUsername:Password" parameter.
      */
     @SuppressWarnings("deprecation")
     // This still references the userName and password fields in cases where users have not updated their configurations.
-    private String getUserPasswordArgument(Job<?, ?> owner, EnvVars env) throws IOException {
+    private String getUserPasswordArgument(Item owner, EnvVars env, SscmLocation loc) throws IOException {
         String result;
-        StandardUsernameCredentials credentials = getCredentials(owner, env);
+        StandardUsernameCredentials credentials = getCredentials(owner, env, loc);
         if (credentials != null && credentials instanceof UsernamePasswordCredentials) {
             UsernamePasswordCredentials upc = (UsernamePasswordCredentials) credentials;
 
@@ -723,52 +1563,52 @@ public final class SurroundSCM extends SCM {
     }
 
     /**
-     * Creates the "Server Connection Information" argument used for Surround SCM CLI commands.  Automatically
-     * determines if it should pass in a path to an RSA Key File or use the Server // Port setting.
+     * Creates the "Server Connection Information" argument used for Surround SCM CLI commands.  Uses the RSA Key File
+     * if there is one, the Server // Port setting otherwise.
      *
-     * @param owner     Used to lookup fileCredentials
-     * @param env       Used to lookup fileCredentials
-     * @param workspace Used to store any potential key retrieved from fileCredentials
+     * @param rsaKeyPath Path to the RSA Key File, see {@link #getRemotePathForRSAKeyFile}, or null
+     * @param loc        Location to connect to
      * @return Fleshed out "-z..." parameter with either server:port or rsaKeyPath.
      */
-    private String getServerConnectionArgument(Job<?, ?> owner, EnvVars env, FilePath workspace) {
+    private String getServerConnectionArgument(@CheckForNull String rsaKeyPath, SscmLocation loc) {
         String result;
-        String rsaKeyPath = getRemotePathForRSAKeyFile(owner, env, workspace);
         if (rsaKeyPath != null && !rsaKeyPath.isEmpty()) {
             result = String.format("-z%s", rsaKeyPath);
         } else {
-            result = String.format("-z%s:%s", getServer(), getServerPort());
+            result = String.format("-z%s:%s", loc.getServer(), loc.getPort());
         }
 
         return result;
     }
 
     @CheckForNull
-    private StandardUsernameCredentials getCredentials(Job<?, ?> owner, EnvVars env) {
-        return SSCMUtils.getCredentials(owner, env, server, serverPort, credentialsId);
+    private StandardUsernameCredentials getCredentials(Item owner, EnvVars env, SscmLocation loc) {
+        return SSCMUtils.getCredentials(owner, env, loc, credentialsId);
     }
 
     @CheckForNull
-    private FileCredentials getFileCredentials(Job<?, ?> owner, EnvVars env) {
-        return SSCMUtils.getFileCredentials(owner, env, server, serverPort, rsaKey);
+    private FileCredentials getFileCredentials(Item owner, EnvVars env, SscmLocation loc) {
+        return SSCMUtils.getFileCredentials(owner, env, loc, rsaKey);
     }
 
     /**
      * Checks to see if there is an existing stored 'fileCredential' for the rsaKeyFileId. If there is, it will write out
-     * that file to the remote computer's workspace and return a path to it on the remote computer.
+     * that file to the key directory on the remote computer and return a path to it on the remote computer.
      *
-     * @param owner     Used to lookup the fileCredential
-     * @param env       Used to expand the possible sscm:// url with build variables.
-     * @param workspace Used as the destination for the temp file to be created to be used for the build.
+     * @param owner  Used to lookup the fileCredential
+     * @param env    Used to expand the possible sscm:// url with build variables.
+     * @param keyDir Used as the destination for the temp file to be created to be used for the command.
+     * @param loc    Location the key file is needed for
      * @return If there an RSAKeyFile was retrieved from the fileCredentials, this returns the path to the file. Otherwise
      * it returns null.
      */
-    private String populateRSAKeyFile(Job<?, ?> owner, EnvVars env, @Nullable FilePath workspace) {
+    private String populateRSAKeyFile(Item owner, EnvVars env, @Nullable FilePath keyDir, SscmLocation loc) {
         String result = null;
-        FileCredentials fc = getFileCredentials(owner, env);
-        if (fc != null && workspace != null) {
+        FileCredentials fc = getFileCredentials(owner, env, loc);
+        if (fc != null && keyDir != null) {
             try {
-                FilePath rsaFilePath = workspace.createTempFile("RSAKeyFile", ".xml");
+                keyDir.mkdirs();
+                FilePath rsaFilePath = keyDir.createTempFile(RSA_KEY_FILE_PREFIX, RSA_KEY_FILE_SUFFIX);
                 rsaFilePath.copyFrom(fc.getContent());
                 result = rsaFilePath.getRemote();
             } catch (IOException e) {
@@ -789,17 +1629,18 @@ public final class SurroundSCM extends SCM {
      * of these items it will return the path to the RSA Key file on the remote machine (or as defined via rsaKeyPath)
      * If no RSA Key file is found, it returns null
      *
-     * @param owner     Used to lookup possible fileCredentials
-     * @param env       Used as part of the lookup for fileCredentials
-     * @param workspace Used as a destination for any RSA Key File retrieved from fileCredentials
+     * @param owner  Used to lookup possible fileCredentials
+     * @param env    Used as part of the lookup for fileCredentials
+     * @param keyDir Used as a destination for any RSA Key File retrieved from fileCredentials
+     * @param loc    Location the key file is needed for
      * @return Returns either the path to an RSA Key File, or null indicating no RSA Key File.
      */
-    private String getRemotePathForRSAKeyFile(Job<?, ?> owner, EnvVars env, FilePath workspace) {
+    private String getRemotePathForRSAKeyFile(Item owner, EnvVars env, FilePath keyDir, SscmLocation loc) {
         String result = null;
         if (rsaKey != null) {
             switch (rsaKey.getRsaKeyType()) {
                 case ID:
-                    result = populateRSAKeyFile(owner, env, workspace);
+                    result = populateRSAKeyFile(owner, env, keyDir, loc);
                     break;
                 case Path:
                     result = rsaKey.getRsaKeyValue();
@@ -817,6 +1658,72 @@ public final class SurroundSCM extends SCM {
     @SuppressWarnings("WeakerAccess")
     public static class SurroundSCMDescriptor extends SCMDescriptor<SurroundSCM> {
 
+        // Timeouts in minutes for each kind of sscm command, 0 disables the timeout. See SscmOperation.
+        private int checkoutTimeoutMinutes = SscmOperation.CHECKOUT.getDefaultTimeoutMinutes();
+        private int checkoutStallMinutes = SscmOperation.CHECKOUT.getDefaultStallMinutes();
+        private int changelogTimeoutMinutes = SscmOperation.CHANGELOG.getDefaultTimeoutMinutes();
+        private int changelogStallMinutes = SscmOperation.CHANGELOG.getDefaultStallMinutes();
+        private int pollingTimeoutMinutes = SscmOperation.POLLING.getDefaultTimeoutMinutes();
+        private int pollingStallMinutes = SscmOperation.POLLING.getDefaultStallMinutes();
+        private int browseTimeoutMinutes = SscmOperation.BROWSE.getDefaultTimeoutMinutes();
+        private int browseStallMinutes = SscmOperation.BROWSE.getDefaultStallMinutes();
+
+        /**
+         * How many times a command that timed out or stalled is retried.
+         */
+        private int commandRetries = 2;
+
+        /**
+         * How many times an 'sscm get' that exited with an error is retried.
+         */
+        private int checkoutRetries = 3;
+
+        /**
+         * Send every line of 'sscm get' output to the build log instead of progress summaries.
+         */
+        private boolean verboseCheckoutLog;
+
+        /**
+         * Consecutive failed polls of a server after which it is no longer polled for a while, 0 to always poll.
+         */
+        private int breakerFailures = 5;
+
+        /**
+         * Longest time a failing server is left alone between probes.
+         */
+        private int breakerMaxBackoffMinutes = 30;
+
+        /**
+         * Let concurrent retrievals of a location as of the same timestamp on one node share one 'sscm get'.
+         */
+        private boolean singleFlightGets;
+
+        /**
+         * Checkouts retrieve as of the start of the window of this many seconds they start in, so checkouts starting
+         * close together can share one 'sscm get'. 0 uses the current second.
+         */
+        private int coalesceSeconds;
+
+        /**
+         * Directory shared by the agents holding snapshots of retrieved locations, null to disable the cache.
+         */
+        private String snapshotCachePath;
+
+        /**
+         * Size the snapshot cache is kept under by evicting the least recently used snapshots.
+         */
+        private int snapshotCacheMaxMegabytes = 10240;
+
+        /**
+         * Keep retrieved files in a content addressed store on each node, see {@link SurroundFileStore}.
+         */
+        private boolean fileStore;
+
+        /**
+         * Hard link files of the store into workspaces instead of copying them.
+         */
+        private boolean fileStoreHardLinks;
+
         /**
          * Constructs a new SurroundSCMDescriptor.
          */
@@ -825,6 +1732,151 @@ public final class SurroundSCM extends SCM {
             load();
         }
 
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            checkoutTimeoutMinutes = json.optInt("checkoutTimeoutMinutes", checkoutTimeoutMinutes);
+            checkoutStallMinutes = json.optInt("checkoutStallMinutes", checkoutStallMinutes);
+            changelogTimeoutMinutes = json.optInt("changelogTimeoutMinutes", changelogTimeoutMinutes);
+            changelogStallMinutes = json.optInt("changelogStallMinutes", changelogStallMinutes);
+            pollingTimeoutMinutes = json.optInt("pollingTimeoutMinutes", pollingTimeoutMinutes);
+            pollingStallMinutes = json.optInt("pollingStallMinutes", pollingStallMinutes);
+            browseTimeoutMinutes = json.optInt("browseTimeoutMinutes", browseTimeoutMinutes);
+            browseStallMinutes = json.optInt("browseStallMinutes", browseStallMinutes);
+            commandRetries = Math.max(0, json.optInt("commandRetries", commandRetries));
+            checkoutRetries = Math.max(0, json.optInt("checkoutRetries", checkoutRetries));
+            verboseCheckoutLog = json.optBoolean("verboseCheckoutLog", false);
+            breakerFailures = Math.max(0, json.optInt("breakerFailures", breakerFailures));
+            breakerMaxBackoffMinutes = Math.max(1, json.optInt("breakerMaxBackoffMinutes", breakerMaxBackoffMinutes));
+            singleFlightGets = json.optBoolean("singleFlightGets", false);
+            coalesceSeconds = Math.max(0, json.optInt("coalesceSeconds", coalesceSeconds));
+            snapshotCachePath = Util.fixEmptyAndTrim(json.optString("snapshotCachePath"));
+            snapshotCacheMaxMegabytes = Math.max(1, json.optInt("snapshotCacheMaxMegabytes", snapshotCacheMaxMegabytes));
+            fileStore = json.optBoolean("fileStore", false);
+            fileStoreHardLinks = json.optBoolean("fileStoreHardLinks", false);
+            save();
+            return true;
+        }
+
+        public int getCheckoutTimeoutMinutes() {
+            return checkoutTimeoutMinutes;
+        }
+
+        public int getCheckoutStallMinutes() {
+            return checkoutStallMinutes;
+        }
+
+        public int getChangelogTimeoutMinutes() {
+            return changelogTimeoutMinutes;
+        }
+
+        public int getChangelogStallMinutes() {
+            return changelogStallMinutes;
+        }
+
+        public int getPollingTimeoutMinutes() {
+            return pollingTimeoutMinutes;
+        }
+
+        public int getPollingStallMinutes() {
+            return pollingStallMinutes;
+        }
+
+        public int getBrowseTimeoutMinutes() {
+            return browseTimeoutMinutes;
+        }
+
+        public int getBrowseStallMinutes() {
+            return browseStallMinutes;
+        }
+
+        public int getCommandRetries() {
+            return commandRetries;
+        }
+
+        public int getCheckoutRetries() {
+            return checkoutRetries;
+        }
+
+        public boolean isVerboseCheckoutLog() {
+            return verboseCheckoutLog;
+        }
+
+        public int getBreakerFailures() {
+            return breakerFailures;
+        }
+
+        public int getBreakerMaxBackoffMinutes() {
+            return breakerMaxBackoffMinutes;
+        }
+
+        public boolean isSingleFlightGets() {
+            return singleFlightGets;
+        }
+
+        public int getCoalesceSeconds() {
+            return coalesceSeconds;
+        }
+
+        @CheckForNull
+        public String getSnapshotCachePath() {
+            return snapshotCachePath;
+        }
+
+        public int getSnapshotCacheMaxMegabytes() {
+            return snapshotCacheMaxMegabytes;
+        }
+
+        public boolean isFileStore() {
+            return fileStore;
+        }
+
+        public boolean isFileStoreHardLinks() {
+            return fileStoreHardLinks;
+        }
+
+        /**
+         * @return Returns the timestamp a checkout starting at the date retrieves as of, see {@link #coalesceSeconds}.
+         */
+        Date coalesce(Date date) {
+            long window = Math.max(1, coalesceSeconds) * 1000L;
+            return new Date(date.getTime() - date.getTime() % window);
+        }
+
+        /**
+         * @return Returns the wall clock timeout for a kind of command in minutes, 0 for none.
+         */
+        public int getTimeoutMinutes(SscmOperation op) {
+            switch (op) {
+                case CHECKOUT:
+                    return checkoutTimeoutMinutes;
+                case CHANGELOG:
+                    return changelogTimeoutMinutes;
+                case POLLING:
+                    return pollingTimeoutMinutes;
+                case BROWSE:
+                default:
+                    return browseTimeoutMinutes;
+            }
+        }
+
+        /**
+         * @return Returns how long a kind of command may go without output before it is considered stalled, 0 for
+         *         no limit.
+         */
+        public int getStallMinutes(SscmOperation op) {
+            switch (op) {
+                case CHECKOUT:
+                    return checkoutStallMinutes;
+                case CHANGELOG:
+                    return changelogStallMinutes;
+                case POLLING:
+                    return pollingStallMinutes;
+                case BROWSE:
+                default:
+                    return browseStallMinutes;
+            }
+        }
+
         @Override
         public boolean isApplicable(Job project) {
             return true;
@@ -859,6 +1911,11 @@ public final class SurroundSCM extends SCM {
             return SSCMUtils.doFillCredentialsIdItems(context, remote);
         }
 
+        @SuppressWarnings("unused") // This is called via Stapler
+        public FormValidation doCheckExcludedComments(@QueryParameter String value) {
+            return SurroundChangeFilter.checkComments(value);
+        }
+
 
 
         /**
@@ -4,7 +4,10 @@ import hudson.model.AbstractBuild;
 import hudson.model.Run;
 import hudson.scm.ChangeLogSet.Entry;
 
+import javax.annotation.CheckForNull;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,7 +25,7 @@ public class SurroundSCMChangeLogParser extends ChangeLogParser {
   public ChangeLogSet<? extends Entry> parse(Run build, RepositoryBrowser<?> browser, File changelogFile) {
     //open the changelog File
     SurroundSCMChangeLogSet cls = new SurroundSCMChangeLogSet(build, browser);
-    commonParseChangeLog(cls, changelogFile);
+    commonParseChangeLog(cls, changelogFile, build);
     return cls;
   }
 
@@ -32,7 +35,7 @@ public class SurroundSCMChangeLogParser extends ChangeLogParser {
                                              File changelogFile) {
     //open the changelog File
     SurroundSCMChangeLogSet cls = new SurroundSCMChangeLogSet(build);
-    commonParseChangeLog(cls, changelogFile);
+    commonParseChangeLog(cls, changelogFile, build);
 
     return cls;
   }
@@ -42,29 +45,39 @@ public class SurroundSCMChangeLogParser extends ChangeLogParser {
    *
    * @param cls           What changelogset to add newly parsed entries too.
    * @param changelogFile What changelog file to use as a source for the parsing.
+   * @param build         Build the changelog belongs to.
    */
-  private void commonParseChangeLog(SurroundSCMChangeLogSet cls, File changelogFile) {
+  private void commonParseChangeLog(SurroundSCMChangeLogSet cls, File changelogFile, Run<?, ?> build) {
     String line;
-    BufferedReader br = null;
-
-    InputStreamReader is;
-
+    LineReader br = null;
+    long lines = 0;
+    boolean failed = false;
+    // Completed builds parse their changelog again whenever it is loaded, so parsing is only recorded globally and
+    // never added to, or saved with, the build.
+    SscmMetrics.Sample sample = new SscmMetrics.Context(null, null, null, build != null ? build.getParent() : null)
+            .start(SscmMetrics.CHANGELOG_PARSE);
+
+    cls.setChangelogFile(changelogFile);
     try{
-      is = new InputStreamReader(new FileInputStream(changelogFile), "UTF-8");
-
-      br = new BufferedReader(is);
+      // Lines are read as bytes to know where each entry starts, the changes page reads them back from there.
+      br = new LineReader(new FileInputStream(changelogFile), 0);
+      long offset = br.getOffset();
       while ((line = br.readLine())!=null)
       {
+        lines++;
         SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry entry = parseCCLine(cls, line);
         if(entry != null)
         {
-          cls.addEntry(entry);
+          cls.addEntry(entry, offset);
         }
+        offset = br.getOffset();
       }
 
     } catch (IOException e) {
+      failed = true;
       e.printStackTrace();
     } finally {
+      sample.stop(changelogFile.length(), lines, failed);
       if(br != null) {
         try {
           br.close();
@@ -84,6 +97,20 @@ public class SurroundSCMChangeLogParser extends ChangeLogParser {
      *          passed in line.  This could return a 'null' result if we fail to parse the line.
      */
   private SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry parseCCLine(SurroundSCMChangeLogSet cls, String cruiseControlLine ) {
+    String[] fields = parseFields(cruiseControlLine);
+    if(fields == null)
+      return null;
+    return new SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry(fields[0].concat("/").concat(fields[1]), fields[5],
+            fields[2], fields[3], fields[4], cls, fields[6], fields[7]);
+  }
+
+  /**
+   * Splits a 'CruiseControl' formatted line into its 8 fields: repository, file name, version, action, date, comment,
+   * user name and email.
+   *
+   * @return Returns the fields, or null if the line could not be parsed.
+   */
+  static String[] parseFields(String cruiseControlLine) {
     Matcher changeMatcher = CRUISECONTROL_PATTERN.matcher(cruiseControlLine);
 
     // The SSCM 'cruisecontrol' output is supposed to output 8 blocks of "<....>" per line.  However, due to a defect
@@ -92,19 +119,92 @@ public class SurroundSCMChangeLogParser extends ChangeLogParser {
     // To try to address that situation in a small way we are going to check to make sure we found exactly 8 'groups'.
     // If we found more // less then we will consider it a parsing failure, and return a 'null' entry.
     if(changeMatcher.find() && changeMatcher.groupCount() == 8) {
-      String repository = changeMatcher.group(1);
-      String filename = changeMatcher.group(2);
-      String version = changeMatcher.group(3);
-      String action = changeMatcher.group(4);
-      String date = changeMatcher.group(5);
-      String comment = changeMatcher.group(6);
-      String username = changeMatcher.group(7);
-      String email = changeMatcher.group(8);
-
-      return new SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry(repository.concat("/").concat(filename), comment, version, action, date, cls, username, email);
+      String[] fields = new String[8];
+      for(int i = 0; i < fields.length; i++) {
+        fields[i] = changeMatcher.group(i + 1);
+      }
+      return fields;
     }
     return null;
   }
-}
 
+  /**
+   * Reads UTF-8 lines from a stream through a buffer, keeping track of the byte offset each line starts at.
+   */
+  static final class LineReader implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private long offset;
+
+    /**
+     * Holds a line that spans more than one fill of {@link #buffer}.
+     */
+    private byte[] line = new byte[256];
+
+    /**
+     * @param in     Stream to read, closed with the reader
+     * @param offset Byte offset in the file the stream is positioned at
+     */
+    LineReader(InputStream in, long offset) {
+      this.in = in;
+      this.offset = offset;
+    }
+
+    /**
+     * @return Returns the byte offset of the next line, which is just after the terminator of the line last read.
+     */
+    long getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return Returns the next line without its line terminator, or null at the end of the stream.
+     */
+    @CheckForNull
+    String readLine() throws IOException {
+      int length = 0;
+      while(true) {
+        if(position == limit) {
+          position = 0;
+          limit = Math.max(0, in.read(buffer, 0, buffer.length));
+          if(limit == 0)
+            break;
+        }
+        int start = position;
+        while(position < limit && buffer[position] != '\n')
+          position++;
+        boolean terminated = position < limit;
+        if(terminated)
+          position++;
+        int count = position - start;
+        offset += count;
+        if(terminated && length == 0)
+          return decode(buffer, start, count);
+
+        if(length + count > line.length)
+          line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        System.arraycopy(buffer, start, line, length, count);
+        length += count;
+        if(terminated)
+          break;
+      }
+      return length == 0 ? null : decode(line, 0, length);
+    }
+
+    private static String decode(byte[] bytes, int start, int count) {
+      int end = start + count;
+      while(end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r'))
+        end--;
+      return new String(bytes, start, end - start, UTF8);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
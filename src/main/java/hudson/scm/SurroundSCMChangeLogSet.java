@@ -1,21 +1,60 @@
 package hudson.scm;
 
 import hudson.model.AbstractBuild;
+import hudson.model.Item;
 import hudson.model.Run;
 import hudson.model.User;
 import hudson.scm.SurroundSCMChangeLogSet.SurroundSCMChangeLogSetEntry;
 import hudson.tasks.Mailer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.bind.JavaScriptMethod;
 import org.kohsuke.stapler.export.Exported;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * The changes of a build. The changes page shows counts per action and author and reads the entries a page at a
+ * time from the changelog file, seeking to the offset of the first entry of the page, so a build with a large number
+ * of changes neither renders nor walks all of them at once.
+ */
 public final class SurroundSCMChangeLogSet extends ChangeLogSet<SurroundSCMChangeLogSetEntry>
 {
+  /**
+   * Number of entries the changes page shows at first and loads each time more are requested.
+   */
+  static final int PAGE_SIZE = 100;
+
+  /**
+   * Largest number of entries a single request may load.
+   */
+  private static final int MAX_PAGE_SIZE = 1000;
+
   private Collection<SurroundSCMChangeLogSetEntry> changes;
 
+  /**
+   * Changelog file the entries were parsed from, null if they were not parsed from a file.
+   */
+  private File changelogFile;
+
+  /**
+   * Offset of the line of each entry in {@link #changelogFile}.
+   */
+  private final List<Long> offsets = new ArrayList<Long>();
+
+  private final Map<String, Integer> actionCounts = new HashMap<String, Integer>();
+  private final Map<String, Integer> authorCounts = new HashMap<String, Integer>();
+
   protected SurroundSCMChangeLogSet(Run<?, ?> run, RepositoryBrowser<?> browser) {
     super(run, browser);
     changes = new ArrayList<SurroundSCMChangeLogSetEntry>();
@@ -38,9 +77,104 @@ public final class SurroundSCMChangeLogSet extends ChangeLogSet<SurroundSCMChang
   }
 
   public boolean addEntry(SurroundSCMChangeLogSetEntry e) {
+    count(actionCounts, e.getAction());
+    count(authorCounts, e.getAuthor().getDisplayName());
     return changes.add(e);
   }
 
+  /**
+   * Adds an entry parsed from the line at the offset of {@link #changelogFile}.
+   */
+  void addEntry(SurroundSCMChangeLogSetEntry e, long offset) {
+    if(addEntry(e))
+      offsets.add(offset);
+  }
+
+  void setChangelogFile(File changelogFile) {
+    this.changelogFile = changelogFile;
+  }
+
+  private static void count(Map<String, Integer> counts, String key) {
+    Integer count = counts.get(key);
+    counts.put(key, count == null ? 1 : count + 1);
+  }
+
+  public int getEntryCount() {
+    return changes.size();
+  }
+
+  public int getPageSize() {
+    return PAGE_SIZE;
+  }
+
+  /**
+   * @return Returns the number of entries per action, the most frequent first.
+   */
+  public List<Map.Entry<String, Integer>> getActionCounts() {
+    return sortByCount(actionCounts);
+  }
+
+  /**
+   * @return Returns the number of entries per author, the most frequent first.
+   */
+  public List<Map.Entry<String, Integer>> getAuthorCounts() {
+    return sortByCount(authorCounts);
+  }
+
+  private static List<Map.Entry<String, Integer>> sortByCount(Map<String, Integer> counts) {
+    List<Map.Entry<String, Integer>> result = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+    Collections.sort(result, new Comparator<Map.Entry<String, Integer>>() {
+      @Override
+      public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+        int diff = b.getValue().compareTo(a.getValue());
+        return diff != 0 ? diff : a.getKey().compareTo(b.getKey());
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Reads a page of entries from the changelog file, called by the changes page.
+   *
+   * @param start Index of the first entry
+   * @param count Number of entries, at most {@link #MAX_PAGE_SIZE}
+   * @return Returns the path, action, version, date, comment, author and edit type of each entry.
+   */
+  @JavaScriptMethod
+  public JSONArray fetchEntries(int start, int count) throws IOException {
+    getRun().checkPermission(Item.READ);
+    JSONArray result = new JSONArray();
+    if(changelogFile == null || start < 0 || start >= offsets.size())
+      return result;
+    int end = Math.min(offsets.size(), start + Math.min(count, MAX_PAGE_SIZE));
+
+    FileInputStream fis = new FileInputStream(changelogFile);
+    try {
+      fis.getChannel().position(offsets.get(start));
+      SurroundSCMChangeLogParser.LineReader in = new SurroundSCMChangeLogParser.LineReader(fis, offsets.get(start));
+      String line;
+      for(int index = start; index < end && (line = in.readLine()) != null; ) {
+        String[] fields = SurroundSCMChangeLogParser.parseFields(line);
+        if(fields == null)
+          continue;
+        JSONObject entry = new JSONObject();
+        entry.put("index", index++);
+        entry.put("path", fields[0] + "/" + fields[1]);
+        entry.put("version", fields[2]);
+        entry.put("action", fields[3]);
+        entry.put("date", fields[4]);
+        entry.put("comment", fields[5]);
+        User author = User.get(fields[6], false);
+        entry.put("author", author != null ? author.getDisplayName() : fields[6]);
+        entry.put("editType", SurroundSCMChangeLogSetEntry.getEditType(fields[3]).getName());
+        result.add(entry);
+      }
+    } finally {
+      fis.close();
+    }
+    return result;
+  }
+
   public static class SurroundSCMChangeLogSetEntry extends ChangeLogSet.Entry {
     private String comment;
     private String affectedFile;
@@ -143,6 +277,10 @@ public final class SurroundSCMChangeLogSet extends ChangeLogSet<SurroundSCMChang
 
     @Exported
     public EditType getEditType() {
+      return getEditType(action);
+    }
+
+    static EditType getEditType(String action) {
       if (action.equalsIgnoreCase("delete") || action.equalsIgnoreCase("remove"))
       {
         return EditType.DELETE;
@@ -0,0 +1,427 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * "Manage Jenkins" page showing how the plugin loads every Surround SCM server: polling rate, 'sscm cc' and
+ * 'sscm get' latency, running and queued commands, the slowest jobs and cache hit rates.
+ *
+ * Everything shown is kept in memory since the controller started. Recording goes through {@link SscmRollingWindow}
+ * and atomic counters only, so it costs a few atomic increments per operation.
+ */
+@Extension
+public class SurroundSCMDashboard extends ManagementLink {
+
+  /**
+   * Cache of files retrieved for lightweight checkouts, see {@link SurroundSCMFileSystem}.
+   */
+  static final String CACHE_FILE_SYSTEM = "Lightweight checkout files";
+
+  /**
+   * Branch revisions reused by multibranch scans, see {@link SurroundSCMSource}.
+   */
+  static final String CACHE_BRANCHES = "Branch scan revisions";
+
+  /**
+   * Polling baselines read without loading the last build, see {@link SurroundPollingBaseline}.
+   */
+  static final String CACHE_POLLING_BASELINE = "Polling baselines";
+
+  /**
+   * Retrievals shared between the checkouts of a build, see {@link SurroundSnapshot}.
+   */
+  static final String CACHE_SNAPSHOTS = "Build checkout snapshots";
+
+  /**
+   * Retrievals copied from a concurrent 'sscm get' on the same node, see {@link SscmSingleFlight}.
+   */
+  static final String CACHE_SINGLE_FLIGHT = "Concurrent sscm get sharing";
+
+  /**
+   * Snapshots unpacked into empty workspaces, see {@link SurroundSnapshotCache}.
+   */
+  static final String CACHE_WORKSPACE_SNAPSHOTS = "Workspace snapshot cache";
+
+  /**
+   * Empty directories seeded from the node's file store, see {@link SurroundFileStore}.
+   */
+  static final String CACHE_FILE_STORE = "Node file store";
+
+  /**
+   * Tool resolutions that found the sscm CLI already unpacked on the node, see {@link SurroundToolInstaller}.
+   */
+  static final String CACHE_TOOL_INSTALLS = "sscm CLI installations";
+
+  /**
+   * Number of jobs shown in the slowest jobs table.
+   */
+  private static final int SLOWEST_JOBS = 10;
+
+  private static final ConcurrentMap<String, ServerStats> SERVERS = new ConcurrentHashMap<String, ServerStats>();
+  private static final ConcurrentMap<String, JobStats> JOBS = new ConcurrentHashMap<String, JobStats>();
+  private static final ConcurrentMap<String, CacheStats> CACHES = new ConcurrentHashMap<String, CacheStats>();
+
+  @Override
+  public String getIconFileName() {
+    return "clock.png";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "surround-scm";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Surround SCM Performance";
+  }
+
+  @Override
+  public String getDescription() {
+    return "Polling rate, command latency and cache hit rates of the Surround SCM servers used by this controller.";
+  }
+
+  /**
+   * Records a finished operation, called by {@link SscmMetrics.Sample#stop(long, long, boolean)}.
+   */
+  static void record(SscmMetrics.Context context, String operation, long millis) {
+    server(context.getServer()).window(operation).record(millis);
+    String job = context.getJob();
+    if(job != null) {
+      JobStats stats = JOBS.get(job);
+      if(stats == null) {
+        JobStats created = new JobStats(job);
+        stats = JOBS.putIfAbsent(job, created);
+        if(stats == null)
+          stats = created;
+      }
+      stats.record(millis);
+    }
+  }
+
+  /**
+   * Tracks an sscm process starting (+1) or finishing (-1).
+   */
+  static void running(SscmMetrics.Context context, int delta) {
+    server(context.getServer()).running.addAndGet(delta);
+  }
+
+  /**
+   * Tracks an sscm command waiting for a free thread (+1) or leaving the queue (-1).
+   */
+  static void queued(@CheckForNull String server, int delta) {
+    server(server).queued.addAndGet(delta);
+  }
+
+  /**
+   * Counts a lookup in one of the plugin's caches.
+   */
+  static void cacheAccess(String cache, boolean hit) {
+    CacheStats stats = CACHES.get(cache);
+    if(stats == null) {
+      CacheStats created = new CacheStats(cache);
+      stats = CACHES.putIfAbsent(cache, created);
+      if(stats == null)
+        stats = created;
+    }
+    (hit ? stats.hits : stats.misses).incrementAndGet();
+  }
+
+  private static ServerStats server(@CheckForNull String server) {
+    String name = server != null ? server : SscmMetrics.NONE;
+    ServerStats stats = SERVERS.get(name);
+    if(stats == null) {
+      ServerStats created = new ServerStats(name);
+      stats = SERVERS.putIfAbsent(name, created);
+      if(stats == null)
+        stats = created;
+    }
+    return stats;
+  }
+
+  /**
+   * @return Returns one row per server, sorted by name, used by index.jelly.
+   */
+  public List<ServerRow> getServers() {
+    List<ServerRow> result = new ArrayList<ServerRow>();
+    for(ServerStats stats : SERVERS.values()) {
+      result.add(new ServerRow(stats));
+    }
+    Collections.sort(result, new Comparator<ServerRow>() {
+      @Override
+      public int compare(ServerRow a, ServerRow b) {
+        return a.getServer().compareTo(b.getServer());
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @return Returns the jobs with the highest average time spent in Surround SCM operations, used by index.jelly.
+   */
+  public List<JobStats> getSlowestJobs() {
+    List<JobStats> result = new ArrayList<JobStats>(JOBS.values());
+    Collections.sort(result, new Comparator<JobStats>() {
+      @Override
+      public int compare(JobStats a, JobStats b) {
+        long x = a.getAverageMillis();
+        long y = b.getAverageMillis();
+        return x < y ? 1 : x > y ? -1 : 0;
+      }
+    });
+    return result.size() > SLOWEST_JOBS ? result.subList(0, SLOWEST_JOBS) : result;
+  }
+
+  /**
+   * @return Returns every cache that has been used, sorted by name, used by index.jelly.
+   */
+  public List<CacheStats> getCaches() {
+    List<CacheStats> result = new ArrayList<CacheStats>(CACHES.values());
+    Collections.sort(result, new Comparator<CacheStats>() {
+      @Override
+      public int compare(CacheStats a, CacheStats b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @return Returns the polling circuit breaker of every server that has been polled, used by index.jelly.
+   */
+  public List<BreakerRow> getBreakers() {
+    List<BreakerRow> result = new ArrayList<BreakerRow>();
+    for(SscmCircuitBreaker breaker : SscmCircuitBreaker.all()) {
+      result.add(new BreakerRow(breaker));
+    }
+    Collections.sort(result, new Comparator<BreakerRow>() {
+      @Override
+      public int compare(BreakerRow a, BreakerRow b) {
+        return a.getServer().compareTo(b.getServer());
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Rolling windows and process counts of one server.
+   */
+  private static final class ServerStats {
+    private final String name;
+    private final ConcurrentMap<String, SscmRollingWindow> windows = new ConcurrentHashMap<String, SscmRollingWindow>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    ServerStats(String name) {
+      this.name = name;
+    }
+
+    SscmRollingWindow window(String operation) {
+      SscmRollingWindow window = windows.get(operation);
+      if(window == null) {
+        SscmRollingWindow created = new SscmRollingWindow();
+        window = windows.putIfAbsent(operation, created);
+        if(window == null)
+          window = created;
+      }
+      return window;
+    }
+
+    SscmRollingWindow.Snapshot snapshot(SscmOperation... ops) {
+      SscmRollingWindow.Snapshot result = new SscmRollingWindow.Snapshot(new long[SscmRollingWindow.BUCKETS]);
+      for(SscmOperation op : ops) {
+        SscmRollingWindow window = windows.get(op.getDisplayName());
+        if(window != null)
+          result = result.merge(window.snapshot());
+      }
+      return result;
+    }
+  }
+
+  /**
+   * One line of the servers table. 'sscm cc' covers polling and changelogs, 'sscm get' covers checkouts.
+   */
+  public static final class ServerRow {
+    private final String server;
+    private final double pollsPerMinute;
+    private final SscmRollingWindow.Snapshot cc;
+    private final SscmRollingWindow.Snapshot get;
+    private final int running;
+    private final int queued;
+
+    ServerRow(ServerStats stats) {
+      long windowMinutes = TimeUnit.MILLISECONDS.toMinutes(SscmRollingWindow.SLOTS * SscmRollingWindow.SLOT_MS);
+      this.server = stats.name;
+      this.pollsPerMinute = (double) stats.snapshot(SscmOperation.POLLING).getCount() / windowMinutes;
+      this.cc = stats.snapshot(SscmOperation.POLLING, SscmOperation.CHANGELOG);
+      this.get = stats.snapshot(SscmOperation.CHECKOUT);
+      this.running = stats.running.get();
+      this.queued = stats.queued.get();
+    }
+
+    public String getServer() {
+      return server;
+    }
+
+    public String getPollsPerMinute() {
+      return String.format("%.1f", pollsPerMinute);
+    }
+
+    public long getCcCount() {
+      return cc.getCount();
+    }
+
+    public long getCcP50() {
+      return cc.getPercentile(0.50);
+    }
+
+    public long getCcP95() {
+      return cc.getPercentile(0.95);
+    }
+
+    public long getCcP99() {
+      return cc.getPercentile(0.99);
+    }
+
+    public long getGetCount() {
+      return get.getCount();
+    }
+
+    public long getGetP50() {
+      return get.getPercentile(0.50);
+    }
+
+    public long getGetP95() {
+      return get.getPercentile(0.95);
+    }
+
+    public long getGetP99() {
+      return get.getPercentile(0.99);
+    }
+
+    public int getRunning() {
+      return running;
+    }
+
+    public int getQueued() {
+      return queued;
+    }
+  }
+
+  /**
+   * State of the polling circuit breaker of one server.
+   */
+  public static final class BreakerRow {
+    private final String server;
+    private final String state;
+    private final int failures;
+    private final Date retryAt;
+
+    BreakerRow(SscmCircuitBreaker breaker) {
+      this.server = breaker.getServer();
+      this.state = breaker.getState().name();
+      this.failures = breaker.getFailures();
+      this.retryAt = breaker.getState() == SscmCircuitBreaker.State.CLOSED ? null : new Date(breaker.getRetryAt());
+    }
+
+    public String getServer() {
+      return server;
+    }
+
+    public String getState() {
+      return state;
+    }
+
+    public int getFailures() {
+      return failures;
+    }
+
+    public Date getRetryAt() {
+      return retryAt;
+    }
+  }
+
+  /**
+   * Time a job spent in Surround SCM operations.
+   */
+  public static final class JobStats {
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong millis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    JobStats(String name) {
+      this.name = name;
+    }
+
+    void record(long duration) {
+      count.incrementAndGet();
+      millis.addAndGet(duration);
+      long max;
+      while(duration > (max = maxMillis.get()) && !maxMillis.compareAndSet(max, duration)) {
+        // Another thread raised the maximum, check again.
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMaxMillis() {
+      return maxMillis.get();
+    }
+
+    public long getAverageMillis() {
+      long c = count.get();
+      return c > 0 ? millis.get() / c : 0;
+    }
+  }
+
+  /**
+   * Hits and misses of one cache.
+   */
+  public static final class CacheStats {
+    private final String name;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    CacheStats(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getHits() {
+      return hits.get();
+    }
+
+    public long getMisses() {
+      return misses.get();
+    }
+
+    public String getHitRate() {
+      long h = hits.get();
+      long total = h + misses.get();
+      return total > 0 ? String.format("%.1f%%", 100.0 * h / total) : "-";
+    }
+  }
+}
@@ -0,0 +1,373 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Item;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMFileSystem;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lightweight, read only view of a {@link SurroundSCM} location used to load a Jenkinsfile or a shared library
+ * without checking out the whole repository.
+ *
+ * Files are retrieved one at a time with 'sscm get' into a cache directory on the controller. Retrieved files are
+ * kept per location key, label and timestamp, so every later request for the same path at the same point in time is
+ * served from disk.
+ */
+public class SurroundSCMFileSystem extends SCMFileSystem {
+  private static final Logger LOGGER = Logger.getLogger(SurroundSCMFileSystem.class.getName());
+
+  /**
+   * Internal constant used for formatting datetime fields for the Surround SCM CLI
+   */
+  private static final String SURROUND_DATETIME_FORMAT_STR = "yyyyMMddHHmmss";
+
+  /**
+   * Internal constant used for formatting datetime fields for the Surround SCM CLI
+   */
+  private static final String SURROUND_DATETIME_FORMAT_STR_2 = "yyyyMMddHH:mm:ss";
+
+  /**
+   * Number of timestamps kept in the cache for each location key.
+   */
+  private static final int CACHED_TIMESTAMPS_PER_KEY = 5;
+
+  /**
+   * Surround SCM working directory metadata, never part of the repository contents.
+   */
+  private static final String SERVER_INFO_FILE = ".MySCMServerInfo";
+
+  /**
+   * Result of every path retrieved so far, keyed by cache directory and path.
+   */
+  private static final Map<String, SCMFile.Type> TYPES = new ConcurrentHashMap<String, SCMFile.Type>();
+
+  /**
+   * One lock per cache directory and path so concurrent loads of the same file only run 'sscm get' once.
+   */
+  private static final ConcurrentHashMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+  private final Item owner;
+  private final SurroundSCM scm;
+  private final Date timestamp;
+  @CheckForNull
+  private final String label;
+  private final File cacheDir;
+
+  /**
+   * @param timestamp Time files are retrieved as of, or the time the label is looked up at if there is one
+   * @param label     Label to retrieve the files of, null to retrieve them as of the timestamp
+   */
+  protected SurroundSCMFileSystem(@Nonnull Item owner, @Nonnull SurroundSCM scm, @Nonnull Date timestamp,
+                                  @CheckForNull String label, @CheckForNull SCMRevision rev) {
+    super(rev);
+    this.owner = owner;
+    this.scm = scm;
+    this.timestamp = new Date(timestamp.getTime());
+    this.label = label;
+    this.cacheDir = new File(getCacheRoot(scm.getLocation(), label),
+            new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR).format(this.timestamp));
+  }
+
+  @Override
+  public long lastModified() throws IOException, InterruptedException {
+    return timestamp.getTime();
+  }
+
+  @Nonnull
+  @Override
+  public SCMFile getRoot() {
+    return new SurroundSCMFile(this);
+  }
+
+  /**
+   * @return Returns the directory all timestamps of a location, or of a label of it, are cached in.
+   */
+  private static File getCacheRoot(SscmLocation location, @CheckForNull String label) {
+    String key = label != null ? location.getKey() + '@' + Util.getDigestOf(label) : location.getKey();
+    return new File(new File(Jenkins.getInstance().getRootDir(), "caches/surround-scm-fs"), key);
+  }
+
+  /**
+   * Removes the oldest cached timestamps of a location, keeping the most recent {@link #CACHED_TIMESTAMPS_PER_KEY}.
+   */
+  private static void pruneCache(File cacheRoot) {
+    String[] timestamps = cacheRoot.list();
+    if(timestamps == null || timestamps.length <= CACHED_TIMESTAMPS_PER_KEY)
+      return;
+
+    // Timestamps are formatted as yyyyMMddHHmmss, so they sort chronologically.
+    Arrays.sort(timestamps);
+    for(int i = 0; i < timestamps.length - CACHED_TIMESTAMPS_PER_KEY; i++) {
+      File stale = new File(cacheRoot, timestamps[i]);
+      String prefix = stale.getAbsolutePath();
+      for(String k : TYPES.keySet()) {
+        if(k.startsWith(prefix))
+          TYPES.remove(k);
+      }
+      for(String k : LOCKS.keySet()) {
+        if(k.startsWith(prefix))
+          LOCKS.remove(k);
+      }
+      try {
+        Util.deleteRecursive(stale);
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to remove cached Surround SCM files " + stale, e);
+      }
+    }
+  }
+
+  /**
+   * Works out what is at the given repository relative path, retrieving it if needed.
+   */
+  @Nonnull
+  SCMFile.Type typeOf(String path) throws IOException, InterruptedException {
+    if(path.isEmpty())
+      return SCMFile.Type.DIRECTORY;
+    if(fetchFile(path) != null)
+      return SCMFile.Type.REGULAR_FILE;
+    if(fetchDirectory(path) != null)
+      return SCMFile.Type.DIRECTORY;
+    return SCMFile.Type.NONEXISTENT;
+  }
+
+  /**
+   * @return Returns where a repository relative path is cached.
+   * @throws IOException If the path points outside the repository.
+   */
+  private File resolve(String path) throws IOException {
+    File local = new File(cacheDir, path);
+    if(!local.getCanonicalPath().startsWith(cacheDir.getCanonicalPath() + File.separator))
+      throw new IOException("Not a path in the repository: " + path);
+    return local;
+  }
+
+  /**
+   * Retrieves a single file.
+   *
+   * @param path Repository relative path of the file
+   * @return Returns the cached copy of the file, or null if there is no such file at this timestamp.
+   */
+  @CheckForNull
+  File fetchFile(String path) throws IOException, InterruptedException {
+    File local = resolve(path);
+    String cacheKey = local.getAbsolutePath();
+    synchronized (lockFor(cacheKey)) {
+      SCMFile.Type type = TYPES.get(cacheKey);
+      SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_FILE_SYSTEM, type != null);
+      if(type == null) {
+        int slash = path.lastIndexOf('/');
+        String name = path.substring(slash + 1);
+        String parent = slash < 0 ? "" : path.substring(0, slash);
+
+        boolean found = runGet(name, parent, local.getParentFile(), false) && local.isFile();
+        type = found ? SCMFile.Type.REGULAR_FILE : SCMFile.Type.NONEXISTENT;
+        TYPES.put(cacheKey, type);
+      }
+      return type == SCMFile.Type.REGULAR_FILE ? local : null;
+    }
+  }
+
+  /**
+   * Retrieves a directory and everything below it.
+   *
+   * @param path Repository relative path of the directory, empty for the repository itself.
+   * @return Returns the cached copy of the directory, or null if there is no such directory at this timestamp.
+   */
+  @CheckForNull
+  File fetchDirectory(String path) throws IOException, InterruptedException {
+    File local = path.isEmpty() ? cacheDir : resolve(path);
+    String cacheKey = local.getAbsolutePath() + "/";
+    synchronized (lockFor(cacheKey)) {
+      SCMFile.Type type = TYPES.get(cacheKey);
+      SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_FILE_SYSTEM, type != null);
+      if(type == null) {
+        boolean found = runGet("/", path, local, true) && local.isDirectory();
+        type = found ? SCMFile.Type.DIRECTORY : SCMFile.Type.NONEXISTENT;
+        TYPES.put(cacheKey, type);
+      }
+      return type == SCMFile.Type.DIRECTORY ? local : null;
+    }
+  }
+
+  private static Object lockFor(String cacheKey) {
+    Object lock = new Object();
+    Object existing = LOCKS.putIfAbsent(cacheKey, lock);
+    return existing != null ? existing : lock;
+  }
+
+  /**
+   * Runs 'sscm get' on the controller.
+   *
+   * @param item        File name, or "/" for a whole repository
+   * @param path        Repository relative path of the repository holding the item
+   * @param destination Local directory to retrieve into
+   * @param recursive   True to retrieve sub repositories as well
+   * @return Returns 'True' if the command succeeded
+   */
+  private boolean runGet(String item, String path, File destination, boolean recursive) throws IOException, InterruptedException {
+    if(!cacheDir.exists()) {
+      pruneCache(cacheDir.getParentFile());
+    }
+
+    SscmLocation loc = scm.getLocation();
+    if(!destination.isDirectory() && !destination.mkdirs())
+      throw new IOException("Failed to create " + destination);
+
+    List<String> args = new ArrayList<String>();
+    args.add("get");
+    args.add(item);
+    args.add("-wreplace");
+    args.add("-b".concat(loc.getBranch()));
+    args.add("-p".concat(path.isEmpty() ? loc.getRepository() : loc.getRepository() + "/" + path));
+    args.add("-d".concat(destination.getAbsolutePath()));
+    if(recursive)
+      args.add("-r");
+    if(label != null)
+      args.add("-l" + label);
+    else
+      args.add("-s" + new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR_2).format(timestamp));
+    args.add("-q");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int cmdResult = scm.launchOnController(SscmOperation.BROWSE, owner, loc, args, output, new StreamTaskListener(output));
+    if(cmdResult != 0) {
+      LOGGER.log(Level.FINE, "sscm get {0} in {1} exited with {2}: {3}",
+              new Object[]{item, path, cmdResult, output.toString("UTF-8")});
+    }
+    return cmdResult == 0;
+  }
+
+  /**
+   * A file or directory in a {@link SurroundSCMFileSystem}.
+   */
+  private static final class SurroundSCMFile extends SCMFile {
+    private final SurroundSCMFileSystem fs;
+
+    SurroundSCMFile(SurroundSCMFileSystem fs) {
+      this.fs = fs;
+    }
+
+    SurroundSCMFile(SurroundSCMFileSystem fs, SurroundSCMFile parent, String name) {
+      super(parent, name);
+      this.fs = fs;
+    }
+
+    @Nonnull
+    @Override
+    protected SCMFile newChild(@Nonnull String name, boolean assumeIsDirectory) {
+      return new SurroundSCMFile(fs, this, name);
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<SCMFile> children() throws IOException, InterruptedException {
+      List<SCMFile> result = new ArrayList<SCMFile>();
+      File dir = fs.fetchDirectory(getPath());
+      String[] names = dir != null ? dir.list() : null;
+      if(names != null) {
+        for(String name : names) {
+          if(!SERVER_INFO_FILE.equals(name))
+            result.add(newChild(name, false));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public long lastModified() throws IOException, InterruptedException {
+      return fs.lastModified();
+    }
+
+    @Nonnull
+    @Override
+    protected Type type() throws IOException, InterruptedException {
+      return fs.typeOf(getPath());
+    }
+
+    @Nonnull
+    @Override
+    public InputStream content() throws IOException, InterruptedException {
+      File file = fs.fetchFile(getPath());
+      if(file == null)
+        throw new FileNotFoundException(getPath());
+      return new FileInputStream(file);
+    }
+  }
+
+  @Extension
+  public static class BuilderImpl extends SCMFileSystem.Builder {
+
+    @Override
+    public boolean supports(SCM source) {
+      if(!(source instanceof SurroundSCM))
+        return false;
+      SurroundSCM scm = (SurroundSCM) source;
+      // A timestamp or label taken from build parameters is only known to a build.
+      if(isParameterized(scm.getTimestamp()) || isParameterized(scm.getLabel()))
+        return false;
+      // Multi-repository checkouts would need their sub directories merged, leave those to a full checkout.
+      List<SurroundLocation> targets = scm.getCheckoutLocations();
+      return targets.size() == 1 && targets.get(0).getSubdirectory() == null;
+    }
+
+    private static boolean isParameterized(@CheckForNull String value) {
+      return value != null && value.indexOf('$') >= 0;
+    }
+
+    @Override
+    public boolean supports(SCMSource source) {
+      return source instanceof SurroundSCMSource;
+    }
+
+    @Override
+    public SCMFileSystem build(@Nonnull Item owner, @Nonnull SCM scm, @CheckForNull SCMRevision rev)
+            throws IOException, InterruptedException {
+      if(!supports(scm))
+        return null;
+      SurroundSCM surroundSCM = (SurroundSCM) scm;
+      // The files are what a checkout would retrieve: a label wins over the timestamp of a known revision or one set
+      // on the SCM, which pin what is retrieved and let the cache be shared between builds. Otherwise the files are
+      // as of the current time, aligned like checkouts when the global coalescing window is set.
+      Date timestamp;
+      if(rev instanceof SurroundSCMRevision && surroundSCM.getLabel() == null) {
+        timestamp = ((SurroundSCMRevision) rev).getDate();
+      } else if(surroundSCM.getTimestamp() != null && surroundSCM.getLabel() == null) {
+        SimpleDateFormat format = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR);
+        format.setLenient(false);
+        try {
+          timestamp = format.parse(surroundSCM.getTimestamp());
+        } catch (ParseException e) {
+          // Left to the checkout, which reports the malformed timestamp.
+          return null;
+        }
+      } else {
+        timestamp = SurroundSCM.DESCRIPTOR.coalesce(new Date());
+      }
+      return new SurroundSCMFileSystem(owner, surroundSCM, timestamp, surroundSCM.getLabel(), rev);
+    }
+  }
+}
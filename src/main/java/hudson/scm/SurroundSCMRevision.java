@@ -0,0 +1,51 @@
+package hudson.scm;
+
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMRevision;
+
+import javax.annotation.Nonnull;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A point in time on a Surround SCM branch. Surround has no global change numbers, so the timestamp a branch was
+ * last seen to change at identifies its revision.
+ */
+public class SurroundSCMRevision extends SCMRevision {
+  private static final long serialVersionUID = 1L;
+
+  private final long timestamp;
+
+  public SurroundSCMRevision(@Nonnull SCMHead head, long timestamp) {
+    super(head);
+    this.timestamp = timestamp;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public Date getDate() {
+    return new Date(timestamp);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(this == o)
+      return true;
+    if(!(o instanceof SurroundSCMRevision))
+      return false;
+    SurroundSCMRevision that = (SurroundSCMRevision) o;
+    return timestamp == that.timestamp && getHead().equals(that.getHead());
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * getHead().hashCode() + (int) (timestamp ^ (timestamp >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(timestamp));
+  }
+}
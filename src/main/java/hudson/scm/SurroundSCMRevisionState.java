@@ -1,22 +1,48 @@
 package hudson.scm;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 public final class SurroundSCMRevisionState extends SCMRevisionState {
 
   private final Date  buildDate;
   private final int   buildNumber;
-  
+
+  /**
+   * Date each location was retrieved at, keyed by {@link SscmLocation#getKey()}. This is null for builds
+   * recorded before multi-repository checkouts were supported.
+   */
+  private final Map<String, Long> locationDates;
+
 	public SurroundSCMRevisionState(Date buildDate, int buildNumber) {
+		this(buildDate, buildNumber, Collections.<String, Date>emptyMap());
+	}
 
-		this.buildDate = new Date(buildDate.getTime());
+  public SurroundSCMRevisionState(Date buildDate, int buildNumber, Map<String, Date> locationDates) {
+    this.buildDate = new Date(buildDate.getTime());
     this.buildNumber = buildNumber;
-	}
-	
+    this.locationDates = new HashMap<String, Long>();
+    for(Map.Entry<String, Date> e : locationDates.entrySet()) {
+      this.locationDates.put(e.getKey(), e.getValue().getTime());
+    }
+  }
+
 	public Date getDate() {
 		return new Date(buildDate.getTime());
 	}
-  
+
+  /**
+   * @param key {@link SscmLocation#getKey()} of the location to look up
+   * @return Returns the date the location was retrieved at, falling back to the build date when the location
+   *         was not recorded.
+   */
+  public Date getDate(String key) {
+    Long time = locationDates != null ? locationDates.get(key) : null;
+    return time != null ? new Date(time) : getDate();
+  }
+
   public int getBuildNumber() {
     return buildNumber;
   }
@@ -0,0 +1,484 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.TaskListener;
+import hudson.scm.config.RSAKey;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.scm.api.SCMHeadObserver;
+import jenkins.scm.api.SCMProbe;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceCriteria;
+import jenkins.scm.api.SCMSourceDescriptor;
+import jenkins.scm.api.SCMSourceOwner;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovers the branches of a Surround SCM mainline for multibranch projects, creating a {@link SurroundSCM} for each.
+ *
+ * The branch listing and the revision of every branch are remembered between scans. The listing is reused for a few
+ * minutes, and a scan only asks each known branch whether anything changed since it was last checked, so branches
+ * that did not change keep their revision and are not rebuilt. Surround lists changes per branch, so that is one
+ * 'sscm cc' per known branch, run a few at a time. A branch that could not be checked keeps its revision and is
+ * checked from the same time again by the next scan, so a server outage neither rebuilds every branch nor loses the
+ * changes made during it.
+ */
+public class SurroundSCMSource extends SCMSource {
+  /**
+   * Number of branches checked for changes at the same time, shared by every source.
+   */
+  private static final int THREADS = Integer.getInteger(SurroundSCMSource.class.getName() + ".threads", 4);
+
+  /**
+   * Seconds a branch listing is reused for by later scans. Scans triggered by an event always list the branches.
+   */
+  private static final int BRANCH_LIST_SECONDS = Integer.getInteger(SurroundSCMSource.class.getName() + ".branchListSeconds", 300);
+
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+          new NamingThreadFactory(new DaemonThreadFactory(), "SurroundSCMSource"));
+
+  /**
+   * Internal constant used for formatting datetime fields for the Surround SCM CLI
+   */
+  private static final String SURROUND_DATETIME_FORMAT_STR = "yyyyMMddHHmmss";
+
+  private final String server;
+  private final String serverPort;
+  private final String repository;
+  private final String credentialsId;
+  private RSAKey rsaKey;
+
+  /**
+   * Result of the previous scan, loaded from {@link #getCacheFile()} on first use.
+   */
+  private transient BranchCache cache;
+
+  /**
+   * Branches listed by the last 'sscm lsbranch' and when it ran, see {@link #BRANCH_LIST_SECONDS}.
+   */
+  private transient List<String> branchList;
+  private transient long branchListed;
+
+  @DataBoundConstructor
+  public SurroundSCMSource(String id, String server, String serverPort, String repository, String credentialsId) {
+    super(id);
+    this.server = Util.fixEmptyAndTrim(server);
+    this.serverPort = Util.fixEmptyAndTrim(serverPort);
+    this.repository = Util.fixEmptyAndTrim(repository);
+    this.credentialsId = Util.fixEmptyAndTrim(credentialsId);
+  }
+
+  @Exported
+  public String getServer() {
+    return server;
+  }
+
+  @Exported
+  public String getServerPort() {
+    return serverPort;
+  }
+
+  @Exported
+  public String getRepository() {
+    return repository;
+  }
+
+  public String getCredentialsId() {
+    return credentialsId;
+  }
+
+  @DataBoundSetter
+  public void setRsaKeyFilePath(String rsaKeyFilePath) {
+    this.rsaKey = new RSAKey(RSAKey.Type.Path, rsaKeyFilePath);
+  }
+
+  public String getRsaKeyFilePath() {
+    return rsaKey != null && rsaKey.getRsaKeyType() == RSAKey.Type.Path ? rsaKey.getRsaKeyValue() : null;
+  }
+
+  @DataBoundSetter
+  public void setRsaKeyFileId(String rsaKeyFileId) {
+    this.rsaKey = new RSAKey(RSAKey.Type.ID, rsaKeyFileId);
+  }
+
+  public String getRsaKeyFileId() {
+    return rsaKey != null && rsaKey.getRsaKeyType() == RSAKey.Type.ID ? rsaKey.getRsaKeyValue() : null;
+  }
+
+  /**
+   * @return Always returns null, see {@link SurroundSCM#getRsaKey()}
+   */
+  public RSAKey getRsaKey() {
+    return null;
+  }
+
+  @DataBoundSetter
+  public void setRsaKey(RSAKey rsaKey) {
+    this.rsaKey = rsaKey;
+  }
+
+  public boolean hasRsaKeyConfigured() {
+    return rsaKey == null || rsaKey.getRsaKeyType() != RSAKey.Type.NoKey;
+  }
+
+  public boolean isUsingRsaKeyPath() {
+    return rsaKey != null && rsaKey.getRsaKeyType() == RSAKey.Type.Path;
+  }
+
+  public boolean isUsingRsaKeyFileId() {
+    return rsaKey != null && rsaKey.getRsaKeyType() == RSAKey.Type.ID;
+  }
+
+  /**
+   * @return Returns the mainline branch, the first segment of the repository path.
+   */
+  public String getMainline() {
+    int slash = repository != null ? repository.indexOf('/') : -1;
+    return slash < 0 ? repository : repository.substring(0, slash);
+  }
+
+  @Nonnull
+  @Override
+  public SCM build(@Nonnull SCMHead head, @CheckForNull SCMRevision revision) {
+    SurroundSCM scm = createSCM(head.getName());
+    // Pinning the revision makes a rebuild or replay of a branch build retrieve the files the original build did.
+    if(revision instanceof SurroundSCMRevision)
+      scm.setTimestamp(new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR).format(((SurroundSCMRevision) revision).getDate()));
+    return scm;
+  }
+
+  private SurroundSCM createSCM(String branch) {
+    SurroundSCM scm = new SurroundSCM(server, serverPort, branch, repository, credentialsId);
+    scm.setRsaKey(rsaKey);
+    return scm;
+  }
+
+  @Override
+  protected synchronized void retrieve(@CheckForNull SCMSourceCriteria criteria, @Nonnull SCMHeadObserver observer,
+                                       @CheckForNull SCMHeadEvent<?> event,
+                                       @Nonnull TaskListener listener) throws IOException, InterruptedException {
+    BranchCache previous = loadCache();
+    Date now = new Date();
+
+    List<String> branches = getBranches(now.getTime(), event != null, listener);
+    listener.getLogger().println("Found " + branches.size() + " branches of " + getMainline());
+
+    Set<String> includes = null;
+    if(observer.getIncludes() != null) {
+      includes = new HashSet<String>();
+      for(SCMHead head : observer.getIncludes()) {
+        includes.add(head.getName());
+      }
+    }
+
+    Map<String, Future<Boolean>> checks = new HashMap<String, Future<Boolean>>();
+    try {
+      for(String branch : branches) {
+        if((includes == null || includes.contains(branch)) && previous.revisions.containsKey(branch))
+          checks.put(branch, checkForChanges(branch, new Date(previous.getChecked(branch)), now, listener));
+      }
+      observe(criteria, observer, listener, branches, includes, previous, checks, now);
+    } finally {
+      // Checks of branches a scan that stopped early did not get to are not needed.
+      for(Future<Boolean> check : checks.values()) {
+        check.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Reports the branches to the observer, with the revisions the checks of the known branches found.
+   */
+  private void observe(@CheckForNull SCMSourceCriteria criteria, @Nonnull SCMHeadObserver observer,
+                       @Nonnull TaskListener listener, List<String> branches, @CheckForNull Set<String> includes,
+                       BranchCache previous, Map<String, Future<Boolean>> checks, Date now)
+          throws IOException, InterruptedException {
+    BranchCache next = new BranchCache(now.getTime());
+    boolean complete = true;
+    for(String branch : branches) {
+      if(includes != null && !includes.contains(branch))
+        continue;
+
+      Long known = previous.revisions.get(branch);
+      long timestamp;
+      long checked = now.getTime();
+      if(known == null) {
+        listener.getLogger().println("New branch " + branch);
+        timestamp = now.getTime();
+      } else {
+        long since = previous.getChecked(branch);
+        Boolean changed = getResult(checks.get(branch));
+        if(changed == null) {
+          listener.getLogger().println("Keeping the revision of branch " + branch + ", it is checked again by the next scan");
+          timestamp = known;
+          checked = since;
+        } else if(changed) {
+          listener.getLogger().println("Changes on branch " + branch);
+          timestamp = now.getTime();
+        } else {
+          timestamp = known;
+        }
+      }
+      SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_BRANCHES, known != null && timestamp == known);
+      next.revisions.put(branch, timestamp);
+      next.checked.put(branch, checked);
+
+      SCMHead head = new SCMHead(branch);
+      SurroundSCMRevision revision = new SurroundSCMRevision(head, timestamp);
+      if(criteria != null) {
+        SCMProbe probe = createProbe(head, revision);
+        try {
+          if(!criteria.isHead(probe, listener)) {
+            listener.getLogger().println("Branch " + branch + " does not meet the criteria");
+            continue;
+          }
+        } finally {
+          probe.close();
+        }
+      }
+      observer.observe(head, revision);
+      if(!observer.isObserving()) {
+        complete = branches.indexOf(branch) == branches.size() - 1;
+        break;
+      }
+    }
+
+    // A partial scan has not looked at every branch since the previous scan, so it must not move the high water mark.
+    if(includes == null && complete)
+      saveCache(next);
+  }
+
+  /**
+   * @return Returns the branches of the mainline, listed again once the previous listing is older than
+   *         {@link #BRANCH_LIST_SECONDS} or when asked to.
+   */
+  private List<String> getBranches(long now, boolean refresh, TaskListener listener) throws IOException, InterruptedException {
+    boolean fresh = branchList != null && !refresh && now - branchListed < TimeUnit.SECONDS.toMillis(BRANCH_LIST_SECONDS);
+    if(fresh) {
+      listener.getLogger().println(String.format("Using the branches of %s listed at %tT", getMainline(), new Date(branchListed)));
+      return branchList;
+    }
+    branchList = listBranches(listener);
+    branchListed = now;
+    return branchList;
+  }
+
+  /**
+   * Runs 'sscm lsbranch' for the mainline.
+   *
+   * @return Returns the names of the branches, in the order the server listed them.
+   */
+  private List<String> listBranches(TaskListener listener) throws IOException, InterruptedException {
+    List<String> args = new ArrayList<String>();
+    args.add("lsbranch");
+    args.add("-p".concat(getMainline()));
+
+    SurroundSCM scm = createSCM(getMainline());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int cmdResult = scm.launchOnController(SscmOperation.BROWSE, getOwner(), scm.getLocation(), args, output, listener);
+    if(cmdResult != 0) {
+      throw new IOException("Listing branches failed with exit code " + cmdResult + ": " + output.toString("UTF-8"));
+    }
+    return parseBranches(output.toString("UTF-8"));
+  }
+
+  /**
+   * Parses 'sscm lsbranch' output, one branch per line, optionally followed by the branch type in parentheses.
+   */
+  static List<String> parseBranches(String output) throws IOException {
+    List<String> result = new ArrayList<String>();
+    BufferedReader br = new BufferedReader(new StringReader(output));
+    String line;
+    while((line = br.readLine()) != null) {
+      line = line.trim();
+      int type = line.lastIndexOf(" (");
+      if(type > 0 && line.endsWith(")"))
+        line = line.substring(0, type).trim();
+      if(!line.isEmpty() && !result.contains(line))
+        result.add(line);
+    }
+    return result;
+  }
+
+  /**
+   * Starts {@link #hasChanges(String, Date, Date, TaskListener)} on the shared pool.
+   */
+  private Future<Boolean> checkForChanges(final String branch, final Date from, final Date to,
+                                          final TaskListener listener) {
+    return EXECUTOR.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return hasChanges(branch, from, to, listener);
+      }
+    });
+  }
+
+  /**
+   * Waits for a check started by {@link #checkForChanges(String, Date, Date, TaskListener)}.
+   */
+  @CheckForNull
+  private static Boolean getResult(Future<Boolean> check) throws IOException, InterruptedException {
+    try {
+      return check.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException)
+        throw (IOException) cause;
+      if(cause instanceof InterruptedException)
+        throw (InterruptedException) cause;
+      throw new IOException("Checking for changes failed", cause);
+    }
+  }
+
+  /**
+   * Runs 'sscm cc' to find out whether a branch changed between two scans.
+   *
+   * @return Returns whether the branch changed, or null if that could not be found out.
+   */
+  @CheckForNull
+  private Boolean hasChanges(String branch, Date from, Date to, TaskListener listener) throws IOException, InterruptedException {
+    SimpleDateFormat scm_datetime_formatter = new SimpleDateFormat(SURROUND_DATETIME_FORMAT_STR);
+
+    List<String> args = new ArrayList<String>();
+    args.add("cc");
+    args.add("/");
+    args.add("-d" + scm_datetime_formatter.format(from) + ":" + scm_datetime_formatter.format(to));
+    args.add("-b".concat(branch));
+    args.add("-p".concat(repository));
+    args.add("-r");
+
+    SurroundSCM scm = createSCM(branch);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int cmdResult = scm.launchOnController(SscmOperation.POLLING, getOwner(), scm.getLocation(), args, output, listener);
+    if(cmdResult != 0) {
+      listener.error("Checking " + branch + " for changes failed with exit code " + cmdResult + ": " + output.toString("UTF-8"));
+      return null;
+    }
+    return parseHasChanges(output.toString("UTF-8"), branch, listener);
+  }
+
+  /**
+   * Parses the count line 'sscm cc' starts its output with.
+   *
+   * @return Returns whether the count is above zero, or null if the output has no count.
+   */
+  @CheckForNull
+  static Boolean parseHasChanges(String output, String branch, TaskListener listener) throws IOException {
+    String line = new BufferedReader(new StringReader(output)).readLine();
+    if(line == null) {
+      listener.error("No output checking " + branch + " for changes");
+      return null;
+    }
+    try {
+      return SurroundSCM.parseChangeCount(line) > 0;
+    } catch (NumberFormatException e) {
+      listener.error("Unexpected output checking " + branch + " for changes: " + line);
+      return null;
+    }
+  }
+
+  @CheckForNull
+  private XmlFile getCacheFile() {
+    SCMSourceOwner owner = getOwner();
+    if(owner == null)
+      return null;
+    return new XmlFile(new File(owner.getRootDir(), "surround-scm-branches-" + Util.getDigestOf(getId()) + ".xml"));
+  }
+
+  @Nonnull
+  private BranchCache loadCache() {
+    if(cache == null) {
+      cache = new BranchCache(0);
+      XmlFile file = getCacheFile();
+      if(file != null && file.exists()) {
+        try {
+          cache = (BranchCache) file.read();
+        } catch (IOException e) {
+          // Start over with an empty cache, every branch will be reported with a new revision once.
+          cache = new BranchCache(0);
+        }
+      }
+    }
+    return cache;
+  }
+
+  private void saveCache(BranchCache next) throws IOException {
+    cache = next;
+    XmlFile file = getCacheFile();
+    if(file != null)
+      file.write(next);
+  }
+
+  /**
+   * Branches seen by the previous scan, the timestamp each one last changed at and up to when it was checked.
+   */
+  static final class BranchCache {
+    final long lastScan;
+    final Map<String, Long> revisions = new HashMap<String, Long>();
+
+    /**
+     * Null in caches saved before branches were checked individually, every branch was checked at the last scan.
+     */
+    final Map<String, Long> checked = new HashMap<String, Long>();
+
+    BranchCache(long lastScan) {
+      this.lastScan = lastScan;
+    }
+
+    long getChecked(String branch) {
+      Long result = checked != null ? checked.get(branch) : null;
+      return result != null ? result : lastScan;
+    }
+  }
+
+  @Extension
+  public static class DescriptorImpl extends SCMSourceDescriptor {
+    @Override
+    public String getDisplayName() {
+      return "Surround SCM";
+    }
+
+    @SuppressWarnings("unused") // This is called via Stapler
+    public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item context, @QueryParameter String remote) {
+      return SSCMUtils.doFillCredentialsIdItems(context, remote);
+    }
+
+    @SuppressWarnings("unused") // This is called via Stapler
+    public ListBoxModel doFillRsaKeyFileIdItems(@AncestorInPath Item context, @QueryParameter String remote) {
+      return SSCMUtils.doFillRsaKeyFileIdItems(context, remote);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DirScanner;
+import hudson.util.io.ArchiverFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares one retrieval of a {@link SurroundSCM} between every checkout of it in a build, ex. the parallel stages of
+ * a pipeline each running 'checkout scm' on their own agent, see {@link SurroundSCM#isShareCheckout()}.
+ *
+ * The first checkout of a {@link SurroundSCM#getKey()} in a build fixes the timestamp, runs 'sscm get' as usual and
+ * packs the retrieved directories into a compressed tar file in the build directory. The other checkouts use the
+ * same timestamp, wait for it and unpack the file into their workspace over the agent channel. When the previous
+ * build dates match they copy its changelog too, otherwise they capture their own. If the first checkout fails they
+ * fall back to running 'sscm get' themselves. The files are deleted once the build is finished.
+ *
+ * Only retrieved files are shared. A location retrieved into the workspace root is only shared when the root was
+ * empty before the first checkout, otherwise build output left behind by earlier builds would be packed too. RSA key
+ * files never are.
+ */
+public final class SurroundSnapshot {
+  /**
+   * Snapshots of running builds, keyed by build and {@link SurroundSCM#getKey()}.
+   */
+  private static final ConcurrentMap<String, SurroundSnapshot> SNAPSHOTS = new ConcurrentHashMap<String, SurroundSnapshot>();
+
+  private final String buildId;
+  private final Date timestamp;
+  private final File archive;
+  private final AtomicBoolean claimed = new AtomicBoolean();
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  // Only used by the first checkout.
+  private boolean rootEmpty;
+
+  // Written by the first checkout before done is counted down, read by the others after.
+  private boolean available;
+  private Map<String, Date> lastBuildDates;
+  private File changelog;
+
+  private SurroundSnapshot(String buildId, Date timestamp, File archive) {
+    this.buildId = buildId;
+    this.timestamp = timestamp;
+    this.archive = archive;
+  }
+
+  private static String getBuildId(Run<?, ?> build) {
+    return build.getParent().getFullName() + '#' + build.getNumber();
+  }
+
+  /**
+   * @param timestamp Timestamp the checkout would use, becomes the timestamp of the snapshot if there is none yet
+   * @return Returns the snapshot of the configuration in the build.
+   */
+  static SurroundSnapshot of(Run<?, ?> build, String key, Date timestamp) {
+    String buildId = getBuildId(build);
+    String id = buildId + '\n' + key;
+    SurroundSnapshot snapshot = SNAPSHOTS.get(id);
+    if(snapshot == null) {
+      File archive = new File(build.getRootDir(), "surround-snapshot-" + Util.getDigestOf(key) + ".tgz");
+      SurroundSnapshot created = new SurroundSnapshot(buildId, timestamp, archive);
+      snapshot = SNAPSHOTS.putIfAbsent(id, created);
+      if(snapshot == null)
+        snapshot = created;
+    }
+    return snapshot;
+  }
+
+  /**
+   * @param workspace Workspace of the checkout, before anything is retrieved into it
+   * @return Returns true for the first checkout to call this, the one that retrieves the files. It must call
+   *         {@link #release()} once it is done.
+   */
+  boolean claim(FilePath workspace) throws IOException, InterruptedException {
+    if(!claimed.compareAndSet(false, true))
+      return false;
+    rootEmpty = !workspace.exists() || workspace.list().isEmpty();
+    return true;
+  }
+
+  /**
+   * @return Returns the timestamp every checkout of the build retrieves as of.
+   */
+  Date getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Packs what the first checkout retrieved for the others.
+   *
+   * @param changelogFile  Changelog the first checkout captured, if any
+   * @param lastBuildDates Previous build dates the changelog was captured from
+   */
+  void save(FilePath workspace, List<SurroundLocation> targets, @CheckForNull File changelogFile,
+            Map<String, Date> lastBuildDates, TaskListener listener) throws IOException, InterruptedException {
+    StringBuilder includes = new StringBuilder();
+    for(SurroundLocation target : targets) {
+      if(target.getSubdirectory() == null) {
+        if(!rootEmpty) {
+          listener.getLogger().println("Not sharing this checkout with the other checkouts of the build, " +
+                  "the workspace held other files before it.");
+          return;
+        }
+        includes.setLength(0);
+        includes.append("**");
+        break;
+      }
+      if(includes.length() > 0)
+        includes.append(',');
+      includes.append(target.getSubdirectory()).append("/**");
+    }
+
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(archive));
+    try {
+      workspace.archive(ArchiverFactory.TARGZ, os, new DirScanner.Glob(includes.toString(),
+              "**/" + SurroundSCM.RSA_KEY_FILE_PREFIX + "*" + SurroundSCM.RSA_KEY_FILE_SUFFIX, false));
+    } finally {
+      os.close();
+    }
+    listener.getLogger().println("Shared this checkout with the other checkouts of the build (" + archive.length() + " bytes).");
+    changelog = changelogFile;
+    this.lastBuildDates = new HashMap<String, Date>(lastBuildDates);
+    available = true;
+  }
+
+  /**
+   * Lets the other checkouts continue, whether or not {@link #save} was called.
+   */
+  void release() {
+    done.countDown();
+  }
+
+  /**
+   * Unpacks the files the first checkout retrieved into the workspace, after waiting for it.
+   *
+   * @return Returns false if the first checkout failed and this one has to retrieve the files itself.
+   */
+  boolean copyTo(FilePath workspace, List<SurroundLocation> targets, TaskListener listener) throws IOException, InterruptedException {
+    listener.getLogger().println("Waiting for the first checkout of this configuration in the build.");
+    done.await();
+    boolean result = available;
+    SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_SNAPSHOTS, result);
+    if(!result) {
+      listener.getLogger().println("The first checkout did not succeed, retrieving the files with sscm get.");
+      return false;
+    }
+
+    boolean current = true;
+    for(SurroundLocation target : targets) {
+      FilePath destination = target.getSubdirectory() != null ? workspace.child(target.getSubdirectory()) : workspace;
+      SurroundWorkspaceManifest manifest = SurroundWorkspaceManifest.read(destination);
+      current &= manifest != null && manifest.matches(target.getLocation().getKey(), timestamp);
+    }
+    if(current) {
+      listener.getLogger().println("The workspace already has the files of the first checkout.");
+      return true;
+    }
+
+    listener.getLogger().println("Copying the files of the first checkout into " + workspace);
+    InputStream is = new BufferedInputStream(new FileInputStream(archive));
+    try {
+      workspace.untarFrom(is, FilePath.TarCompression.GZIP);
+    } finally {
+      is.close();
+    }
+    return true;
+  }
+
+  /**
+   * Copies the changelog of the first checkout if it was captured from the same previous build dates.
+   *
+   * @return Returns false if this checkout has to capture its own changelog.
+   */
+  boolean copyChangeLog(Map<String, Date> lastBuildDates, File changelogFile) throws IOException {
+    File source = changelog;
+    if(!available || source == null || !source.exists() || !lastBuildDates.equals(this.lastBuildDates))
+      return false;
+    Files.copy(source.toPath(), changelogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return true;
+  }
+
+  /**
+   * Deletes the snapshots of a build once it is finished.
+   */
+  @Extension
+  public static final class Cleanup extends RunListener<Run<?, ?>> {
+    @Override
+    public void onFinalized(Run<?, ?> build) {
+      String buildId = getBuildId(build);
+      for(Iterator<SurroundSnapshot> it = SNAPSHOTS.values().iterator(); it.hasNext(); ) {
+        SurroundSnapshot snapshot = it.next();
+        if(snapshot.buildId.equals(buildId)) {
+          it.remove();
+          if(!snapshot.archive.delete() && snapshot.archive.exists())
+            snapshot.archive.deleteOnExit();
+        }
+      }
+    }
+  }
+}
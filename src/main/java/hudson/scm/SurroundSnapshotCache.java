@@ -0,0 +1,330 @@
+package hudson.scm;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Cache of retrieved locations on a file system shared by the agents, for agents that start every build with an
+ * empty workspace. See {@link SurroundSCM.SurroundSCMDescriptor#getSnapshotCachePath()}.
+ *
+ * Before 'sscm get' fills an empty directory, the newest snapshot of the location taken at or before the timestamp is
+ * unpacked into it, so 'sscm get' only retrieves what changed since. After 'sscm get' filled an empty directory a
+ * snapshot of it is added, unless the cache has one less than {@link #MIN_SNAPSHOT_AGE_MS} older.
+ *
+ * Each snapshot is a directory named after its timestamp holding a zip file, whose entries are unpacked by several
+ * threads at once. The least recently used snapshots are deleted when the cache outgrows its size limit.
+ *
+ * <pre>
+ *   cache/&lt;digest of location key&gt;/&lt;timestamp&gt;/snapshot.zip
+ *                                                  /last-used
+ * </pre>
+ */
+final class SurroundSnapshotCache {
+  /**
+   * Snapshots of a location are taken at most this often.
+   */
+  static final long MIN_SNAPSHOT_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final String ARCHIVE = "snapshot.zip";
+  private static final String LAST_USED = "last-used";
+  private static final int MAX_THREADS = 8;
+
+  private SurroundSnapshotCache() {
+  }
+
+  /**
+   * Fills an empty directory from the newest snapshot of the location taken at or before the timestamp.
+   *
+   * @return Returns true if a snapshot was unpacked.
+   */
+  static boolean restore(FilePath destination, SscmLocation loc, Date timestamp, TaskListener listener) throws InterruptedException {
+    String root = SurroundSCM.DESCRIPTOR.getSnapshotCachePath();
+    if(root == null)
+      return false;
+
+    long started = System.currentTimeMillis();
+    Long restored;
+    try {
+      destination.mkdirs();
+      restored = destination.act(new Restore(root, Util.getDigestOf(loc.getKey()), timestamp.getTime()));
+    } catch (IOException e) {
+      // sscm get retrieves whatever the snapshot did not provide.
+      e.printStackTrace(listener.error("Failed to unpack the cached snapshot of " + loc));
+      restored = null;
+    }
+    SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_WORKSPACE_SNAPSHOTS, restored != null);
+    if(restored == null) {
+      listener.getLogger().println("No cached snapshot of " + loc + ", retrieving every file.");
+      return false;
+    }
+    listener.getLogger().println(String.format("Unpacked the cached snapshot of %s as of %tF %<tT in %d ms, " +
+            "retrieving what changed since.", loc, new Date(restored), System.currentTimeMillis() - started));
+    return true;
+  }
+
+  /**
+   * Adds a snapshot of a directory 'sscm get' just filled, then evicts snapshots until the cache fits its limit.
+   */
+  static void save(FilePath destination, SscmLocation loc, Date timestamp, TaskListener listener) throws InterruptedException {
+    String root = SurroundSCM.DESCRIPTOR.getSnapshotCachePath();
+    if(root == null)
+      return;
+
+    long maxBytes = SurroundSCM.DESCRIPTOR.getSnapshotCacheMaxMegabytes() * 1024L * 1024L;
+    try {
+      Long size = destination.act(new Save(root, Util.getDigestOf(loc.getKey()), timestamp.getTime(), maxBytes));
+      if(size != null)
+        listener.getLogger().println("Added a " + size / 1024 + " KB snapshot of " + loc + " to the cache.");
+    } catch (IOException e) {
+      e.printStackTrace(listener.error("Failed to add a snapshot of " + loc + " to the cache"));
+    }
+  }
+
+  /**
+   * @return Returns the newest snapshot directory of a location at or before the timestamp, or null if there is none.
+   */
+  @CheckForNull
+  private static File nearest(File keyDir, long timestamp) {
+    File result = null;
+    long best = Long.MIN_VALUE;
+    File[] snapshots = keyDir.listFiles();
+    if(snapshots == null)
+      return null;
+    for(File snapshot : snapshots) {
+      long t = timestampOf(snapshot);
+      if(t <= timestamp && t > best && new File(snapshot, ARCHIVE).isFile()) {
+        best = t;
+        result = snapshot;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return Returns the timestamp a snapshot directory is named after, or Long.MAX_VALUE for other files.
+   */
+  private static long timestampOf(File snapshot) {
+    try {
+      return Long.parseLong(snapshot.getName());
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private static void touch(File file) throws IOException {
+    if(!file.createNewFile() && !file.setLastModified(System.currentTimeMillis()))
+      throw new IOException("Failed to touch " + file);
+  }
+
+  /**
+   * Unpacks the snapshot, returning its timestamp or null if there is none.
+   */
+  private static final class Restore extends MasterToSlaveFileCallable<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final String root;
+    private final String digest;
+    private final long timestamp;
+
+    Restore(String root, String digest, long timestamp) {
+      this.root = root;
+      this.digest = digest;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public Long invoke(final File dir, VirtualChannel channel) throws IOException, InterruptedException {
+      File snapshot = nearest(new File(root, digest), timestamp);
+      if(snapshot == null)
+        return null;
+      touch(new File(snapshot, LAST_USED));
+
+      final ZipFile zip = new ZipFile(new File(snapshot, ARCHIVE));
+      try {
+        final List<? extends ZipEntry> entries = Collections.list(zip.entries());
+        final int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+          List<Future<Void>> results = new ArrayList<Future<Void>>();
+          for(int t = 0; t < threads; t++) {
+            final int first = t;
+            results.add(pool.submit(new Callable<Void>() {
+              @Override
+              public Void call() throws IOException {
+                for(int i = first; i < entries.size(); i += threads) {
+                  unpack(zip, entries.get(i), dir);
+                }
+                return null;
+              }
+            }));
+          }
+          for(Future<Void> result : results) {
+            result.get();
+          }
+        } catch (ExecutionException e) {
+          throw new IOException("Failed to unpack " + snapshot, e.getCause());
+        } finally {
+          pool.shutdownNow();
+        }
+      } finally {
+        zip.close();
+      }
+      return timestampOf(snapshot);
+    }
+
+    private static void unpack(ZipFile zip, ZipEntry entry, File dir) throws IOException {
+      File file = new File(dir, entry.getName());
+      if(!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator))
+        throw new IOException("Snapshot entry outside of the workspace: " + entry.getName());
+      File parent = file.getParentFile();
+      if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+        throw new IOException("Failed to create " + parent);
+      InputStream is = zip.getInputStream(entry);
+      try {
+        Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        is.close();
+      }
+      // sscm compares timestamps to find out-of-date files.
+      file.setLastModified(entry.getTime());
+    }
+  }
+
+  /**
+   * Adds a snapshot of the directory and evicts old ones, returning its size or null if none was added.
+   */
+  private static final class Save extends MasterToSlaveFileCallable<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final String root;
+    private final String digest;
+    private final long timestamp;
+    private final long maxBytes;
+
+    Save(String root, String digest, long timestamp, long maxBytes) {
+      this.root = root;
+      this.digest = digest;
+      this.timestamp = timestamp;
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public Long invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+      File keyDir = new File(root, digest);
+      File previous = nearest(keyDir, timestamp);
+      if(previous != null && timestamp - timestampOf(previous) < MIN_SNAPSHOT_AGE_MS)
+        return null;
+
+      // Written under a temporary name so agents sharing the cache never see a partial snapshot.
+      File tmp = new File(keyDir, ".tmp-" + UUID.randomUUID());
+      if(!tmp.mkdirs())
+        throw new IOException("Failed to create " + tmp);
+      File archive = new File(tmp, ARCHIVE);
+      try {
+        pack(dir, archive);
+        touch(new File(tmp, LAST_USED));
+      } catch (IOException e) {
+        Util.deleteRecursive(tmp);
+        throw e;
+      }
+      long size = archive.length();
+      if(!tmp.renameTo(new File(keyDir, Long.toString(timestamp)))) {
+        // Another agent added the same snapshot.
+        Util.deleteRecursive(tmp);
+        return null;
+      }
+      evict(new File(root), maxBytes);
+      return size;
+    }
+
+    private static void pack(File dir, File archive) throws IOException {
+      final Path base = dir.toPath();
+      final ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+      try {
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            // Credentials never go into a cache other jobs unpack from.
+            if(!attrs.isRegularFile() || SurroundSCM.isRSAKeyFile(file.getFileName().toString()))
+              return FileVisitResult.CONTINUE;
+            ZipEntry entry = new ZipEntry(base.relativize(file).toString().replace(File.separatorChar, '/'));
+            entry.setTime(attrs.lastModifiedTime().toMillis());
+            zip.putNextEntry(entry);
+            Files.copy(file, zip);
+            zip.closeEntry();
+            return FileVisitResult.CONTINUE;
+          }
+        });
+      } finally {
+        zip.close();
+      }
+    }
+
+    /**
+     * Deletes the least recently used snapshots until the cache holds no more than the limit.
+     */
+    private static void evict(File root, long maxBytes) throws IOException {
+      List<File> snapshots = new ArrayList<File>();
+      long total = 0;
+      File[] keyDirs = root.listFiles();
+      for(File keyDir : keyDirs != null ? keyDirs : new File[0]) {
+        File[] children = keyDir.listFiles();
+        for(File snapshot : children != null ? children : new File[0]) {
+          File archive = new File(snapshot, ARCHIVE);
+          if(timestampOf(snapshot) != Long.MAX_VALUE && archive.isFile()) {
+            snapshots.add(snapshot);
+            total += archive.length();
+          }
+        }
+      }
+      if(total <= maxBytes)
+        return;
+
+      Collections.sort(snapshots, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          long x = new File(a, LAST_USED).lastModified();
+          long y = new File(b, LAST_USED).lastModified();
+          return x < y ? -1 : x > y ? 1 : 0;
+        }
+      });
+      for(File snapshot : snapshots) {
+        if(total <= maxBytes)
+          break;
+        total -= new File(snapshot, ARCHIVE).length();
+        Util.deleteRecursive(snapshot);
+      }
+    }
+  }
+}
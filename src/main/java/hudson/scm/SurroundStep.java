@@ -7,6 +7,7 @@ import hudson.Util;
 import hudson.model.Item;
 import hudson.model.Job;
 import hudson.scm.config.RSAKey;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import org.jenkinsci.plugins.plaincredentials.FileCredentials;
 import org.jenkinsci.plugins.workflow.steps.scm.SCMStep;
@@ -20,6 +21,9 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Runs Surround SCM using {@link SurroundSCM}
@@ -29,6 +33,20 @@ public class SurroundStep extends SCMStep {
   private final String credentialsId;
   private RSAKey rsaKey;
 
+  /**
+   * Parsed form of {@link #url}, built on first use.
+   */
+  private transient volatile SscmLocation location;
+
+  private List<SurroundLocation> locations;
+  private int concurrency;
+  private boolean prefetch;
+  private boolean shareCheckout;
+  private String timestamp;
+  private String label;
+  private String excludedUsers;
+  private String excludedComments;
+
   @DataBoundConstructor
   public SurroundStep(String url, String credentialsId)
   {
@@ -57,16 +75,100 @@ public class SurroundStep extends SCMStep {
   @DataBoundSetter
   public void setRsaKey(RSAKey rsaKey) { this.rsaKey = rsaKey; }
 
+  /**
+   * @param locations Additional repositories to retrieve, each into its own sub directory.
+   */
+  @DataBoundSetter
+  public void setLocations(List<SurroundLocation> locations) {
+    this.locations = locations == null || locations.isEmpty() ? null : new ArrayList<SurroundLocation>(locations);
+  }
+
+  /**
+   * @param concurrency Maximum number of locations to retrieve at the same time.
+   */
+  @DataBoundSetter
+  public void setConcurrency(int concurrency) {
+    this.concurrency = Math.max(0, concurrency);
+  }
+
+  /**
+   * @param prefetch Update the workspace of the last checkout as soon as polling finds changes.
+   */
+  @DataBoundSetter
+  public void setPrefetch(boolean prefetch) {
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * @param shareCheckout Retrieve the files once per build and copy them to the other checkouts of the build.
+   */
+  @DataBoundSetter
+  public void setShareCheckout(boolean shareCheckout) {
+    this.shareCheckout = shareCheckout;
+  }
+
+  /**
+   * @param timestamp Retrieve the files as of this time, yyyyMMddHHmmss, instead of the latest files.
+   */
+  @DataBoundSetter
+  public void setTimestamp(String timestamp) {
+    this.timestamp = Util.fixEmptyAndTrim(timestamp);
+  }
+
+  /**
+   * @param label Retrieve the files with this label instead of the latest files.
+   */
+  @DataBoundSetter
+  public void setLabel(String label) {
+    this.label = Util.fixEmptyAndTrim(label);
+  }
+
+  /**
+   * @param excludedUsers User names, one per line, whose changes polling ignores.
+   */
+  @DataBoundSetter
+  public void setExcludedUsers(String excludedUsers) {
+    this.excludedUsers = Util.fixEmptyAndTrim(excludedUsers);
+  }
+
+  /**
+   * @param excludedComments Regular expressions, one per line, polling ignores changes whose comment contains a match of.
+   */
+  @DataBoundSetter
+  public void setExcludedComments(String excludedComments) {
+    this.excludedComments = Util.fixEmptyAndTrim(excludedComments);
+  }
+
+  /**
+   * @return Returns the parsed {@link #url}. An invalid url results in a location with empty components.
+   */
+  @Nonnull
+  public SscmLocation getLocation() {
+    SscmLocation result = location;
+    if(result == null) {
+      result = SscmLocation.parse(url);
+      if(result == null)
+        result = new SscmLocation("", "", "", "");
+      location = result;
+    }
+    return result;
+  }
+
   @Nonnull
   @Override
   protected SCM createSCM() {
-    String server = SSCMUtils.getServerFromURL(url);
-    String port = SSCMUtils.getPortFromURL(url);
-    String branch = SSCMUtils.getBranchFromURL(url);
-    String repository = SSCMUtils.getRepositoryFromURL(url);
+    SscmLocation loc = getLocation();
 
-    SurroundSCM sscm = new SurroundSCM(server, port, branch, repository, credentialsId);
+    SurroundSCM sscm = new SurroundSCM(loc.getServer(), loc.getPort(), loc.getBranch(), loc.getRepository(), credentialsId);
     sscm.setRsaKey(rsaKey);
+    sscm.setLocations(locations);
+    sscm.setConcurrency(concurrency);
+    sscm.setPrefetch(prefetch);
+    sscm.setShareCheckout(shareCheckout);
+    sscm.setTimestamp(timestamp);
+    sscm.setLabel(label);
+    sscm.setExcludedUsers(excludedUsers);
+    sscm.setExcludedComments(excludedComments);
     return sscm;
   }
 
@@ -95,6 +197,46 @@ public class SurroundStep extends SCMStep {
     return credentialsId;
   }
 
+  @Exported
+  public List<SurroundLocation> getLocations() {
+    return locations == null ? Collections.<SurroundLocation>emptyList() : Collections.unmodifiableList(locations);
+  }
+
+  @Exported
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  @Exported
+  public boolean isPrefetch() {
+    return prefetch;
+  }
+
+  @Exported
+  public boolean isShareCheckout() {
+    return shareCheckout;
+  }
+
+  @Exported
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  @Exported
+  public String getLabel() {
+    return label;
+  }
+
+  @Exported
+  public String getExcludedUsers() {
+    return excludedUsers;
+  }
+
+  @Exported
+  public String getExcludedComments() {
+    return excludedComments;
+  }
+
   /**
    * So... the RSA key combobox requires we use an RSAKey object, however forcing users to define an RSA key object
    * for pipelines is annoying as hell.
@@ -127,19 +269,13 @@ public class SurroundStep extends SCMStep {
   @Exported
   @CheckForNull
   public StandardUsernameCredentials getCredentials(Job<?,?> owner, EnvVars env) {
-    String server = SSCMUtils.getServerFromURL(url);
-    String port = SSCMUtils.getPortFromURL(url);
-
-    return SSCMUtils.getCredentials(owner, env, server, port, credentialsId);
+    return SSCMUtils.getCredentials(owner, env, getLocation(), credentialsId);
   }
 
   @Exported
   @CheckForNull
   public FileCredentials getFileCredentials(Job<?,?> owner, EnvVars env) {
-    String server = SSCMUtils.getServerFromURL(url);
-    String port = SSCMUtils.getPortFromURL(url);
-
-    return SSCMUtils.getFileCredentials(owner, env, server ,port, rsaKey);
+    return SSCMUtils.getFileCredentials(owner, env, getLocation(), rsaKey);
   }
 
   @Extension
@@ -174,5 +310,9 @@ public class SurroundStep extends SCMStep {
     public ListBoxModel doFillRsaKeyFileIdItems(@AncestorInPath Item context, @QueryParameter String remote) {
       return SSCMUtils.doFillRsaKeyFileIdItems(context, remote);
     }
+
+    public FormValidation doCheckExcludedComments(@QueryParameter String value) {
+      return SurroundChangeFilter.checkComments(value);
+    }
   }
 }
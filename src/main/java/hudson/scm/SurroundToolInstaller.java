@@ -0,0 +1,240 @@
+package hudson.scm;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import hudson.util.FormValidation;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Installs the sscm CLI on a node by unpacking a zip or tar.gz archive, ex. one kept in the controller's userContent
+ * directory or a file: URL pointing at a share the agents mount. The node downloads and unpacks the archive itself.
+ *
+ * Installations are kept per SHA-256 of the archive under the tool directory of the node, so a node unpacks each
+ * archive once and changing the archive and its checksum installs the new CLI next to the old one. Builds starting
+ * on a fresh agent at the same time wait for a single installation, the unpacked directory only appears under its
+ * final name once it is complete.
+ *
+ * <pre>
+ *   &lt;node root&gt;/tools/hudson.scm.SurroundTool/&lt;tool name&gt;/&lt;sha-256&gt;/...
+ * </pre>
+ */
+public class SurroundToolInstaller extends ToolInstaller {
+  private final String url;
+  private final String checksum;
+
+  @DataBoundConstructor
+  public SurroundToolInstaller(String label, String url, String checksum) {
+    super(label);
+    this.url = Util.fixEmptyAndTrim(url);
+    this.checksum = Util.fixEmptyAndTrim(checksum) != null ? checksum.trim().toLowerCase(Locale.ENGLISH) : null;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  /**
+   * @return Returns the sscm executable, which {@link SurroundTool} uses as its home.
+   */
+  @Override
+  public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+    if(url == null || checksum == null)
+      throw new IOException("The Surround SCM CLI installer of " + tool.getName() + " needs an archive URL and its SHA-256 checksum");
+
+    FilePath dir = preferredLocation(tool, node);
+    dir.mkdirs();
+    Installed installed = dir.act(new Install(url, checksum));
+    SurroundSCMDashboard.cacheAccess(SurroundSCMDashboard.CACHE_TOOL_INSTALLS, !installed.unpacked);
+    if(installed.unpacked)
+      log.getLogger().println("Unpacked the Surround SCM CLI from " + url + " on " + node.getDisplayName());
+    return new FilePath(node.getChannel(), installed.exe);
+  }
+
+  /**
+   * Outcome of an {@link Install}.
+   */
+  private static final class Installed implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String exe;
+    private final boolean unpacked;
+
+    Installed(File exe, boolean unpacked) {
+      this.exe = exe.getPath();
+      this.unpacked = unpacked;
+    }
+  }
+
+  /**
+   * Unpacks the archive into a directory named after its checksum unless it is already there.
+   */
+  private static final class Install extends MasterToSlaveFileCallable<Installed> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Installations in progress in this JVM, keyed by target directory. The node runs every installation of a tool,
+     * so concurrent builds on it queue up here rather than unpacking the archive side by side.
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final String url;
+    private final String checksum;
+
+    Install(String url, String checksum) {
+      this.url = url;
+      this.checksum = checksum;
+    }
+
+    @Override
+    public Installed invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+      File target = new File(dir, checksum);
+      File exe = find(target);
+      if(exe != null)
+        return new Installed(exe, false);
+
+      Object lock = new Object();
+      Object previous = LOCKS.putIfAbsent(target.getPath(), lock);
+      synchronized (previous != null ? previous : lock) {
+        exe = find(target);
+        if(exe != null)
+          return new Installed(exe, false);
+
+        File archive = new File(dir, "." + UUID.randomUUID() + ".download");
+        File unpacked = new File(dir, "." + UUID.randomUUID());
+        try {
+          download(archive);
+          if(url.toLowerCase(Locale.ENGLISH).endsWith(".zip"))
+            new FilePath(archive).unzip(new FilePath(unpacked));
+          else
+            new FilePath(archive).untar(new FilePath(unpacked), FilePath.TarCompression.GZIP);
+          if(find(unpacked) == null)
+            throw new IOException("No sscm executable in " + url);
+          // Another node process sharing the directory may have finished first, its installation is just as good.
+          if(!unpacked.renameTo(target) && !target.isDirectory())
+            throw new IOException("Failed to move the Surround SCM CLI to " + target);
+        } finally {
+          Util.deleteFile(archive);
+          if(unpacked.exists())
+            Util.deleteRecursive(unpacked);
+        }
+        exe = find(target);
+        if(exe == null)
+          throw new IOException("No sscm executable in " + target);
+        if(File.pathSeparatorChar != ';' && !exe.canExecute() && !exe.setExecutable(true, false))
+          throw new IOException("Failed to make " + exe + " executable");
+        return new Installed(exe, true);
+      }
+    }
+
+    /**
+     * Copies the archive to a file, failing unless its SHA-256 is the expected checksum.
+     */
+    private void download(File archive) throws IOException {
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+      }
+      InputStream in = new DigestInputStream(new URL(url).openStream(), digest);
+      try {
+        OutputStream out = new FileOutputStream(archive);
+        try {
+          Util.copyStream(in, out);
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+      String actual = Util.toHexString(digest.digest());
+      if(!actual.equals(checksum))
+        throw new IOException("The SHA-256 checksum of " + url + " is " + actual + ", expected " + checksum);
+    }
+
+    /**
+     * @return Returns the sscm executable nearest to the top of the directory, or null if there is none.
+     */
+    private static File find(File dir) {
+      Deque<File> dirs = new ArrayDeque<File>();
+      dirs.add(dir);
+      while(!dirs.isEmpty()) {
+        File[] children = dirs.poll().listFiles();
+        if(children == null)
+          continue;
+        for(File child : children) {
+          if(child.isFile() && (child.getName().equals("sscm") || child.getName().equalsIgnoreCase("sscm.exe")))
+            return child;
+        }
+        for(File child : children) {
+          if(child.isDirectory())
+            dirs.add(child);
+        }
+      }
+      return null;
+    }
+  }
+
+  @Extension @Symbol("sscmArchive")
+  public static final class DescriptorImpl extends ToolInstallerDescriptor<SurroundToolInstaller> {
+    @Override
+    public String getDisplayName() {
+      return "Extract Surround SCM CLI archive";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+      return toolType == SurroundTool.class;
+    }
+
+    public FormValidation doCheckUrl(@QueryParameter String value) {
+      if(Util.fixEmptyAndTrim(value) == null)
+        return FormValidation.error("Required");
+      try {
+        new URL(value.trim());
+        return FormValidation.ok();
+      } catch (MalformedURLException e) {
+        return FormValidation.error("Not a URL: " + e.getMessage());
+      }
+    }
+
+    public FormValidation doCheckChecksum(@QueryParameter String value) {
+      String checksum = Util.fixEmptyAndTrim(value);
+      if(checksum == null || !checksum.matches("[0-9a-fA-F]{64}"))
+        return FormValidation.error("Expected the SHA-256 of the archive as 64 hexadecimal digits");
+      return FormValidation.ok();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package hudson.scm;
+
+import hudson.FilePath;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Small file kept in each directory a location is retrieved into, recording which location was retrieved, as of
+ * which timestamp, and whether that retrieval finished.
+ */
+public final class SurroundWorkspaceManifest {
+  /**
+   * Name of the manifest file, hidden next to the Surround SCM working directory metadata.
+   */
+  public static final String FILE_NAME = ".sscm-jenkins-manifest";
+
+  private final String key;
+  private final long timestamp;
+  private final boolean complete;
+  private final long files;
+
+  public SurroundWorkspaceManifest(String key, Date timestamp, boolean complete, long files) {
+    this.key = key;
+    this.timestamp = timestamp.getTime();
+    this.complete = complete;
+    this.files = files;
+  }
+
+  /**
+   * @return Returns the {@link SscmLocation#getKey()} of the location retrieved into the directory.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return Returns the '-s' timestamp the location was retrieved as of.
+   */
+  public Date getTimestamp() {
+    return new Date(timestamp);
+  }
+
+  /**
+   * @return Returns true if 'sscm get' finished successfully, false if it was interrupted or failed part way.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * @return Returns the number of files 'sscm get' reported retrieving.
+   */
+  public long getFiles() {
+    return files;
+  }
+
+  /**
+   * @return Returns true if this manifest records a finished retrieval of the location as of the timestamp.
+   */
+  public boolean matches(String key, Date timestamp) {
+    return complete && this.key.equals(key) && this.timestamp == timestamp.getTime();
+  }
+
+  /**
+   * Reads the manifest from a directory.
+   *
+   * @return Returns the manifest, or null if the directory has none or it could not be read.
+   */
+  @CheckForNull
+  public static SurroundWorkspaceManifest read(FilePath dir) throws InterruptedException {
+    try {
+      FilePath file = dir.child(FILE_NAME);
+      if(!file.exists())
+        return null;
+
+      Properties props = new Properties();
+      InputStream is = file.read();
+      try {
+        props.load(is);
+      } finally {
+        is.close();
+      }
+      String key = props.getProperty("key");
+      if(key == null)
+        return null;
+      return new SurroundWorkspaceManifest(key, new Date(Long.parseLong(props.getProperty("timestamp", "0"))),
+              Boolean.parseBoolean(props.getProperty("complete")), Long.parseLong(props.getProperty("files", "0")));
+    } catch (IOException e) {
+      return null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the manifest into a directory, replacing any previous one.
+   */
+  public void write(FilePath dir) throws IOException, InterruptedException {
+    Properties props = new Properties();
+    props.setProperty("key", key);
+    props.setProperty("timestamp", Long.toString(timestamp));
+    props.setProperty("complete", Boolean.toString(complete));
+    props.setProperty("files", Long.toString(files));
+
+    OutputStream os = dir.child(FILE_NAME).write();
+    try {
+      props.store(os, "Surround SCM checkout");
+    } finally {
+      os.close();
+    }
+  }
+}
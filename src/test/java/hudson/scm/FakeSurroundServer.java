@@ -0,0 +1,451 @@
+package hudson.scm;
+
+import hudson.tools.ToolProperty;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a Surround SCM server, together with a fake 'sscm' executable talking to it.
+ *
+ * The repository is an in-memory list of check ins per branch. The executable is a small bash script that sends its
+ * arguments over a local socket and prints whatever the server answers, so it can be registered as a
+ * {@link SurroundTool} and driven by the plugin exactly like the real CLI. It supports 'get', 'cc' and 'lsbranch';
+ * latency, failures and the volume of 'get' output can be configured to load test the plugin.
+ *
+ * Only works where bash is available, the script uses bash's /dev/tcp.
+ */
+public class FakeSurroundServer implements Closeable {
+  /**
+   * Server name to configure jobs with, the fake executable ignores the connection arguments.
+   */
+  public static final String SERVER = "localhost";
+
+  /**
+   * Server port to configure jobs with.
+   */
+  public static final String PORT = "4900";
+
+  private static final String CC_DATE_FORMAT = "yyyyMMddHHmmss";
+  private static final String GET_DATE_FORMAT = "yyyyMMddHH:mm:ss";
+
+  private final Map<String, List<CheckIn>> branches = new LinkedHashMap<String, List<CheckIn>>();
+  private final ConcurrentHashMap<String, AtomicLong> commands = new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private final Random random = new Random(0);
+
+  private volatile long latencyMs;
+  private volatile double failureRate;
+  private final AtomicInteger failNext = new AtomicInteger();
+  private volatile String failCommand;
+  private volatile int paddingBytes;
+
+  private ServerSocket socket;
+  private ExecutorService executor;
+  private File executable;
+
+  /**
+   * Starts listening and writes the fake executable to a temporary directory.
+   */
+  public synchronized FakeSurroundServer start() throws IOException {
+    socket = new ServerSocket(0, 500, InetAddress.getByName("127.0.0.1"));
+    executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "FakeSurroundServer"));
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        acceptLoop();
+      }
+    });
+
+    File dir = File.createTempFile("fake-sscm", "");
+    if(!dir.delete() || !dir.mkdirs())
+      throw new IOException("Failed to create " + dir);
+    executable = new File(dir, "sscm");
+    PrintStream ps = new PrintStream(new FileOutputStream(executable), true, "UTF-8");
+    try {
+      ps.print("#!/bin/bash\n" +
+              "exec 3<>/dev/tcp/127.0.0.1/" + socket.getLocalPort() + " || exit 70\n" +
+              "{ printf '%d\\n' \"$#\"; for a in \"$@\"; do printf '%s\\0' \"$a\"; done; } >&3\n" +
+              "IFS= read -r code <&3\n" +
+              "cat <&3\n" +
+              "exit \"${code:-70}\"\n");
+    } finally {
+      ps.close();
+    }
+    if(!executable.setExecutable(true))
+      throw new IOException("Failed to make " + executable + " executable");
+    return this;
+  }
+
+  /**
+   * Registers the fake executable as the default {@link SurroundTool}.
+   */
+  public void installTool() {
+    SurroundTool.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(SurroundTool.DescriptorImpl.class);
+    descriptor.setInstallations(new SurroundTool(SurroundTool.DEFAULT_NAME, executable.getAbsolutePath(),
+            Collections.<ToolProperty<?>>emptyList()));
+  }
+
+  public File getExecutable() {
+    return executable;
+  }
+
+  /**
+   * Records a new version of a file, dated now.
+   *
+   * @param branch Branch to check in to, created if it does not exist
+   * @param path   Full repository path of the file, ex. "Mainline/Project/src/Main.java"
+   */
+  public void checkIn(String branch, String path, String content, String author, String comment) {
+    checkIn(branch, path, content, author, comment, new Date());
+  }
+
+  public synchronized void checkIn(String branch, String path, String content, String author, String comment, Date when) {
+    List<CheckIn> history = branch(branch);
+    int version = 1;
+    for(CheckIn c : history) {
+      if(c.path.equals(path))
+        version++;
+    }
+    // The CLI works in whole seconds.
+    long seconds = when.getTime() / 1000 * 1000;
+    history.add(new CheckIn(path, content, version, author, comment, seconds));
+  }
+
+  /**
+   * Creates an empty branch, so it shows up in 'lsbranch'.
+   */
+  public synchronized void addBranch(String branch) {
+    branch(branch);
+  }
+
+  private List<CheckIn> branch(String branch) {
+    List<CheckIn> history = branches.get(branch);
+    if(history == null) {
+      history = new ArrayList<CheckIn>();
+      branches.put(branch, history);
+    }
+    return history;
+  }
+
+  /**
+   * @param latencyMs Time every command waits before answering
+   */
+  public void setLatency(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * @param failureRate Share of commands, between 0 and 1, that fail with a server error
+   */
+  public void setFailureRate(double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  /**
+   * Makes the next commands fail with a server error.
+   */
+  public void failNext(int count) {
+    failNext(count, null);
+  }
+
+  /**
+   * Makes the next commands of one kind, "get", "cc"..., fail with a server error, or of any kind if null.
+   */
+  public void failNext(int count, String command) {
+    failCommand = command;
+    failNext.set(count);
+  }
+
+  /**
+   * @param paddingBytes Extra output every 'get' prints, to simulate verbose output
+   */
+  public void setOutputPadding(int paddingBytes) {
+    this.paddingBytes = paddingBytes;
+  }
+
+  /**
+   * @return Returns how many times a command was run, "get", "cc"..., or null for every command.
+   */
+  public long getCommandCount(String command) {
+    if(command == null) {
+      long total = 0;
+      for(AtomicLong c : commands.values()) {
+        total += c.get();
+      }
+      return total;
+    }
+    AtomicLong c = commands.get(command);
+    return c != null ? c.get() : 0;
+  }
+
+  /**
+   * @return Returns the largest number of commands that ran at the same time.
+   */
+  public int getMaxConcurrentCommands() {
+    return maxRunning.get();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if(executor != null)
+      executor.shutdownNow();
+    if(socket != null)
+      socket.close();
+    if(executable != null) {
+      File dir = executable.getParentFile();
+      if(!executable.delete() || !dir.delete())
+        dir.deleteOnExit();
+    }
+  }
+
+  private void acceptLoop() {
+    while(!socket.isClosed()) {
+      final Socket client;
+      try {
+        client = socket.accept();
+      } catch (IOException e) {
+        return; // Closed
+      }
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            serve(client);
+          } catch (Exception e) {
+            e.printStackTrace();
+          } finally {
+            try {
+              client.close();
+            } catch (IOException e) {
+              // Already gone
+            }
+          }
+        }
+      });
+    }
+  }
+
+  private void serve(Socket client) throws Exception {
+    InputStream in = new BufferedInputStream(client.getInputStream());
+    int count = Integer.parseInt(readUntil(in, '\n').trim());
+    List<String> args = new ArrayList<String>();
+    for(int i = 0; i < count; i++) {
+      args.add(readUntil(in, '\0'));
+    }
+
+    int now = running.incrementAndGet();
+    int max;
+    while(now > (max = maxRunning.get()) && !maxRunning.compareAndSet(max, now)) {
+      // Retry
+    }
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(buf, true, "UTF-8");
+    int code;
+    try {
+      code = execute(args, out);
+    } finally {
+      running.decrementAndGet();
+    }
+
+    OutputStream os = client.getOutputStream();
+    os.write((code + "\n").getBytes("UTF-8"));
+    buf.writeTo(os);
+    os.flush();
+  }
+
+  private static String readUntil(InputStream in, char end) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    int b;
+    while((b = in.read()) != -1 && b != end) {
+      buf.write(b);
+    }
+    return buf.toString("UTF-8");
+  }
+
+  private int execute(List<String> args, PrintStream out) throws Exception {
+    String command = args.isEmpty() ? "" : args.get(0);
+    commands.putIfAbsent(command, new AtomicLong());
+    commands.get(command).incrementAndGet();
+
+    if(latencyMs > 0)
+      Thread.sleep(latencyMs);
+
+    int pending = 0;
+    String only = failCommand;
+    if(only == null || only.equals(command)) {
+      do {
+        pending = failNext.get();
+      } while(pending > 0 && !failNext.compareAndSet(pending, pending - 1));
+    }
+    boolean fail = pending > 0;
+    if(!fail) {
+      synchronized (random) {
+        fail = random.nextDouble() < failureRate;
+      }
+    }
+    if(fail) {
+      out.println("Error: The server is not responding.");
+      return 1;
+    }
+
+    Map<Character, String> options = parseOptions(args);
+    if("get".equals(command))
+      return get(options, out);
+    if("cc".equals(command))
+      return cc(options, out);
+    if("lsbranch".equals(command))
+      return lsbranch(out);
+    out.println("Error: Unsupported command " + command);
+    return 1;
+  }
+
+  private static Map<Character, String> parseOptions(List<String> args) {
+    Map<Character, String> result = new LinkedHashMap<Character, String>();
+    for(String a : args.subList(Math.min(1, args.size()), args.size())) {
+      if(a.startsWith("-") && a.length() >= 2)
+        result.put(a.charAt(1), a.substring(2));
+    }
+    return result;
+  }
+
+  private int get(Map<Character, String> options, PrintStream out) throws ParseException, IOException {
+    String branch = options.get('b');
+    String repository = options.get('p');
+    String destination = options.get('d');
+    if(branch == null || repository == null || destination == null) {
+      out.println("Error: Missing branch, repository or destination.");
+      return 1;
+    }
+    long asOf = options.containsKey('s') ? new SimpleDateFormat(GET_DATE_FORMAT).parse(options.get('s')).getTime()
+            : Long.MAX_VALUE;
+
+    Map<String, CheckIn> files = new LinkedHashMap<String, CheckIn>();
+    synchronized (this) {
+      List<CheckIn> history = branches.get(branch);
+      if(history == null) {
+        out.println("Error: Branch " + branch + " does not exist.");
+        return 1;
+      }
+      for(CheckIn c : history) {
+        if(c.timestamp <= asOf && c.path.startsWith(repository + "/"))
+          files.put(c.path, c);
+      }
+    }
+
+    boolean quiet = options.containsKey('q');
+    for(CheckIn c : files.values()) {
+      File target = new File(destination, c.path.substring(repository.length() + 1));
+      File parent = target.getParentFile();
+      if(!parent.isDirectory() && !parent.mkdirs()) {
+        out.println("Error: Unable to create " + parent);
+        return 1;
+      }
+      FileOutputStream fos = new FileOutputStream(target);
+      try {
+        fos.write(c.content.getBytes("UTF-8"));
+      } finally {
+        fos.close();
+      }
+      if(!quiet)
+        out.println(target.getAbsolutePath() + " version " + c.version + " retrieved.");
+    }
+    if(!quiet && paddingBytes > 0) {
+      char[] padding = new char[paddingBytes];
+      Arrays.fill(padding, '.');
+      out.println(padding);
+    }
+    if(!quiet)
+      out.println("Total: " + files.size() + " files retrieved.");
+    return 0;
+  }
+
+  private int cc(Map<Character, String> options, PrintStream out) throws ParseException {
+    String branch = options.get('b');
+    String repository = options.get('p');
+    String range = options.get('d');
+    if(branch == null || repository == null || range == null || range.indexOf(':') < 0) {
+      out.println("Error: Missing branch, repository or date range.");
+      return 1;
+    }
+    SimpleDateFormat format = new SimpleDateFormat(CC_DATE_FORMAT);
+    long from = format.parse(range.substring(0, range.indexOf(':'))).getTime();
+    long to = format.parse(range.substring(range.indexOf(':') + 1)).getTime();
+
+    List<CheckIn> changes = new ArrayList<CheckIn>();
+    synchronized (this) {
+      List<CheckIn> history = branches.get(branch);
+      if(history == null) {
+        out.println("Error: Branch " + branch + " does not exist.");
+        return 1;
+      }
+      for(CheckIn c : history) {
+        if(c.timestamp > from && c.timestamp <= to && c.path.startsWith(repository + "/"))
+          changes.add(c);
+      }
+    }
+
+    out.println("Total:" + changes.size());
+    for(CheckIn c : changes) {
+      int slash = c.path.lastIndexOf('/');
+      out.println(String.format("<%s><%s><%d><%s><%s><%s><%s><%s>", c.path.substring(0, slash),
+              c.path.substring(slash + 1), c.version, c.version == 1 ? "Add to repository" : "Check in",
+              format.format(new Date(c.timestamp)), c.comment, c.author, ""));
+    }
+    return 0;
+  }
+
+  private synchronized int lsbranch(PrintStream out) {
+    for(String branch : branches.keySet()) {
+      out.println(branch + " (workspace)");
+    }
+    return 0;
+  }
+
+  private static final class CheckIn {
+    final String path;
+    final String content;
+    final int version;
+    final String author;
+    final String comment;
+    final long timestamp;
+
+    CheckIn(String path, String content, int version, String author, String comment, long timestamp) {
+      this.path = path;
+      this.content = content;
+      this.version = version;
+      this.author = author;
+      this.comment = comment;
+      this.timestamp = timestamp;
+    }
+  }
+}
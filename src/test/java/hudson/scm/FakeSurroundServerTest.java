@@ -0,0 +1,651 @@
+package hudson.scm;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.model.TaskListener;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.slaves.DumbSlave;
+import hudson.tools.InstallSourceProperty;
+import hudson.util.StreamTaskListener;
+import hudson.util.io.ArchiverFactory;
+import jenkins.scm.api.SCMFileSystem;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadObserver;
+import jenkins.scm.api.SCMRevision;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives checkout, changelog and polling against a {@link FakeSurroundServer}.
+ */
+public class FakeSurroundServerTest {
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private FakeSurroundServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeSurroundServer().start();
+    server.installTool();
+    SystemCredentialsProvider.getInstance().getCredentials().add(
+            new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "sscm", null, "administrator", "secret"));
+    server.checkIn("Mainline", "Mainline/Project/src/Main.java", "class Main {}", "Doe, John", "Initial version",
+            new Date(System.currentTimeMillis() - 60000));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  private FreeStyleProject createProject() throws Exception {
+    FreeStyleProject p = j.createFreeStyleProject();
+    p.setScm(new SurroundSCM(FakeSurroundServer.SERVER, FakeSurroundServer.PORT, "Mainline", "Mainline/Project", "sscm"));
+    return p;
+  }
+
+  @Test
+  public void checkoutRetrievesFilesAndChangelog() throws Exception {
+    FreeStyleProject p = createProject();
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    assertTrue(b.getWorkspace().child("src/Main.java").exists());
+    assertEquals(1, b.getChangeSet().getItems().length);
+    assertEquals(1, server.getCommandCount("get"));
+    assertEquals(1, server.getCommandCount("cc"));
+  }
+
+  @Test
+  public void checkoutOutputIsKeptPerLocation() throws Exception {
+    FreeStyleBuild b = j.buildAndAssertSuccess(createProject());
+
+    SscmGetLogAction action = b.getAction(SscmGetLogAction.class);
+    assertEquals(Collections.singletonList("sscm-get-localhost-Mainline-Mainline_Project-1.log.gz"), action.getLogNames());
+    j.assertLogContains("1 files retrieved", b);
+    String output = j.createWebClient().goTo(b.getUrl() + "sscm-output/sscm-get-localhost-Mainline-Mainline_Project-1.log.gz",
+            "text/plain").getWebResponse().getContentAsString();
+    assertTrue(output.contains("Main.java version 1 retrieved."));
+
+    // Another retrieval of the same location gets a file of its own.
+    SscmLocation location = ((SurroundSCM) b.getProject().getScm()).getLocation();
+    assertEquals("sscm-get-localhost-Mainline-Mainline_Project-2.log.gz", SscmGetLogAction.newLogFile(b, location).getName());
+  }
+
+  @Test
+  public void changesAreReadFromChangelogPageByPage() throws Exception {
+    server.checkIn("Mainline", "Mainline/Project/src/A.java", "class A {}", "Doe, Jane", "Added A");
+    server.checkIn("Mainline", "Mainline/Project/src/B.java", "class B {}", "Doe, Jane", "Added B");
+    FreeStyleBuild b = j.buildAndAssertSuccess(createProject());
+
+    SurroundSCMChangeLogSet changes = (SurroundSCMChangeLogSet) b.getChangeSet();
+    assertEquals(3, changes.getEntryCount());
+    assertEquals(Integer.valueOf(2), changes.getAuthorCounts().get(0).getValue());
+
+    JSONArray page = changes.fetchEntries(1, 5);
+    assertEquals(2, page.size());
+    assertEquals("Mainline/Project/src/A.java", page.getJSONObject(0).getString("path"));
+    assertEquals("Added B", page.getJSONObject(1).getString("comment"));
+    assertEquals(0, changes.fetchEntries(3, 5).size());
+
+    String html = j.createWebClient().getPage(b, "changes").asText();
+    assertTrue(html.contains("Mainline/Project/src/B.java"));
+  }
+
+  @Test
+  public void changesAreStreamedAsJsonLines() throws Exception {
+    server.checkIn("Mainline", "Mainline/Project/src/A.java", "class A {}", "Doe, Jane", "Added A");
+    server.checkIn("Mainline", "Mainline/Project/src/B.java", "class B {}", "Doe, Jane", "Added B");
+    FreeStyleBuild b = j.buildAndAssertSuccess(createProject());
+
+    JenkinsRule.WebClient wc = j.createWebClient();
+    String[] first = wc.goTo(b.getUrl() + "sscm-changes/?author=doe,%20jane&limit=1", "application/x-ndjson")
+            .getWebResponse().getContentAsString().split("\n");
+    assertEquals(1, first.length);
+    JSONObject a = JSONObject.fromObject(first[0]);
+    assertEquals("Mainline/Project/src/A.java", a.getString("path"));
+
+    String[] rest = wc.goTo(b.getUrl() + "sscm-changes/?author=doe,%20jane&cursor=" + a.getString("cursor"),
+            "application/x-ndjson").getWebResponse().getContentAsString().split("\n");
+    assertEquals(1, rest.length);
+    assertEquals("Mainline/Project/src/B.java", JSONObject.fromObject(rest[0]).getString("path"));
+  }
+
+  @Test
+  public void toolIsInstalledFromArchiveOnce() throws Exception {
+    File archive = tmp.newFile("sscm.tar.gz");
+    OutputStream os = new FileOutputStream(archive);
+    try {
+      new FilePath(server.getExecutable().getParentFile()).archive(ArchiverFactory.TARGZ, os, "sscm");
+    } finally {
+      os.close();
+    }
+    String checksum = Util.toHexString(DigestUtils.sha256(FileUtils.readFileToByteArray(archive)));
+    SurroundTool.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(SurroundTool.DescriptorImpl.class);
+    descriptor.setInstallations(new SurroundTool(SurroundTool.DEFAULT_NAME, "", Collections.singletonList(
+            new InstallSourceProperty(Collections.singletonList(
+                    new SurroundToolInstaller(null, archive.toURI().toURL().toString(), checksum))))));
+
+    FreeStyleProject p = createProject();
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+    j.assertLogContains("Unpacked the Surround SCM CLI", b);
+
+    FreeStyleBuild next = j.buildAndAssertSuccess(p);
+    j.assertLogNotContains("Unpacked the Surround SCM CLI", next);
+  }
+
+  @Test
+  public void pollingDetectsCheckIns() throws Exception {
+    FreeStyleProject p = createProject();
+    j.buildAndAssertSuccess(p);
+    assertFalse(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+
+    // The CLI works in whole seconds, make sure the check in is not in the same second as the build.
+    Thread.sleep(1000);
+    server.checkIn("Mainline", "Mainline/Project/src/Main.java", "class Main { }", "Doe, Jane", "Reformatted");
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+  }
+
+  @Test
+  public void locationsAreRetrievedIntoTheirSubdirectories() throws Exception {
+    server.checkIn("Mainline", "Mainline/Lib/Lib.java", "class Lib {}", "Doe, John", "Added Lib",
+            new Date(System.currentTimeMillis() - 60000));
+    FreeStyleProject p = createProject();
+    SurroundSCM scm = (SurroundSCM) p.getScm();
+    SurroundLocation lib = new SurroundLocation("sscm://" + FakeSurroundServer.SERVER + ":" + FakeSurroundServer.PORT
+            + "//Mainline//Mainline/Lib", "lib");
+    scm.setLocations(Collections.singletonList(lib));
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    assertTrue(b.getWorkspace().child("src/Main.java").exists());
+    assertTrue(b.getWorkspace().child("lib/Lib.java").exists());
+    assertEquals(2, server.getCommandCount("get"));
+
+    // Every location is recorded with the time it was retrieved as of.
+    SurroundSCMRevisionState state = b.getAction(SurroundSCMRevisionState.class);
+    String root = scm.getLocation().getKey();
+    assertEquals(2, scm.getCheckoutLocations().size());
+    assertEquals(state.getDate(), state.getDate(root));
+    assertEquals(state.getDate(), state.getDate(lib.getLocation().getKey()));
+  }
+
+  @Test
+  public void pollingChecksEveryLocationUntilOneHasChanges() throws Exception {
+    FreeStyleProject p = createProject();
+    SurroundSCM scm = (SurroundSCM) p.getScm();
+    scm.setLocations(Collections.singletonList(new SurroundLocation("sscm://" + FakeSurroundServer.SERVER + ":"
+            + FakeSurroundServer.PORT + "//Mainline//Mainline/Lib", "lib")));
+    j.buildAndAssertSuccess(p);
+
+    Thread.sleep(1000);
+    int cc = server.getCommandCount("cc");
+    assertFalse(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+    assertEquals(cc + 2, server.getCommandCount("cc"));
+
+    // A change in the second location is found once the first one turned up nothing.
+    server.checkIn("Mainline", "Mainline/Lib/Lib.java", "class Lib {}", "Doe, Jane", "Added Lib");
+    cc = server.getCommandCount("cc");
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+    assertEquals(cc + 2, server.getCommandCount("cc"));
+
+    // A change in the first location is enough, the second one is not asked.
+    server.checkIn("Mainline", "Mainline/Project/src/Main.java", "class Main { }", "Doe, Jane", "Reformatted");
+    cc = server.getCommandCount("cc");
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+    assertEquals(cc + 1, server.getCommandCount("cc"));
+  }
+
+  @Test
+  public void pollingIgnoresExcludedChanges() throws Exception {
+    FreeStyleProject p = createProject();
+    SurroundSCM scm = (SurroundSCM) p.getScm();
+    scm.setExcludedUsers("build, robot");
+    scm.setExcludedComments("^\\[automated\\]");
+    j.buildAndAssertSuccess(p);
+
+    Thread.sleep(1000);
+    server.checkIn("Mainline", "Mainline/Project/version.txt", "1.0.1", "Build, Robot", "Bumped version");
+    server.checkIn("Mainline", "Mainline/Project/notes.txt", "notes", "Doe, Jane", "[automated] Release notes");
+    assertFalse(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+
+    server.checkIn("Mainline", "Mainline/Project/src/Main.java", "class Main { }", "Doe, Jane", "Reformatted");
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+  }
+
+  @Test
+  public void pollingCountsChangesItCannotParse() throws Exception {
+    FreeStyleProject p = createProject();
+    ((SurroundSCM) p.getScm()).setExcludedUsers("build, robot");
+    j.buildAndAssertSuccess(p);
+
+    // The comment spans lines, so neither line of the change parses. It cannot be excluded, so it counts.
+    Thread.sleep(1000);
+    server.checkIn("Mainline", "Mainline/Project/src/Main.java", "class Main { }", "Doe, Jane", "Reformatted\nthe code");
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+  }
+
+  @Test
+  public void prefetchAfterPollingDetectsCheckIns() throws Exception {
+    FreeStyleProject p = createProject();
+    ((SurroundSCM) p.getScm()).setPrefetch(true);
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    Thread.sleep(1000);
+    server.checkIn("Mainline", "Mainline/Project/src/Util.java", "class Util {}", "Doe, Jane", "Added Util");
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+
+    // The workspace is brought up to date without a build.
+    FilePath util = b.getWorkspace().child("src/Util.java");
+    for(int i = 0; i < 100 && !util.exists(); i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(util.exists());
+    assertEquals(2, server.getCommandCount("get"));
+
+    FreeStyleBuild next = j.buildAndAssertSuccess(p);
+    assertEquals(1, next.getChangeSet().getItems().length);
+  }
+
+  @Test
+  public void prefetchWhenAgentComesOnline() throws Exception {
+    DumbSlave agent = j.createOnlineSlave();
+    FreeStyleProject p = createProject();
+    p.setAssignedNode(agent);
+    ((SurroundSCM) p.getScm()).setPrefetch(true);
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    Thread.sleep(1000);
+    server.checkIn("Mainline", "Mainline/Project/src/Util.java", "class Util {}", "Doe, Jane", "Added Util");
+    agent.toComputer().disconnect(null).get();
+    agent.toComputer().connect(false).get();
+
+    // The registry knows the job from its checkout, the agent coming back online prefetches into its workspace.
+    FilePath util = b.getWorkspace().child("src/Util.java");
+    for(int i = 0; i < 100 && !util.exists(); i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(util.exists());
+    assertEquals(2, server.getCommandCount("get"));
+  }
+
+  @Test
+  public void checkoutsOfOneBuildShareOneRetrieval() throws Exception {
+    FreeStyleProject p = createProject();
+    final SurroundSCM scm = (SurroundSCM) p.getScm();
+    scm.setShareCheckout(true);
+    final File[] changelog = new File[1];
+    p.getBuildersList().add(new TestBuilder() {
+      @Override
+      public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        // Stands in for a parallel stage checking out the same configuration on another agent.
+        changelog[0] = new File(build.getRootDir(), "changelog-second.xml");
+        scm.checkout(build, launcher, build.getWorkspace().sibling("second"), listener, changelog[0], null);
+        return true;
+      }
+    });
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    assertEquals(1, server.getCommandCount("get"));
+    assertTrue(b.getWorkspace().sibling("second").child("src/Main.java").exists());
+    assertEquals(FileUtils.readFileToString(new File(b.getRootDir(), "changelog.xml")), FileUtils.readFileToString(changelog[0]));
+  }
+
+  @Test
+  public void checkoutIntoUsedWorkspaceRootIsNotShared() throws Exception {
+    FreeStyleProject p = createProject();
+    final SurroundSCM scm = (SurroundSCM) p.getScm();
+    scm.setShareCheckout(true);
+    p.getBuildersList().add(new TestBuilder() {
+      @Override
+      public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        scm.checkout(build, launcher, build.getWorkspace().sibling("second"), listener,
+                new File(build.getRootDir(), "changelog-second.xml"), null);
+        return true;
+      }
+    });
+    j.jenkins.getWorkspaceFor(p).child("target/output.jar").write("left behind", "UTF-8");
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    j.assertLogContains("Not sharing this checkout", b);
+    assertEquals(2, server.getCommandCount("get"));
+    assertTrue(b.getWorkspace().sibling("second").child("src/Main.java").exists());
+    assertFalse(b.getWorkspace().sibling("second").child("target/output.jar").exists());
+  }
+
+  @Test
+  public void pinnedCheckoutRetrievesRecordedTimestamp() throws Exception {
+    server.checkIn("Mainline", "Mainline/Project/src/Util.java", "class Util {}", "Doe, Jane", "Added Util");
+    FreeStyleProject p = createProject();
+    p.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("PIN",
+            new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(System.currentTimeMillis() - 30000)))));
+    ((SurroundSCM) p.getScm()).setTimestamp("${PIN}");
+
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+    assertTrue(b.getWorkspace().child("src/Main.java").exists());
+    assertFalse(b.getWorkspace().child("src/Util.java").exists());
+
+    // The workspace already has the files as of the pinned timestamp.
+    FreeStyleBuild next = j.buildAndAssertSuccess(p);
+    j.assertLogContains("skipping sscm get", next);
+    assertEquals(1, server.getCommandCount("get"));
+  }
+
+  @Test
+  public void pollingCarriesOnAfterPinnedBuild() throws Exception {
+    String pin = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(System.currentTimeMillis() - 30000));
+    FreeStyleProject p = createProject();
+    p.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("PIN", "")));
+    SurroundSCM scm = (SurroundSCM) p.getScm();
+    scm.setTimestamp("${PIN}");
+    FreeStyleBuild first = j.buildAndAssertSuccess(p);
+
+    Thread.sleep(1000);
+    server.checkIn("Mainline", "Mainline/Project/src/Util.java", "class Util {}", "Doe, Jane", "Added Util");
+    FreeStyleBuild pinned = j.assertBuildStatusSuccess(p.scheduleBuild2(0, new Cause.UserIdCause(),
+            new ParametersAction(new StringParameterValue("PIN", pin))));
+    assertTrue(pinned.getChangeSet().isEmptySet());
+    assertEquals(first.getNumber(), SurroundPollingBaseline.load(p, scm.getKey()).getBuildNumber());
+
+    // The pinned build did not include the check in, polling still reports it, and only until it is built.
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+    assertTrue(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+    FreeStyleBuild next = j.buildAndAssertSuccess(p);
+    assertEquals(1, next.getChangeSet().getItems().length);
+    assertFalse(p.poll(StreamTaskListener.fromStdout()).hasChanges());
+  }
+
+  @Test
+  public void concurrentGetsOnOneNodeShareOneRetrieval() throws Exception {
+    JSONObject settings = new JSONObject();
+    settings.put("singleFlightGets", true);
+    settings.put("coalesceSeconds", 3600);
+    SurroundSCM.DESCRIPTOR.configure(null, settings);
+    // Checked in before the start of the hour both checkouts are aligned to.
+    server.checkIn("Mainline", "Mainline/Project/src/Old.java", "class Old {}", "Doe, John", "Old file",
+            new Date(System.currentTimeMillis() - 7200000));
+    server.setLatency(2000);
+    try {
+      QueueTaskFuture<FreeStyleBuild> first = createProject().scheduleBuild2(0);
+      QueueTaskFuture<FreeStyleBuild> second = createProject().scheduleBuild2(0);
+      FreeStyleBuild a = j.assertBuildStatusSuccess(first);
+      FreeStyleBuild b = j.assertBuildStatusSuccess(second);
+
+      assertEquals(1, server.getCommandCount("get"));
+      assertTrue(a.getWorkspace().child("src/Old.java").exists());
+      assertTrue(b.getWorkspace().child("src/Old.java").exists());
+    } finally {
+      SurroundSCM.DESCRIPTOR.configure(null, new JSONObject());
+    }
+  }
+
+  @Test
+  public void usedWorkspaceIsNotSharedWithConcurrentGets() throws Exception {
+    JSONObject settings = new JSONObject();
+    settings.put("singleFlightGets", true);
+    settings.put("coalesceSeconds", 3600);
+    SurroundSCM.DESCRIPTOR.configure(null, settings);
+    server.checkIn("Mainline", "Mainline/Project/src/Old.java", "class Old {}", "Doe, John", "Old file",
+            new Date(System.currentTimeMillis() - 7200000));
+    server.setLatency(2000);
+    try {
+      FreeStyleProject used = createProject();
+      j.jenkins.getWorkspaceFor(used).child("build.out").write("private", "UTF-8");
+      QueueTaskFuture<FreeStyleBuild> first = used.scheduleBuild2(0);
+      QueueTaskFuture<FreeStyleBuild> second = createProject().scheduleBuild2(0);
+      j.assertBuildStatusSuccess(first);
+      FreeStyleBuild b = j.assertBuildStatusSuccess(second);
+
+      assertTrue(b.getWorkspace().child("src/Old.java").exists());
+      assertFalse(b.getWorkspace().child("build.out").exists());
+    } finally {
+      SurroundSCM.DESCRIPTOR.configure(null, new JSONObject());
+    }
+  }
+
+  @Test
+  public void emptyWorkspaceIsFilledFromSnapshotCache() throws Exception {
+    File cache = tmp.newFolder("cache");
+    JSONObject settings = new JSONObject();
+    settings.put("snapshotCachePath", cache.getAbsolutePath());
+    SurroundSCM.DESCRIPTOR.configure(null, settings);
+    try {
+      j.buildAndAssertSuccess(createProject());
+      assertEquals(1, cache.listFiles().length);
+
+      FreeStyleBuild b = j.buildAndAssertSuccess(createProject());
+      j.assertLogContains("Unpacked the cached snapshot", b);
+      assertTrue(b.getWorkspace().child("src/Main.java").exists());
+    } finally {
+      SurroundSCM.DESCRIPTOR.configure(null, new JSONObject());
+    }
+  }
+
+  @Test
+  public void emptyWorkspaceIsSeededFromFileStore() throws Exception {
+    JSONObject settings = new JSONObject();
+    settings.put("fileStore", true);
+    SurroundSCM.DESCRIPTOR.configure(null, settings);
+    try {
+      FreeStyleBuild a = j.buildAndAssertSuccess(createProject());
+      j.assertLogContains("Added 1 new files", a);
+
+      FreeStyleBuild b = j.buildAndAssertSuccess(createProject());
+      j.assertLogContains("Took 1 files", b);
+      j.assertLogContains("Added 0 new files", b);
+      assertEquals("class Main {}", b.getWorkspace().child("src/Main.java").readToString());
+    } finally {
+      SurroundSCM.DESCRIPTOR.configure(null, new JSONObject());
+    }
+  }
+
+  @Test
+  public void changedHardLinkedFileIsNotSeeded() throws Exception {
+    JSONObject settings = new JSONObject();
+    settings.put("fileStore", true);
+    settings.put("fileStoreHardLinks", true);
+    SurroundSCM.DESCRIPTOR.configure(null, settings);
+    try {
+      FreeStyleBuild a = j.buildAndAssertSuccess(createProject());
+      // Changing a linked file in place changes the store's copy.
+      File linked = new File(a.getWorkspace().child("src/Main.java").getRemote());
+      assertTrue(linked.setWritable(true));
+      FileUtils.writeStringToFile(linked, "class Changed {}", "UTF-8");
+
+      FreeStyleBuild b = j.buildAndAssertSuccess(createProject());
+      j.assertLogContains("Added 1 new files", b);
+      assertEquals("class Main {}", b.getWorkspace().child("src/Main.java").readToString());
+    } finally {
+      SurroundSCM.DESCRIPTOR.configure(null, new JSONObject());
+    }
+  }
+
+  @Test
+  public void pollingUsesSavedBaseline() throws Exception {
+    FreeStyleProject p = createProject();
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+    SurroundSCM scm = (SurroundSCM) p.getScm();
+
+    // Without the state attached to a build, polling still knows when the last checkout happened.
+    PollingResult result = scm.compareRemoteRevisionWith(p, new Launcher.LocalLauncher(TaskListener.NULL),
+            b.getWorkspace(), TaskListener.NULL, SCMRevisionState.NONE);
+    assertFalse(result.hasChanges());
+    assertEquals(b.getNumber(), SurroundPollingBaseline.load(p, scm.getKey()).getBuildNumber());
+  }
+
+  @Test
+  public void recreatedJobStartsFromItsOwnBaseline() throws Exception {
+    FreeStyleProject p = createProject();
+    j.buildAndAssertSuccess(p);
+    j.buildAndAssertSuccess(p);
+    String name = p.getName();
+    String key = ((SurroundSCM) p.getScm()).getKey();
+    p.delete();
+
+    FreeStyleProject recreated = j.createFreeStyleProject(name);
+    recreated.setScm(new SurroundSCM(FakeSurroundServer.SERVER, FakeSurroundServer.PORT, "Mainline", "Mainline/Project", "sscm"));
+    assertEquals(null, SurroundPollingBaseline.load(recreated, key));
+    FreeStyleBuild b = j.buildAndAssertSuccess(recreated);
+    assertEquals(b.getNumber(), SurroundPollingBaseline.load(recreated, key).getBuildNumber());
+  }
+
+  @Test
+  public void fileSystemWithoutRevisionIsServedFromCache() throws Exception {
+    server.checkIn("Mainline", "Mainline/Project/Jenkinsfile", "node {}", "Doe, Jane", "Added pipeline",
+            new Date(System.currentTimeMillis() - 7200000));
+    JSONObject settings = new JSONObject();
+    settings.put("coalesceSeconds", 3600);
+    SurroundSCM.DESCRIPTOR.configure(null, settings);
+    try {
+      FreeStyleProject p = createProject();
+      assertEquals("node {}", SCMFileSystem.of(p, p.getScm()).getRoot().child("Jenkinsfile").contentAsString());
+      assertEquals("node {}", SCMFileSystem.of(p, p.getScm()).getRoot().child("Jenkinsfile").contentAsString());
+      assertEquals(1, server.getCommandCount("get"));
+    } finally {
+      settings.put("coalesceSeconds", 0);
+      SurroundSCM.DESCRIPTOR.configure(null, settings);
+    }
+  }
+
+  @Test
+  public void fileSystemRetrievesPinnedTimestamp() throws Exception {
+    Date pinned = new Date(System.currentTimeMillis() - 3600000);
+    server.checkIn("Mainline", "Mainline/Project/Jenkinsfile", "node {}", "Doe, Jane", "Added pipeline",
+            new Date(pinned.getTime() - 3600000));
+    FreeStyleProject p = createProject();
+    ((SurroundSCM) p.getScm()).setTimestamp(new SimpleDateFormat("yyyyMMddHHmmss").format(pinned));
+
+    SCMFileSystem fs = SCMFileSystem.of(p, p.getScm());
+    assertEquals(pinned.getTime() / 1000, fs.lastModified() / 1000);
+    assertEquals("node {}", fs.getRoot().child("Jenkinsfile").contentAsString());
+    assertEquals("node {}", SCMFileSystem.of(p, p.getScm()).getRoot().child("Jenkinsfile").contentAsString());
+    assertEquals(1, server.getCommandCount("get"));
+  }
+
+  @Test
+  public void fileSystemLeavesParameterizedLabelToCheckout() throws Exception {
+    FreeStyleProject p = createProject();
+    ((SurroundSCM) p.getScm()).setLabel("${RELEASE}");
+    assertNull(SCMFileSystem.of(p, p.getScm()));
+  }
+
+  @Test(expected = IOException.class)
+  public void fileSystemRejectsPathsOutsideRepository() throws Exception {
+    FreeStyleProject p = createProject();
+    SurroundSCMFileSystem fs = (SurroundSCMFileSystem) SCMFileSystem.of(p, p.getScm());
+    fs.fetchFile("../../../secrets/master.key");
+  }
+
+  @Test
+  public void pollingBacksOffFromFailingServer() throws Exception {
+    FreeStyleProject p = createProject();
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+    SurroundSCM scm = (SurroundSCM) p.getScm();
+    SscmCircuitBreaker breaker = SscmCircuitBreaker.of(scm.getLocation());
+
+    server.setFailureRate(1);
+    long before = server.getCommandCount("cc");
+    try {
+      int threshold = SurroundSCM.DESCRIPTOR.getBreakerFailures();
+      for(int i = 0; i < threshold + 3; i++) {
+        assertFalse(scm.compareRemoteRevisionWith(p, new Launcher.LocalLauncher(TaskListener.NULL), b.getWorkspace(),
+                TaskListener.NULL, SCMRevisionState.NONE).hasChanges());
+      }
+      assertEquals(threshold, server.getCommandCount("cc") - before);
+      assertEquals(SscmCircuitBreaker.State.OPEN, breaker.getState());
+    } finally {
+      // Breakers are shared by the whole JVM.
+      breaker.recordSuccess();
+    }
+  }
+
+  @Test
+  public void pollingErrorsOfOneJobDoNotBackOffFromServer() throws Exception {
+    FreeStyleProject p = createProject();
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+    SurroundSCM missing = new SurroundSCM(FakeSurroundServer.SERVER, FakeSurroundServer.PORT, "Missing",
+            "Mainline/Project", "sscm");
+    SscmCircuitBreaker breaker = SscmCircuitBreaker.of(missing.getLocation());
+
+    long before = server.getCommandCount("cc");
+    int polls = SurroundSCM.DESCRIPTOR.getBreakerFailures() + 2;
+    for(int i = 0; i < polls; i++) {
+      assertFalse(missing.compareRemoteRevisionWith(p, new Launcher.LocalLauncher(TaskListener.NULL), b.getWorkspace(),
+              TaskListener.NULL, new SurroundSCMRevisionState(b.getTime(), b.getNumber())).hasChanges());
+    }
+    // The server answered every poll, only the branch of this one job is wrong.
+    assertEquals(polls, server.getCommandCount("cc") - before);
+    assertEquals(SscmCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void branchScanKeepsRevisionsWhileServerFails() throws Exception {
+    server.addBranch("Feature");
+    SurroundSCMSource source = new SurroundSCMSource(null, FakeSurroundServer.SERVER, FakeSurroundServer.PORT,
+            "Mainline/Project", "sscm");
+    Map<SCMHead, SCMRevision> first = source.fetch(SCMHeadObserver.collect(), TaskListener.NULL).result();
+    assertEquals(2, first.size());
+
+    Thread.sleep(1000);
+    server.checkIn("Feature", "Mainline/Project/src/Feature.java", "class Feature {}", "Doe, Jane", "Added Feature");
+    server.failNext(2, "cc");
+    Map<SCMHead, SCMRevision> during = source.fetch(SCMHeadObserver.collect(), TaskListener.NULL).result();
+    assertEquals(first, during);
+
+    // The check in made while the branch could not be checked is found by the next scan.
+    Map<SCMHead, SCMRevision> after = source.fetch(SCMHeadObserver.collect(), TaskListener.NULL).result();
+    assertEquals(first.get(new SCMHead("Mainline")), after.get(new SCMHead("Mainline")));
+    assertFalse(first.get(new SCMHead("Feature")).equals(after.get(new SCMHead("Feature"))));
+    assertEquals(4, server.getCommandCount("cc"));
+    // Scans within a few minutes of each other share one branch listing.
+    assertEquals(1, server.getCommandCount("lsbranch"));
+  }
+
+  @Test
+  public void failedCheckoutIsRetried() throws Exception {
+    FreeStyleProject p = createProject();
+    server.failNext(1);
+    FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+    assertTrue(b.getWorkspace().child("src/Main.java").exists());
+    assertEquals(2, server.getCommandCount("get"));
+  }
+}
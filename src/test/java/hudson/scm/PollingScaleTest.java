@@ -0,0 +1,247 @@
+package hudson.scm;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Polls many {@link SurroundSCM} jobs against a {@link FakeSurroundServer} from a thread pool, the way the SCM trigger
+ * does, and reports what it cost.
+ *
+ * The defaults keep it quick enough for every build. Scale it up to production size with system properties, ex.
+ * {@code mvn test -Dtest=PollingScaleTest -Dsurround.scale.jobs=2000 -Dsurround.scale.rounds=5
+ * -Dsurround.scale.latency=50}. The report is printed and written to target/surround-polling-scale.properties so
+ * runs can be compared.
+ */
+public class PollingScaleTest {
+  private static final int JOBS = Integer.getInteger("surround.scale.jobs", 50);
+  private static final int ROUNDS = Integer.getInteger("surround.scale.rounds", 3);
+
+  /**
+   * The SCM trigger polls with a pool of 10 threads by default.
+   */
+  private static final int THREADS = Integer.getInteger("surround.scale.threads", 10);
+  private static final int LATENCY_MS = Integer.getInteger("surround.scale.latency", 0);
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  private FakeSurroundServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeSurroundServer().start();
+    server.installTool();
+    server.setLatency(LATENCY_MS);
+    SystemCredentialsProvider.getInstance().getCredentials().add(
+            new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "sscm", null, "administrator", "secret"));
+    server.checkIn("Mainline", "Mainline/Project/src/Main.java", "class Main {}", "Doe, John", "Initial version",
+            new Date(System.currentTimeMillis() - 3600000));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void polling() throws Exception {
+    final List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+    for(int i = 0; i < JOBS; i++) {
+      FreeStyleProject p = j.createFreeStyleProject("job" + i);
+      p.setScm(new SurroundSCM(FakeSurroundServer.SERVER, FakeSurroundServer.PORT, "Mainline", "Mainline/Project", "sscm"));
+      projects.add(p);
+    }
+    final SurroundSCMRevisionState baseline = new SurroundSCMRevisionState(new Date(), 1);
+    final FilePath workspace = new FilePath(j.jenkins.getRootDir()).child("scale-workspace");
+    workspace.mkdirs();
+
+    TempFileWatcher tempFiles = new TempFileWatcher();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    long cpuBefore = processCpuNanos();
+    long commandsBefore = server.getCommandCount(null);
+    final AtomicLong failures = new AtomicLong();
+    final long[] latencies = new long[JOBS * ROUNDS];
+
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    long started = System.nanoTime();
+    try {
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      for(int round = 0; round < ROUNDS; round++) {
+        for(int i = 0; i < JOBS; i++) {
+          final int index = round * JOBS + i;
+          final FreeStyleProject p = projects.get(i);
+          results.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              TaskListener listener = TaskListener.NULL;
+              long t = System.nanoTime();
+              try {
+                PollingResult result = p.getScm().compareRemoteRevisionWith(p, new Launcher.LocalLauncher(listener),
+                        workspace, listener, baseline);
+                if(result.hasChanges())
+                  failures.incrementAndGet();
+              } catch (IOException e) {
+                failures.incrementAndGet();
+              }
+              latencies[index] = System.nanoTime() - t;
+              return null;
+            }
+          }));
+        }
+      }
+      for(Future<?> f : results) {
+        f.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    long elapsed = System.nanoTime() - started;
+    int polls = JOBS * ROUNDS;
+    long commands = server.getCommandCount(null) - commandsBefore;
+    long cpu = processCpuNanos() - cpuBefore;
+    Set<String> created = tempFiles.stop();
+    int leaked = 0;
+    for(String name : created) {
+      if(new File(TempFileWatcher.TMP, name).exists())
+        leaked++;
+    }
+
+    Arrays.sort(latencies);
+    Properties report = new Properties();
+    report.setProperty("jobs", String.valueOf(JOBS));
+    report.setProperty("rounds", String.valueOf(ROUNDS));
+    report.setProperty("threads", String.valueOf(THREADS));
+    report.setProperty("serverLatencyMs", String.valueOf(LATENCY_MS));
+    report.setProperty("polls", String.valueOf(polls));
+    report.setProperty("failedPolls", String.valueOf(failures.get()));
+    report.setProperty("pollsPerSecond", String.format("%.1f", polls / (elapsed / 1e9)));
+    report.setProperty("latencyP50Ms", String.valueOf(percentileMillis(latencies, 0.50)));
+    report.setProperty("latencyP95Ms", String.valueOf(percentileMillis(latencies, 0.95)));
+    report.setProperty("latencyP99Ms", String.valueOf(percentileMillis(latencies, 0.99)));
+    report.setProperty("latencyMaxMs", String.valueOf(TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length - 1])));
+    report.setProperty("processesSpawned", String.valueOf(commands));
+    report.setProperty("processesPerPoll", String.format("%.2f", (double) commands / polls));
+    report.setProperty("tempFilesCreated", String.valueOf(created.size()));
+    report.setProperty("tempFilesLeaked", String.valueOf(leaked));
+    report.setProperty("peakThreads", String.valueOf(threads.getPeakThreadCount()));
+    report.setProperty("cpuMs", cpu >= 0 ? String.valueOf(TimeUnit.NANOSECONDS.toMillis(cpu)) : "n/a");
+    report.list(System.out);
+    File target = new File("target");
+    if(target.isDirectory()) {
+      OutputStream os = new FileOutputStream(new File(target, "surround-polling-scale.properties"));
+      try {
+        report.store(os, "Surround SCM polling scale test");
+      } finally {
+        os.close();
+      }
+    }
+
+    assertEquals("polls that failed or saw changes", 0, failures.get());
+    assertTrue("more than one sscm process per poll: " + commands, commands <= polls);
+    assertEquals("temporary files left behind", 0, leaked);
+  }
+
+  private static long percentileMillis(long[] sorted, double quantile) {
+    int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+    return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+  }
+
+  /**
+   * @return Returns the CPU time used by this JVM, or -1 if the JVM does not say.
+   */
+  private static long processCpuNanos() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if(os instanceof com.sun.management.OperatingSystemMXBean)
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    return -1;
+  }
+
+  /**
+   * Collects the names of the files created in the temporary directory while it runs.
+   */
+  private static final class TempFileWatcher implements Runnable {
+    static final File TMP = new File(System.getProperty("java.io.tmpdir"));
+
+    private final WatchService watcher;
+    private final Set<String> created = new HashSet<String>();
+    private final Thread thread;
+
+    TempFileWatcher() throws IOException {
+      watcher = FileSystems.getDefault().newWatchService();
+      TMP.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+      thread = new Thread(this, "PollingScaleTest temp file watcher");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while(true) {
+          WatchKey key = watcher.take();
+          for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.context() instanceof Path) {
+              synchronized (created) {
+                created.add(event.context().toString());
+              }
+            }
+          }
+          key.reset();
+        }
+      } catch (Exception e) {
+        // Closed
+      }
+    }
+
+    Set<String> stop() throws IOException, InterruptedException {
+      // Give the watcher a moment to report the last events.
+      Thread.sleep(500);
+      watcher.close();
+      thread.join(1000);
+      synchronized (created) {
+        return new HashSet<String>(created);
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package hudson.scm;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * SscmGetOutputParser Tester.
+ */
+public class SscmGetOutputParserTest extends TestCase {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream detail = new ByteArrayOutputStream();
+
+  public SscmGetOutputParserTest(String name) {
+    super(name);
+  }
+
+  private SscmGetOutputParser parse(String output, Charset charset, boolean withDetail) throws Exception {
+    SscmGetOutputParser parser = new SscmGetOutputParser(new PrintStream(log, true, "UTF-8"),
+            withDetail ? detail : null, "sscm get test", charset);
+    parser.write(output.getBytes(charset));
+    parser.close();
+    return parser;
+  }
+
+  public void testCountsRetrievedFilesOnly() throws Exception {
+    SscmGetOutputParser parser = parse("/work/src/Main.java version 3 retrieved.\n"
+            + "Warning: /work/src/Old.java is checked out, not replaced.\n"
+            + "/work/src/Util.java version 1 retrieved.\n"
+            + "\n"
+            + "Total: 2 files retrieved.\n", UTF8, true);
+    assertEquals(2, parser.getFiles());
+    assertEquals(0, parser.getErrors());
+    assertEquals("/work/src/Util.java version 1 retrieved.", parser.getLastFile());
+  }
+
+  public void testCountsErrors() throws Exception {
+    SscmGetOutputParser parser = parse("Error: The server is not responding.\n", UTF8, true);
+    assertEquals(0, parser.getFiles());
+    assertEquals(1, parser.getErrors());
+    assertTrue(log.toString("UTF-8").contains("Error: The server is not responding."));
+  }
+
+  public void testDetailKeepsFileLinesOutOfBuildLog() throws Exception {
+    parse("/work/a.txt version 1 retrieved.\nTotal: 1 files retrieved.\nunterminated", UTF8, true);
+    String buildLog = log.toString("UTF-8");
+    assertFalse(buildLog.contains("a.txt"));
+    assertTrue(buildLog.contains("Total: 1 files retrieved."));
+    assertEquals("/work/a.txt version 1 retrieved.\nTotal: 1 files retrieved.\nunterminated", detail.toString("UTF-8"));
+  }
+
+  public void testWithoutDetailEveryLineGoesToBuildLog() throws Exception {
+    parse("/work/a.txt version 1 retrieved.\n", UTF8, false);
+    assertEquals("/work/a.txt version 1 retrieved.\n", log.toString("UTF-8"));
+  }
+
+  public void testDecodesWithGivenCharset() throws Exception {
+    Charset latin1 = Charset.forName("ISO-8859-1");
+    SscmGetOutputParser parser = parse("/work/Gr\u00fc\u00dfe.txt version 1 retrieved.\n", latin1, true);
+    assertEquals("/work/Gr\u00fc\u00dfe.txt version 1 retrieved.", parser.getLastFile());
+  }
+
+  public static Test suite() {
+    return new TestSuite(SscmGetOutputParserTest.class);
+  }
+}
@@ -0,0 +1,57 @@
+package hudson.scm;
+
+import hudson.Util;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * SscmLocation Tester.
+ */
+public class SscmLocationTest extends TestCase {
+  private final static String URL = "sscm://server:4900//branch//Mainline/Path/To/Repository";
+
+  public SscmLocationTest(String name) {
+    super(name);
+  }
+
+  public void testParse() throws Exception {
+    SscmLocation location = SscmLocation.parse(URL);
+    assertNotNull(location);
+    assertEquals("server", location.getServer());
+    assertEquals("4900", location.getPort());
+    assertEquals("branch", location.getBranch());
+    assertEquals("Mainline/Path/To/Repository", location.getRepository());
+    assertEquals("sscm://server:4900", location.getServerUrl());
+    assertEquals(URL, location.getUrl());
+  }
+
+  public void testParseBranchContainingSeparator() throws Exception {
+    SscmLocation location = SscmLocation.parse("sscm://server:4900//release//2.0//Mainline/Path/To/Repository");
+    assertNotNull(location);
+    assertEquals("4900", location.getPort());
+    assertEquals("release//2.0", location.getBranch());
+    assertEquals("Mainline/Path/To/Repository", location.getRepository());
+  }
+
+  public void testParseInvalid() throws Exception {
+    assertNull(SscmLocation.parse(null));
+    assertNull(SscmLocation.parse("server:4900//branch//Mainline/Path/To/Repository"));
+    assertNull(SscmLocation.parse("sscm://server4900//branch//Mainline/Path/To/Repository"));
+    assertNull(SscmLocation.parse("sscm://server:4900//branch"));
+    assertNull(SscmLocation.parse("sscm://server:4900///branch"));
+  }
+
+  public void testKeyMatchesLegacyFormat() throws Exception {
+    SscmLocation parsed = SscmLocation.parse(URL);
+    SscmLocation built = new SscmLocation("server", "4900", "branch", "Mainline/Path/To/Repository");
+    assertNotNull(parsed);
+    assertEquals(built, parsed);
+    assertEquals(Util.getDigestOf(URL), parsed.getKey());
+    assertEquals(built.getKey(), parsed.getKey());
+  }
+
+  public static Test suite() {
+    return new TestSuite(SscmLocationTest.class);
+  }
+}
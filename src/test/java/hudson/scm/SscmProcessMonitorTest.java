@@ -0,0 +1,91 @@
+package hudson.scm;
+
+import hudson.Launcher;
+import hudson.util.StreamTaskListener;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * SscmProcessMonitor Tester.
+ */
+public class SscmProcessMonitorTest extends TestCase {
+  private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+  private final StreamTaskListener listener = new StreamTaskListener(log);
+  private final SscmMetrics.Context metrics = new SscmMetrics.Context(null, null, null);
+
+  public SscmProcessMonitorTest(String name) {
+    super(name);
+  }
+
+  private Launcher.ProcStarter shell(String script) {
+    return new Launcher.LocalLauncher(listener).launch().cmds("sh", "-c", script);
+  }
+
+  public void testFinishedCommandReturnsExitCode() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int result = SscmProcessMonitor.run(SscmOperation.CHECKOUT, metrics, shell("echo done; exit 3"), out, listener,
+            60000, 60000, 0, 10);
+    assertEquals(3, result);
+    assertEquals("done\n", out.toString("UTF-8"));
+  }
+
+  public void testStalledCheckoutIsKilledAndRetried() throws Exception {
+    long stalls = SscmProcessMonitor.getStalls(SscmOperation.CHECKOUT);
+    long started = System.currentTimeMillis();
+    try {
+      SscmProcessMonitor.run(SscmOperation.CHECKOUT, metrics, shell("echo partial; sleep 30"),
+              new ByteArrayOutputStream(), listener, 0, 300, 1, 10);
+      fail("stalled command returned");
+    } catch (SscmProcessMonitor.SscmTimeoutException e) {
+      assertEquals(SscmOperation.CHECKOUT, e.getOperation());
+    }
+    assertTrue("took " + (System.currentTimeMillis() - started) + "ms", System.currentTimeMillis() - started < 20000);
+    // Checkout output can be thrown away, so the command was retried once before giving up.
+    assertEquals(stalls + 2, SscmProcessMonitor.getStalls(SscmOperation.CHECKOUT));
+    assertTrue(log.toString("UTF-8").contains("attempt 2 of 2"));
+  }
+
+  public void testTimeoutKillsCommandThatKeepsWriting() throws Exception {
+    long timeouts = SscmProcessMonitor.getTimeouts(SscmOperation.BROWSE);
+    try {
+      SscmProcessMonitor.run(SscmOperation.BROWSE, metrics, shell("while true; do echo line; sleep 0.1; done"),
+              new ByteArrayOutputStream(), listener, 500, 300, 0, 10);
+      fail("command without end returned");
+    } catch (SscmProcessMonitor.SscmTimeoutException e) {
+      assertEquals(SscmOperation.BROWSE, e.getOperation());
+    }
+    assertEquals(timeouts + 1, SscmProcessMonitor.getTimeouts(SscmOperation.BROWSE));
+  }
+
+  public void testCommandWithOutputIsNotRetried() throws Exception {
+    long stalls = SscmProcessMonitor.getStalls(SscmOperation.POLLING);
+    try {
+      SscmProcessMonitor.run(SscmOperation.POLLING, metrics, shell("echo partial; sleep 30"),
+              new ByteArrayOutputStream(), listener, 0, 300, 2, 10);
+      fail("stalled command returned");
+    } catch (SscmProcessMonitor.SscmTimeoutException e) {
+      assertEquals(SscmOperation.POLLING, e.getOperation());
+    }
+    // Polling output cannot be thrown away once written, a retry would append to it.
+    assertEquals(stalls + 1, SscmProcessMonitor.getStalls(SscmOperation.POLLING));
+  }
+
+  public void testSilentCommandIsRetried() throws Exception {
+    long stalls = SscmProcessMonitor.getStalls(SscmOperation.POLLING);
+    try {
+      SscmProcessMonitor.run(SscmOperation.POLLING, metrics, shell("sleep 30"), new ByteArrayOutputStream(),
+              listener, 0, 300, 2, 10);
+      fail("stalled command returned");
+    } catch (SscmProcessMonitor.SscmTimeoutException e) {
+      assertEquals(SscmOperation.POLLING, e.getOperation());
+    }
+    assertEquals(stalls + 3, SscmProcessMonitor.getStalls(SscmOperation.POLLING));
+  }
+
+  public static Test suite() {
+    return new TestSuite(SscmProcessMonitorTest.class);
+  }
+}
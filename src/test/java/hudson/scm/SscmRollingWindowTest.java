@@ -0,0 +1,54 @@
+package hudson.scm;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * SscmRollingWindow Tester.
+ */
+public class SscmRollingWindowTest extends TestCase {
+  public SscmRollingWindowTest(String name) {
+    super(name);
+  }
+
+  public void testBucketBounds() throws Exception {
+    for(long millis : new long[]{0, 1, 3, 4, 5, 7, 8, 100, 1000, 65535, 3600000}) {
+      int bucket = SscmRollingWindow.bucketOf(millis);
+      assertTrue(millis + " above its bucket", millis <= SscmRollingWindow.upperBoundOf(bucket));
+      assertTrue(millis + " below its bucket", bucket == 0 || millis > SscmRollingWindow.upperBoundOf(bucket - 1));
+    }
+  }
+
+  public void testPercentiles() throws Exception {
+    SscmRollingWindow window = new SscmRollingWindow();
+    long now = 1000000;
+    for(int i = 1; i <= 100; i++) {
+      window.record(i, now);
+    }
+    SscmRollingWindow.Snapshot snapshot = window.snapshot(now);
+    assertEquals(100, snapshot.getCount());
+    long p50 = snapshot.getPercentile(0.50);
+    assertTrue("p50 was " + p50, p50 >= 50 && p50 < 63);
+    long p99 = snapshot.getPercentile(0.99);
+    assertTrue("p99 was " + p99, p99 >= 99 && p99 < 124);
+  }
+
+  public void testOldSamplesExpire() throws Exception {
+    SscmRollingWindow window = new SscmRollingWindow();
+    long now = 1000000;
+    window.record(10, now);
+    long later = now + SscmRollingWindow.SLOTS * SscmRollingWindow.SLOT_MS;
+    assertEquals(1, window.snapshot(later - SscmRollingWindow.SLOT_MS).getCount());
+    assertEquals(0, window.snapshot(later).getCount());
+
+    // Reusing the slot clears what the previous lap left in it.
+    window.record(20, later);
+    assertEquals(1, window.snapshot(later).getCount());
+    assertEquals(0, new SscmRollingWindow().snapshot(later).getPercentile(0.5));
+  }
+
+  public static Test suite() {
+    return new TestSuite(SscmRollingWindowTest.class);
+  }
+}
@@ -0,0 +1,67 @@
+package hudson.scm;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * SurroundPollingSchedule Tester.
+ */
+public class SurroundPollingScheduleTest extends TestCase {
+  public SurroundPollingScheduleTest(String name) {
+    super(name);
+  }
+
+  public void testQuietBranchBacksOffToMaximum() throws Exception {
+    SurroundPollingSchedule schedule = new SurroundPollingSchedule(60000, 3600000);
+    assertEquals(60000, schedule.getIntervalMs());
+    long last = schedule.getIntervalMs();
+    for(int i = 0; i < 20; i++) {
+      schedule.polled(false);
+      assertTrue(schedule.getIntervalMs() >= last);
+      last = schedule.getIntervalMs();
+    }
+    assertEquals(3600000, schedule.getIntervalMs());
+  }
+
+  public void testChangesResetToMinimum() throws Exception {
+    SurroundPollingSchedule schedule = new SurroundPollingSchedule(60000, 3600000);
+    schedule.polled(false);
+    schedule.polled(false);
+    schedule.polled(true);
+    assertEquals(60000, schedule.getIntervalMs());
+  }
+
+  public void testNewBoundsClampInterval() throws Exception {
+    SurroundPollingSchedule schedule = new SurroundPollingSchedule(60000, 3600000);
+    for(int i = 0; i < 20; i++) {
+      schedule.polled(false);
+    }
+    schedule.setBounds(60000, 600000);
+    assertEquals(600000, schedule.getIntervalMs());
+    schedule.setBounds(900000, 600000);
+    assertEquals(900000, schedule.getIntervalMs());
+  }
+
+  public void testDelaysAreJittered() throws Exception {
+    SurroundPollingSchedule schedule = new SurroundPollingSchedule(100000, 100000);
+    Random random = new Random(42);
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for(int i = 0; i < 1000; i++) {
+      long delay = schedule.nextDelay(random);
+      min = Math.min(min, delay);
+      max = Math.max(max, delay);
+      assertTrue(schedule.initialDelay(random) < 100000);
+    }
+    assertTrue("delays below " + min, min >= 80000);
+    assertTrue("delays above " + max, max <= 120000);
+    assertTrue("delays not spread: " + min + ".." + max, max - min > 20000);
+  }
+
+  public static Test suite() {
+    return new TestSuite(SurroundPollingScheduleTest.class);
+  }
+}
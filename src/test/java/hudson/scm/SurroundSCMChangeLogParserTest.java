@@ -0,0 +1,85 @@
+package hudson.scm;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SurroundSCMChangeLogParser Tester.
+ */
+public class SurroundSCMChangeLogParserTest extends TestCase {
+  public SurroundSCMChangeLogParserTest(String name) {
+    super(name);
+  }
+
+  private static SurroundSCMChangeLogParser.LineReader reader(String content, int skip) throws Exception {
+    byte[] bytes = content.getBytes("UTF-8");
+    return new SurroundSCMChangeLogParser.LineReader(new ByteArrayInputStream(bytes, skip, bytes.length - skip), skip);
+  }
+
+  public void testLinesAndOffsets() throws Exception {
+    SurroundSCMChangeLogParser.LineReader reader = reader("first\r\n\nthird", 0);
+    assertEquals("first", reader.readLine());
+    assertEquals(7, reader.getOffset());
+    assertEquals("", reader.readLine());
+    assertEquals(8, reader.getOffset());
+    assertEquals("third", reader.readLine());
+    assertEquals(13, reader.getOffset());
+    assertNull(reader.readLine());
+    assertEquals(13, reader.getOffset());
+  }
+
+  public void testStartsAtOffset() throws Exception {
+    SurroundSCMChangeLogParser.LineReader reader = reader("first\nsecond\n", 6);
+    assertEquals("second", reader.readLine());
+    assertEquals(13, reader.getOffset());
+    assertNull(reader.readLine());
+  }
+
+  public void testOffsetsAreBytesNotCharacters() throws Exception {
+    SurroundSCMChangeLogParser.LineReader reader = reader("Gr\u00fc\u00dfe\nnext\n", 0);
+    assertEquals("Gr\u00fc\u00dfe", reader.readLine());
+    assertEquals(8, reader.getOffset());
+    assertEquals("next", reader.readLine());
+  }
+
+  public void testLinesSpanningBufferFills() throws Exception {
+    StringBuilder content = new StringBuilder();
+    List<String> expected = new ArrayList<String>();
+    for(int i = 0; i < 200; i++) {
+      StringBuilder line = new StringBuilder();
+      for(int j = 0; j < i * 37; j++) {
+        line.append((char) ('a' + j % 26));
+      }
+      // A multi byte character now and then, some of them split by a buffer boundary.
+      line.append(i % 3 == 0 ? "\u00e9" : "");
+      expected.add(line.toString());
+      content.append(line).append('\n');
+    }
+
+    SurroundSCMChangeLogParser.LineReader reader = reader(content.toString(), 0);
+    long offset = 0;
+    for(String line : expected) {
+      assertEquals(line, reader.readLine());
+      offset += line.getBytes("UTF-8").length + 1;
+      assertEquals(offset, reader.getOffset());
+    }
+    assertNull(reader.readLine());
+  }
+
+  public void testParseFields() throws Exception {
+    String[] fields = SurroundSCMChangeLogParser.parseFields("<Mainline/Project><Main.java><2><Check in><20161103144114>"
+            + "<Fixed it><Doe, John><john@example.com>");
+    assertEquals("Mainline/Project", fields[0]);
+    assertEquals("Doe, John", fields[6]);
+    assertNull(SurroundSCMChangeLogParser.parseFields("Total: 1"));
+  }
+
+  public static Test suite() {
+    return new TestSuite(SurroundSCMChangeLogParserTest.class);
+  }
+}
@@ -0,0 +1,35 @@
+package hudson.scm;
+
+import hudson.model.TaskListener;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * SurroundSCMSource Tester.
+ */
+public class SurroundSCMSourceTest extends TestCase {
+  public SurroundSCMSourceTest(String name) {
+    super(name);
+  }
+
+  public void testParseBranches() throws Exception {
+    assertEquals(Arrays.asList("Mainline", "Release 1.0", "Feature (x)"), SurroundSCMSource.parseBranches(
+            "Mainline (mainline)\n  Release 1.0 (baseline)\r\n\nFeature (x) (workspace)\nMainline (mainline)\n"));
+  }
+
+  public void testParseBranchesWithoutTypes() throws Exception {
+    assertEquals(Arrays.asList("Mainline", "Feature"), SurroundSCMSource.parseBranches("Mainline\nFeature\n"));
+  }
+
+  public void testParseHasChanges() throws Exception {
+    assertEquals(Boolean.TRUE, SurroundSCMSource.parseHasChanges("Total:3\n<a><b>...\n", "Mainline", TaskListener.NULL));
+    assertEquals(Boolean.FALSE, SurroundSCMSource.parseHasChanges("Total:0\n", "Mainline", TaskListener.NULL));
+  }
+
+  public void testParseHasChangesWithoutCount() throws Exception {
+    // Anything but a count says nothing about the branch, it must not be reported as changed.
+    assertNull(SurroundSCMSource.parseHasChanges("", "Mainline", TaskListener.NULL));
+    assertNull(SurroundSCMSource.parseHasChanges("Error: The server is not responding.\n", "Mainline", TaskListener.NULL));
+  }
+}